@@ -0,0 +1,354 @@
+import weka.core.Instances;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs preprocessing and the Evaluator model suite over many CSV files in one JVM.
+ *
+ * Datasets are processed concurrently on a work-stealing pool, largest file first.
+ * Before starting, a dataset reserves an estimated amount of heap (file size times
+ * --memory-factor) from a shared budget, so large files run with fewer neighbours
+ * and a file larger than the budget runs alone. The console output of each dataset
+ * goes to its own log; the console shows progress and one summary table at the end.
+ *
+ * Usage: BatchRunner <directory | glob> [--out=results/batch] [--threads=N]
+ *                    [--memory-factor=50] [--time-budget=<seconds per dataset>] [--checkpoint=<dir>]
+ *                    [Preprocessor options]
+ *   e.g. BatchRunner "datasets/T_data_*.csv" --threads=4
+ */
+public class BatchRunner {
+
+    static final String DEFAULT_OUT = "results/batch";
+    static final int DEFAULT_MEMORY_FACTOR = 50;      // heap needed per byte of CSV (model suite with forests)
+    static final long MIN_RESERVATION_MB = 64;
+    static final double HEAP_BUDGET = 0.75;           // share of the max heap used for reservations
+
+    // --- Outcome of one dataset ---
+    static class DatasetResult {
+        final File csv;
+        int rows;
+        int attributes;
+        long millis;
+        long reservedMb;
+        String status = "ok";
+        Evaluator.Session session;
+
+        DatasetResult(File csv) {
+            this.csv = csv;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (CommandLine.positional(args).isEmpty()) {
+            System.err.println("Usage: BatchRunner <directory | glob> [--out=" + DEFAULT_OUT + "] [--threads=N]"
+                    + " [--memory-factor=" + DEFAULT_MEMORY_FACTOR + "] [--time-budget=<seconds>] [--checkpoint=<dir>] [Preprocessor options]");
+            System.exit(2);
+        }
+        String input = CommandLine.positional(args, 0, null);
+        File outDir = new File(CommandLine.option(args, "out", DEFAULT_OUT));
+        int threads = CommandLine.intOption(args, "threads", Runtime.getRuntime().availableProcessors());
+        int memoryFactor = CommandLine.intOption(args, "memory-factor", DEFAULT_MEMORY_FACTOR);
+        Preprocessor.Options options = Preprocessor.parseOptions(args);
+        List<DatasetResult> results;
+        try {
+            // Optional: --time-budget=<seconds> per dataset, --oob-window=<trees> (see Evaluator)
+            Evaluator.timeBudgetMs = (long) (CommandLine.doubleOption(args, "time-budget", 0) * 1000);
+            Evaluator.oobWindow = CommandLine.intOption(args, "oob-window", 0);
+            // Optional: --checkpoint=<dir> [--checkpoint-models] (a re-run skips the folds already finished)
+            String checkpoint = CommandLine.option(args, "checkpoint", null);
+            Evaluator.checkpointDir = (checkpoint != null) ? new File(checkpoint) : null;
+            Evaluator.checkpointModels = CommandLine.flag(args, "checkpoint-models");
+
+            List<File> files = findCsvFiles(input);
+            if (files.isEmpty()) {
+                System.err.println("No CSV file matches " + input);
+                System.exit(1);
+            }
+
+            System.out.println("=".repeat(90));
+            System.out.println("=== BATCH RUNNER ===");
+            System.out.println("=".repeat(90));
+            System.out.println("Input   : " + input + " (" + files.size() + " CSV files)");
+            System.out.println("Output  : " + outDir.getPath());
+            System.out.println("Threads : " + threads);
+
+            results = run(files, outDir, threads, memoryFactor, options);
+        } finally {
+            Evaluator.resetOptions();     // not inherited by later runs in the same JVM (WekaDaemon, Pipeline)
+        }
+        printSummary(results);
+        File summary = writeSummaryTsv(results, new File(outDir, "summary.tsv"));
+        System.out.println("Summary TSV: " + summary.getPath());
+    }
+
+    // --- A directory (its *.csv files) or a glob such as datasets/T_data_*.csv ---
+    static List<File> findCsvFiles(String input) throws IOException {
+        File dir = new File(input);
+        if (dir.isDirectory()) {
+            File[] csvs = dir.listFiles((d, name) -> name.toLowerCase(Locale.ROOT).endsWith(".csv"));
+            List<File> files = new ArrayList<>();
+            if (csvs != null) {
+                for (File f : csvs) {
+                    files.add(f);
+                }
+            }
+            files.sort(Comparator.comparing(File::getName));
+            return files;
+        }
+
+        // Walk from the part of the pattern before the first wildcard
+        String normalized = input.replace('\\', '/');
+        int wildcard = indexOfWildcard(normalized);
+        int slash = (wildcard < 0) ? normalized.lastIndexOf('/') : normalized.lastIndexOf('/', wildcard);
+        Path base = Paths.get(slash < 0 ? "." : normalized.substring(0, Math.max(1, slash)));
+        if (!Files.isDirectory(base)) {
+            return new ArrayList<>();
+        }
+        String pattern = (slash < 0) ? normalized : normalized.substring(slash + 1);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+        try (Stream<Path> paths = Files.walk(base, maxDepth)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> matcher.matches(base.relativize(p)))
+                    .map(Path::toFile)
+                    .sorted(Comparator.comparing(File::getPath))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // --- Process all files; returns the results in input order ---
+    static List<DatasetResult> run(List<File> files, File outDir, int threads, int memoryFactor,
+                                   Preprocessor.Options options) throws Exception {
+        long budgetMb = Math.max(MIN_RESERVATION_MB,
+                (long) (Runtime.getRuntime().maxMemory() * HEAP_BUDGET / (1 << 20)));
+        Semaphore memory = new Semaphore((int) Math.min(Integer.MAX_VALUE, budgetMb), true);
+        System.out.printf("Heap budget: %,d MB (memory factor %d x file size, at least %d MB per dataset)%n",
+                budgetMb, memoryFactor, MIN_RESERVATION_MB);
+
+        // Largest first: big datasets do not end up alone at the tail of the run
+        List<DatasetResult> results = new ArrayList<>();
+        for (File f : files) {
+            results.add(new DatasetResult(f));
+        }
+        List<DatasetResult> order = new ArrayList<>(results);
+        order.sort(Comparator.comparingLong((DatasetResult r) -> r.csv.length()).reversed());
+
+        RoutedOutput console = RoutedOutput.install();
+        ExecutorService pool = Executors.newWorkStealingPool(Math.max(1, threads));
+        long start = System.currentTimeMillis();
+        PerfHistory.concurrent = threads > 1 && files.size() > 1;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (DatasetResult r : order) {
+                long estimateMb = Math.max(MIN_RESERVATION_MB, r.csv.length() * memoryFactor / (1 << 20));
+                r.reservedMb = Math.min(budgetMb, estimateMb);
+                futures.add(pool.submit(() -> {
+                    memory.acquireUninterruptibly((int) r.reservedMb);
+                    try {
+                        processDataset(r, outDir, options, console);
+                    } finally {
+                        memory.release((int) r.reservedMb);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+            console.uninstall();
+            PerfHistory.concurrent = false;
+        }
+        System.out.printf("%nAll %d datasets finished in %.1f s%n", files.size(),
+                (System.currentTimeMillis() - start) / 1000.0);
+        return results;
+    }
+
+    // --- Preprocess + evaluate one CSV, console output into <out>/<name>/log.txt ---
+    private static void processDataset(DatasetResult r, File outDir, Preprocessor.Options options,
+                                       RoutedOutput console) {
+        String name = r.csv.getName().replaceAll("(?i)\\.csv$", "");
+        File dir = new File(outDir, name);
+        File log = new File(dir, "log.txt");
+        console.direct().printf("[batch] start  %-30s (%,d bytes, %d MB reserved)%n",
+                name, r.csv.length(), r.reservedMb);
+
+        long start = System.currentTimeMillis();
+        try {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(log)), true, "UTF-8")) {
+                console.route(out);
+                try {
+                    String arff = new File(dir, name + "_preprocessed.arff").getPath();
+                    Instances data = Preprocessor.preprocessData(r.csv.getPath(), arff, options);
+                    r.rows = data.numInstances();
+                    r.attributes = data.numAttributes();
+                    r.session = Evaluator.run(data);
+                } catch (Exception | OutOfMemoryError e) {
+                    r.status = "failed: " + e;
+                    e.printStackTrace(out);
+                } finally {
+                    console.route(null);
+                }
+            }
+        } catch (IOException e) {
+            r.status = "failed: " + e;
+        }
+        r.millis = System.currentTimeMillis() - start;
+        console.direct().printf("[batch] %-6s %-30s %.1f s%n",
+                r.status.equals("ok") ? "done" : "FAILED", name, r.millis / 1000.0);
+    }
+
+    // --- Best baseline and best improved model of every dataset ---
+    static void printSummary(List<DatasetResult> results) {
+        System.out.println("\n" + "=".repeat(120));
+        System.out.println("CROSS-DATASET SUMMARY (10-fold CV accuracy %)");
+        System.out.println("=".repeat(120));
+        System.out.printf("%-28s | %7s | %5s | %-30s | %-30s | %8s%n",
+                "Dataset", "Rows", "Attrs", "Best baseline", "Best improved", "Time (s)");
+        System.out.println("-".repeat(120));
+        for (DatasetResult r : results) {
+            String name = r.csv.getName();
+            if (r.session == null) {
+                System.out.printf("%-28s | %7s | %5s | %-63s | %8.1f%n", name, "-", "-", r.status, r.millis / 1000.0);
+                continue;
+            }
+            System.out.printf("%-28s | %7d | %5d | %-30s | %-30s | %8.1f%n", name, r.rows, r.attributes,
+                    best(r.session.baselineResults), best(r.session.improvedResults), r.millis / 1000.0);
+        }
+        System.out.println("=".repeat(120));
+    }
+
+    private static String best(List<Evaluator.Result> results) {
+        Evaluator.Result top = null;
+        for (Evaluator.Result r : results) {
+            if (!Double.isNaN(r.accuracy) && (top == null || r.accuracy > top.accuracy)) {
+                top = r;
+            }
+        }
+        return (top == null) ? "-" : String.format("%s %.2f", top.modelName, top.accuracy);
+    }
+
+    // --- One line per dataset and model ---
+    static File writeSummaryTsv(List<DatasetResult> results, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println(String.join("\t", "dataset", "rows", "attributes", "group", "model",
+                    "accuracy", "precision", "recall", "f1", "kappa", "runtimeMs", "protocol", "status"));
+            for (DatasetResult r : results) {
+                if (r.session == null) {
+                    out.println(String.join("\t", r.csv.getName(), "", "", "", "", "", "", "", "", "", "", "",
+                            r.status.replace('\t', ' ').replace('\n', ' ')));
+                    continue;
+                }
+                writeRows(out, r, "baseline", r.session.baselineResults);
+                writeRows(out, r, "improved", r.session.improvedResults);
+            }
+        }
+        return file;
+    }
+
+    private static void writeRows(PrintWriter out, DatasetResult r, String group, List<Evaluator.Result> results) {
+        for (Evaluator.Result m : results) {
+            out.println(String.join("\t", r.csv.getName(), Integer.toString(r.rows), Integer.toString(r.attributes),
+                    group, m.modelName,
+                    String.format(Locale.ROOT, "%.4f", m.accuracy), String.format(Locale.ROOT, "%.4f", m.precision),
+                    String.format(Locale.ROOT, "%.4f", m.recall), String.format(Locale.ROOT, "%.4f", m.f1Score),
+                    String.format(Locale.ROOT, "%.4f", m.kappa), Long.toString(m.runtime), m.protocol, r.status));
+        }
+    }
+
+    // --- System.out replacement sending each thread's output to its own stream ---
+    static class RoutedOutput extends OutputStream {
+        private final PrintStream original;
+        private final PrintStream routed;
+        private final ThreadLocal<PrintStream> target = new ThreadLocal<>();
+
+        private RoutedOutput(PrintStream original) throws IOException {
+            this.original = original;
+            this.routed = new PrintStream(this, true, "UTF-8");
+        }
+
+        static RoutedOutput install() throws IOException {
+            RoutedOutput output = new RoutedOutput(System.out);
+            System.setOut(output.routed);
+            return output;
+        }
+
+        void uninstall() {
+            routed.flush();
+            System.setOut(original);
+        }
+
+        // Output of the calling thread goes to "out" (null = console)
+        void route(PrintStream out) {
+            routed.flush();
+            if (out == null) {
+                target.remove();
+            } else {
+                target.set(out);
+            }
+        }
+
+        // The real console, for progress lines
+        PrintStream direct() {
+            return original;
+        }
+
+        private OutputStream current() {
+            PrintStream out = target.get();
+            return (out != null) ? out : original;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Cross-validation progress on disk, so an interrupted Evaluator / Improver run can resume.
+ *
+ * After every fold the accumulated Evaluation is written to
+ * <dir>/<label>-<key>.ckpt (temporary file + atomic rename, so a crash never leaves a
+ * half-written checkpoint). The key hashes everything that decides the folds and the
+ * models: tool, dataset fingerprint, label, classifier class and options, number of
+ * folds and the state of the fold Random. A restarted run continues after the last
+ * finished fold; finished models are not trained again. Because the Evaluation object
+ * itself is restored and the fold Random is advanced exactly as before, the metrics are
+ * the same as in an uninterrupted run.
+ *
+ * Optionally the trained fold models are kept too (<label>-<key>.fold<i>.model); restored
+ * random forests are then available again for the warm start of the next forest.
+ */
+public class Checkpoint {
+
+    /** Progress of one cross-validation after foldsDone folds. */
+    static class State implements Serializable {
+
+        private static final long serialVersionUID = 5312467893022341937L;
+
+        Evaluation evaluation;      // accumulated over the finished folds
+        int foldsDone;
+        long elapsedMs;             // train + test time of the finished folds
+        long reusedTrees;           // warm start counters (Evaluator.Session)
+        long totalTrees;
+    }
+
+    private final File directory;
+    private final String tool;
+    private final boolean saveModels;
+    private int restoredFolds = 0;
+
+    public Checkpoint(File directory, String tool, boolean saveModels) {
+        this.directory = directory;
+        this.tool = tool;
+        this.saveModels = saveModels;
+        directory.mkdirs();
+    }
+
+    public boolean savesModels() {
+        return saveModels;
+    }
+
+    // Folds restored instead of computed, over all loads of this run
+    public int restoredFolds() {
+        return restoredFolds;
+    }
+
+    // --- File name prefix of one cross-validation: "<label>-<hash of everything it depends on>" ---
+    public String key(String label, Classifier model, Instances data, int numFolds, Random random) {
+        String options = (model instanceof OptionHandler)
+                ? Utils.joinOptions(((OptionHandler) model).getOptions()) : "";
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.join("\n", tool, PerfHistory.datasetFingerprint(data), label,
+                    model.getClass().getName(), options, Integer.toString(numFolds))
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update(serialize(random));   // current seed of the fold Random
+            String name = label.toLowerCase().replaceAll("[^a-z0-9]+", "_").replaceAll("^_|_$", "");
+            return name + "-" + Pipeline.toHex(digest.digest()).substring(0, 16);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // --- Last saved progress, null when there is none (or it cannot be read) ---
+    public State load(String key) {
+        File file = new File(directory, key + ".ckpt");
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            State state = (State) SerializationHelper.read(file.getPath());
+            restoredFolds += state.foldsDone;
+            return state;
+        } catch (Exception e) {
+            System.out.println("[Checkpoint] Ignoring unreadable " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(String key, State state) throws Exception {
+        writeAtomically(new File(directory, key + ".ckpt"), state);
+    }
+
+    public void saveModel(String key, int fold, Classifier model) throws Exception {
+        if (saveModels) {
+            writeAtomically(new File(directory, key + ".fold" + fold + ".model"), model);
+        }
+    }
+
+    // --- Trained model of a finished fold, null when it was not kept ---
+    public Classifier loadModel(String key, int fold) {
+        File file = new File(directory, key + ".fold" + fold + ".model");
+        if (!saveModels || !file.exists()) {
+            return null;
+        }
+        try {
+            return (Classifier) SerializationHelper.read(file.getPath());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String describe() {
+        return directory.getPath() + (saveModels ? " (fold models kept)" : "");
+    }
+
+    // --- Helper: write to a hidden temporary file in the same directory, then rename ---
+    private static void writeAtomically(File target, Object object) throws Exception {
+        Path tmp = target.toPath().resolveSibling("." + target.getName() + ".tmp");
+        SerializationHelper.write(tmp.toString(), object);
+        try {
+            Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+}
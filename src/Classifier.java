@@ -1,16 +1,36 @@
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.classifiers.trees.J48;
 import weka.classifiers.bayes.NaiveBayes;
 import weka.classifiers.functions.SMO;
 import weka.classifiers.lazy.IBk;
-import weka.classifiers.trees.RandomForest;
 import weka.classifiers.Evaluation;
 
+import java.io.File;
 import java.util.Random;
 
 public class Classifier {
 
+    // Out-of-core mode: fold files on disk instead of the dataset in memory (null = off)
+    static OutOfCoreCV.Folds outOfCore = null;
+
+    // Permutation importance on an 80/20 holdout after each classifier (0 = off)
+    static int importanceRepeats = 0;
+
+    // Pairwise dot products computed once for SMO: heap budget (0 = off) and spill file budget
+    static long distanceCacheBytes = 0;
+    static long distanceCacheDiskBytes = DistanceCache.DEFAULT_DISK_BYTES;
+
+    // Random forests stop growing after this many trees without out-of-bag improvement (0 = off)
+    static int oobWindow = 0;
+
+    // --- Options back to their defaults (main sets them; run() alone always uses the defaults) ---
+    static void resetOptions() {
+        importanceRepeats = 0;
+        distanceCacheBytes = 0;
+        distanceCacheDiskBytes = DistanceCache.DEFAULT_DISK_BYTES;
+        oobWindow = 0;
+    }
+
     public static void main(String[] args) throws Exception {
         System.out.println("=".repeat(80));
         System.out.println("=== HEART DISEASE CLASSIFICATION SYSTEM ===");
@@ -18,28 +38,58 @@ public class Classifier {
 
         // 1. Load preprocessed ARFF dataset
         // Support both absolute path and relative path
-        String datasetPath;
-        if (args.length > 0) {
-            // Use command line argument if provided
-            datasetPath = args[0];
-        } else {
-            // Default: use relative path
-            datasetPath = "datasets/heart_disease_preprocessed.arff";
-        }
-        
-        System.out.println("\n--- Loading Dataset ---");
-        System.out.println("Dataset path: " + datasetPath);
-        
-        DataSource source = new DataSource(datasetPath);
-        Instances data = source.getDataSet();
-        
-        System.out.println("Dataset loaded successfully!");
+        // Use command line argument if provided, default: relative path
+        String datasetPath = CommandLine.positional(args, 0, "datasets/heart_disease_preprocessed.arff");
 
-        // 2. Set class attribute (last attribute)
-        if (data.classIndex() == -1) {
-            data.setClassIndex(data.numAttributes() - 1);
+        try {
+            // Optional: --importance [--importance-repeats=5] (permutation feature importance per classifier)
+            importanceRepeats = CommandLine.flag(args, "importance")
+                    ? CommandLine.intOption(args, "importance-repeats", 5) : 0;
+
+            // Optional: --distance-cache [--distance-cache-mb=256] [--distance-cache-disk-mb=1024]
+            //           (SMO reads a shared dot-product matrix)
+            distanceCacheBytes = CommandLine.flag(args, "distance-cache")
+                    ? (long) CommandLine.intOption(args, "distance-cache-mb", 256) << 20 : 0;
+            distanceCacheDiskBytes = (long) CommandLine.intOption(args, "distance-cache-disk-mb", 1024) << 20;
+
+            // Optional: --oob-window=<trees> (the forest stops once out-of-bag error stops improving)
+            oobWindow = CommandLine.intOption(args, "oob-window", 0);
+
+            System.out.println("\n--- Loading Dataset ---");
+            System.out.println("Dataset path: " + datasetPath);
+
+            // Optional: --out-of-core (only the header is kept in memory, folds are streamed from disk)
+            if (CommandLine.flag(args, "out-of-core")) {
+                outOfCore = OutOfCoreCV.partition(new File(datasetPath), 10, 1);
+                System.out.println(OutOfCoreCV.describe(outOfCore));
+                try {
+                    run(outOfCore.header());
+                } finally {
+                    outOfCore.close();
+                    outOfCore = null;
+                }
+                return;
+            }
+
+            Instances data = DatasetCache.read(datasetPath);
+
+            System.out.println("Dataset loaded successfully!");
+
+            // 2. Set class attribute (last attribute)
+            if (data.classIndex() == -1) {
+                data.setClassIndex(data.numAttributes() - 1);
+            }
+
+            run(data);
+        } finally {
+            resetOptions();     // not inherited by later runs in the same JVM (WekaDaemon, Pipeline)
         }
+    }
 
+    /**
+     * Train and evaluate all classifiers on already loaded data (class index set)
+     */
+    public static void run(Instances data) throws Exception {
         // Print dataset information
         printDatasetInfo(data);
 
@@ -48,6 +98,37 @@ public class Classifier {
         System.out.println("=== TRAINING AND EVALUATING CLASSIFIERS ===");
         System.out.println("=".repeat(80));
 
+        DistanceCache cache = null;
+        if (distanceCacheBytes > 0 && outOfCore == null && DistanceCache.supports(data)) {
+            if (DistanceCache.fits(data.numInstances(), distanceCacheBytes, distanceCacheDiskBytes)) {
+                cache = DistanceCache.build(data, distanceCacheBytes, distanceCacheDiskBytes,
+                        Runtime.getRuntime().availableProcessors());
+                System.out.println("\n[" + cache.describe() + "]");
+            } else {
+                System.out.printf("%n[Distance cache] Skipped: the matrix needs %d MB, more than %d MB heap + %d MB disk%n",
+                        DistanceCache.matrixBytes(data.numInstances()) >> 20, distanceCacheBytes >> 20,
+                        distanceCacheDiskBytes >> 20);
+            }
+        }
+        try {
+            runClassifiers(data, cache);
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+        }
+
+        // Final summary
+        System.out.println("\n" + "=".repeat(80));
+        System.out.println("ALL CLASSIFIERS COMPLETED SUCCESSFULLY");
+        System.out.println("=".repeat(80));
+    }
+
+    /**
+     * The seven classifiers (SMO on the distance cache when one is given)
+     */
+    private static void runClassifiers(Instances data, DistanceCache cache) throws Exception {
+
         // J48 Decision Tree
         System.out.println("\n" + "█".repeat(80));
         System.out.println("█ 1. J48 DECISION TREE");
@@ -64,27 +145,34 @@ public class Classifier {
         System.out.println("\n" + "█".repeat(80));
         System.out.println("█ 3. SUPPORT VECTOR MACHINE (SVM)");
         System.out.println("█".repeat(80));
-        evaluateClassifier(new SMO(), data, "SVM (SMO)");
+        evaluateClassifier((cache != null) ? DistanceCache.cachedSMO(cache) : new SMO(), data, "SVM (SMO)");
 
         // k-Nearest Neighbors (k=3)
         System.out.println("\n" + "█".repeat(80));
         System.out.println("█ 4. k-NEAREST NEIGHBORS (k=3)");
         System.out.println("█".repeat(80));
-        IBk knn = new IBk(3);
-        evaluateClassifier(knn, data, "k-NN (k=3)");
+        evaluateClassifier(new IBk(3), data, "k-NN (k=3)");
 
         // Random Forest
         System.out.println("\n" + "█".repeat(80));
         System.out.println("█ 5. RANDOM FOREST");
         System.out.println("█".repeat(80));
-        RandomForest rf = new RandomForest();
+        GrowableRandomForest rf = new GrowableRandomForest();
         rf.setNumIterations(100);
+        rf.setOutOfBagWindow(oobWindow);
         evaluateClassifier(rf, data, "Random Forest");
 
-        // Final summary
-        System.out.println("\n" + "=".repeat(80));
-        System.out.println("ALL CLASSIFIERS COMPLETED SUCCESSFULLY");
-        System.out.println("=".repeat(80));
+        // Histogram Gradient Boosting
+        System.out.println("\n" + "█".repeat(80));
+        System.out.println("█ 6. HISTOGRAM GRADIENT BOOSTING");
+        System.out.println("█".repeat(80));
+        evaluateClassifier(new HistGradientBoosting(), data, "Hist Gradient Boosting");
+
+        // Linear SVM (dual coordinate descent)
+        System.out.println("\n" + "█".repeat(80));
+        System.out.println("█ 7. LINEAR SVM (DUAL COORDINATE DESCENT)");
+        System.out.println("█".repeat(80));
+        evaluateClassifier(new LinearSVM(), data, "Linear SVM");
     }
 
     /**
@@ -93,9 +181,13 @@ public class Classifier {
     private static void printDatasetInfo(Instances data) {
         System.out.println("\n--- Dataset Information ---");
         System.out.printf("Dataset Name: %s%n", data.relationName());
-        System.out.printf("Number of Instances: %d%n", data.numInstances());
+        System.out.printf("Number of Instances: %d%n", (outOfCore != null) ? outOfCore.numRows() : data.numInstances());
         System.out.printf("Number of Attributes: %d%n", data.numAttributes());
         System.out.printf("Class Attribute: %s%n", data.classAttribute().name());
+        String weights = Preprocessor.describeWeights(data);
+        if (weights != null) {
+            System.out.printf("Instance Weights: %s (k-NN ignores them)%n", weights);
+        }
         System.out.printf("Class Values: ");
         for (int i = 0; i < data.classAttribute().numValues(); i++) {
             System.out.printf("%s ", data.classAttribute().value(i));
@@ -112,12 +204,22 @@ public class Classifier {
         
         // Print algorithm description
         printAlgorithmDescription(classifierName);
+        if (DistanceCache.isCached(classifier)) {
+            System.out.println("Protocol: " + DistanceCache.describeLearner(classifier));
+        }
+
+        if (outOfCore != null) {
+            evaluateOutOfCore(classifier, classifierName);
+            return;
+        }
 
         // Build classifier
         System.out.println("\n--- Training Classifier ---");
+        PerfHistory.resetPeakHeap();
         long startTime = System.currentTimeMillis();
         classifier.buildClassifier(data);
         long trainingTime = System.currentTimeMillis() - startTime;
+        GrowableRandomForest.discardTrainingData(classifier);   // done growing: keep only the trees
         System.out.printf("Training completed in %d ms%n", trainingTime);
 
         // Evaluate with 10-fold cross-validation
@@ -127,9 +229,34 @@ public class Classifier {
         eval.crossValidateModel(classifier, data, 10, new Random(1));
         long evalTime = System.currentTimeMillis() - startTime;
         System.out.printf("Evaluation completed in %d ms%n", evalTime);
+        PerfHistory.record("Classifier", "train+cv", classifierName, classifier, data, trainingTime, evalTime);
 
         // Print detailed results
         printDetailedResults(eval, classifierName);
+
+        if (importanceRepeats > 0) {
+            printFeatureImportance(classifier, data, classifierName);
+        }
+    }
+
+    /**
+     * Permutation feature importance: train on 80% of the data, shuffle each attribute on the other 20%
+     */
+    private static void printFeatureImportance(weka.classifiers.Classifier classifier,
+                                               Instances data,
+                                               String classifierName) throws Exception {
+        Instances shuffled = new Instances(data);
+        shuffled.randomize(new Random(1));
+        int trainSize = (int) Math.round(shuffled.numInstances() * 0.8);
+        Instances train = new Instances(shuffled, 0, trainSize);
+        Instances test = new Instances(shuffled, trainSize, shuffled.numInstances() - trainSize);
+
+        // The full-data model is no longer needed: retrain it on the holdout split
+        classifier.buildClassifier(train);
+        GrowableRandomForest.discardTrainingData(classifier);   // every thread gets a copy of the model
+        PermutationImportance importance = new PermutationImportance(importanceRepeats,
+                Runtime.getRuntime().availableProcessors(), 1);
+        importance.printReport(importance.compute(classifier, test), classifierName, 15);
     }
 
     /**
@@ -180,6 +307,17 @@ public class Classifier {
                 System.out.println("  - Versatile with different kernel functions");
                 break;
 
+            case "Linear SVM":
+                System.out.println("Algorithm: Linear SVM (dual coordinate descent)");
+                System.out.println("Description:");
+                System.out.println("  - Same linear maximum-margin model as SMO with a linear kernel");
+                System.out.println("  - Optimizes one dual variable per row at a time");
+                System.out.println("  - Each pass over the data is linear in the number of rows");
+                System.out.println("Advantages:");
+                System.out.println("  - Much faster than SMO on large datasets");
+                System.out.println("  - Works directly on the normalized [0, 1] features");
+                break;
+
             case "k-NN (k=3)":
                 System.out.println("Algorithm: k-Nearest Neighbors (k=3)");
                 System.out.println("Description:");
@@ -205,7 +343,42 @@ public class Classifier {
                 System.out.println("  - Handles large datasets with high dimensionality");
                 System.out.println("  - Provides feature importance rankings");
                 break;
+
+            case "Hist Gradient Boosting":
+                System.out.println("Algorithm: Histogram-based Gradient Boosting");
+                System.out.println("Description:");
+                System.out.println("  - Attributes are binned once into at most 255 byte-sized bins");
+                System.out.println("  - Trees are added one by one to correct the previous errors");
+                System.out.println("  - Splits are found from per-bin gradient histograms");
+                System.out.println("  - Histograms are built in parallel over attributes");
+                System.out.println("Advantages:");
+                System.out.println("  - Fast training on large datasets");
+                System.out.println("  - Low memory use (one byte per value)");
+                System.out.println("  - Handles missing values natively");
+                break;
+        }
+    }
+
+    /**
+     * Out-of-core mode: 10-fold cross-validation over the fold files, no full-data model
+     */
+    private static void evaluateOutOfCore(weka.classifiers.Classifier classifier,
+                                          String classifierName) throws Exception {
+        System.out.println("\n--- Training on full data skipped (out-of-core mode) ---");
+        if (!OutOfCoreCV.fits(classifier, outOfCore)) {
+            System.out.println("Skipped: training folds do not fit in memory for " + classifierName);
+            return;
         }
+
+        System.out.println("\n--- Performing 10-Fold Cross-Validation (out-of-core) ---");
+        PerfHistory.resetPeakHeap();
+        long startTime = System.currentTimeMillis();
+        Evaluation eval = OutOfCoreCV.crossValidate(classifier, outOfCore, null, classifierName);
+        long evalTime = System.currentTimeMillis() - startTime;
+        System.out.printf("Evaluation completed in %d ms%n", evalTime);
+        PerfHistory.record("Classifier", "ooc-cv", classifierName, classifier, outOfCore.header(), -1, evalTime);
+
+        printDetailedResults(eval, classifierName);
     }
 
     /**
@@ -0,0 +1,58 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small helper for the command line tools.
+ * Positional arguments keep their original meaning (e.g. input / output path),
+ * optional modes are given as "--flag" or "--name=value".
+ */
+public class CommandLine {
+
+    // --- Positional arguments (everything that does not start with "--") ---
+    public static List<String> positional(String[] args) {
+        List<String> result = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                result.add(arg);
+            }
+        }
+        return result;
+    }
+
+    // --- Positional argument at index, or default if not given ---
+    public static String positional(String[] args, int index, String defaultValue) {
+        List<String> values = positional(args);
+        return (index < values.size()) ? values.get(index) : defaultValue;
+    }
+
+    // --- "--name" present? ---
+    public static boolean flag(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.equals("--" + name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- "--name=value", or default if not given ---
+    public static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    public static int intOption(String[] args, String name, int defaultValue) {
+        String value = option(args, name, null);
+        return (value != null) ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public static double doubleOption(String[] args, String name, double defaultValue) {
+        String value = option(args, name, null);
+        return (value != null) ? Double.parseDouble(value) : defaultValue;
+    }
+}
@@ -0,0 +1,572 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.CostMatrix;
+import weka.classifiers.IteratedSingleClassifierEnhancer;
+import weka.classifiers.meta.CostSensitiveClassifier;
+import weka.classifiers.trees.RandomTree;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compact on-disk format for trained RandomForest models (optionally wrapped in a
+ * CostSensitiveClassifier), and a scorer that reads it through memory mapping.
+ *
+ * File layout (big-endian):
+ *   magic, version, numTrees, numClasses, flags, [cost matrix], ARFF header,
+ *   tree index (byte offset of every tree), trees.
+ * Every tree is stored in preorder; a node is a varint (attribute + 1, 0 = leaf), for
+ * inner nodes the number of children, the split point, the missing-value proportions
+ * as float32, and the class counts as varints (float32 if not integral). Inner-node
+ * counts are only kept where Weka can fall back to them (empty child).
+ *
+ * Split points are stored as float32 when a float sends every training value to the
+ * same side as Weka's double (checked against the training data when it is given),
+ * and as double otherwise.
+ *
+ * Opening a file only reads the header and the index; a tree is decoded the first
+ * time it is used. The mapped pages are shared by every process scoring the same file.
+ * Predictions match Weka's for every value seen in training; proportions (only used
+ * for missing values) are rounded to float32.
+ */
+public class CompactForest extends AbstractClassifier {
+
+    private static final long serialVersionUID = 3620118475032275149L;
+
+    private static final int MAGIC = 0x43464f52;      // "CFOR"
+    private static final int VERSION = 1;
+    private static final int FLAG_MINIMIZE_COST = 1;
+
+    private static final byte COUNTS_NONE = 0;
+    private static final byte COUNTS_VARINT = 1;
+    private static final byte COUNTS_FLOAT = 2;
+
+    private transient ByteBuffer buffer;
+    private transient AtomicReferenceArray<Tree> trees;
+    private Instances header;
+    private int numClasses;
+    private long[] offsets;
+    private double[][] costs;           // [actual][predicted], null = plain forest
+
+    // ===================== WRITING =====================
+
+    // --- Write a trained RandomForest (or CostSensitiveClassifier around one) ---
+    public static void write(Classifier model, File file) throws Exception {
+        write(model, file, null);
+    }
+
+    // --- Same; "train" (the training data, may be null) lets more split points be float32 ---
+    public static void write(Classifier model, File file, Instances train) throws Exception {
+        double[][] costs = null;
+        Classifier forest = model;
+        if (model instanceof CostSensitiveClassifier) {
+            CostSensitiveClassifier csc = (CostSensitiveClassifier) model;
+            forest = csc.getClassifier();
+            if (csc.getMinimizeExpectedCost()) {
+                CostMatrix matrix = csc.getCostMatrix();
+                costs = new double[matrix.numRows()][matrix.numColumns()];
+                for (int i = 0; i < matrix.numRows(); i++) {
+                    for (int j = 0; j < matrix.numColumns(); j++) {
+                        costs[i][j] = matrix.getElement(i, j);
+                    }
+                }
+            }
+            // reweighting mode needs nothing at prediction time
+        }
+        if (!(forest instanceof IteratedSingleClassifierEnhancer)) {
+            throw new IllegalArgumentException("Not a RandomForest: " + forest.getClass().getName());
+        }
+        Classifier[] members = (Classifier[]) field(IteratedSingleClassifierEnhancer.class, "m_Classifiers").get(forest);
+        if (members == null || members.length == 0) {
+            throw new IllegalArgumentException("The forest has not been built yet");
+        }
+
+        double[][] trainValues = null;
+        Instances info = null;
+        byte[][] encoded = new byte[members.length][];
+        for (int t = 0; t < members.length; t++) {
+            if (!(members[t] instanceof RandomTree)) {
+                throw new IllegalArgumentException("Not a RandomTree: " + members[t].getClass().getName());
+            }
+            RandomTree tree = (RandomTree) members[t];
+            Instances treeInfo = (Instances) field(RandomTree.class, "m_Info").get(tree);
+            if (info == null) {
+                info = treeInfo;
+                trainValues = (train != null) ? sortedValues(train) : new double[info.numAttributes()][];
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            Object zeroR = field(RandomTree.class, "m_zeroR").get(tree);
+            if (zeroR != null) {
+                // no usable attribute: a single leaf with ZeroR's (constant) distribution
+                Instance any = new DenseInstance(info.numAttributes());
+                any.setDataset(info);
+                writeVarint(out, 0);
+                writeCounts(out, ((Classifier) zeroR).distributionForInstance(any));
+            } else {
+                writeNode(out, field(RandomTree.class, "m_Tree").get(tree), info, trainValues);
+            }
+            out.flush();
+            encoded[t] = bytes.toByteArray();
+        }
+
+        byte[] headerText = new Instances(info, 0).toString().getBytes(StandardCharsets.UTF_8);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(members.length);
+            out.writeInt(info.numClasses());
+            out.writeInt(costs != null ? FLAG_MINIMIZE_COST : 0);
+            if (costs != null) {
+                for (double[] row : costs) {
+                    for (double cost : row) {
+                        out.writeDouble(cost);
+                    }
+                }
+            }
+            out.writeInt(headerText.length);
+            out.write(headerText);
+
+            // tree index: absolute offsets, plus the end of the last tree
+            long position = out.size() + 8L * (members.length + 1);
+            for (byte[] tree : encoded) {
+                out.writeLong(position);
+                position += tree.length;
+            }
+            out.writeLong(position);
+            for (byte[] tree : encoded) {
+                out.write(tree);
+            }
+        }
+    }
+
+    // --- Helper: one RandomTree.Tree node and its subtree, in preorder ---
+    private static void writeNode(DataOutputStream out, Object node, Instances info, double[][] trainValues)
+            throws Exception {
+        Class<?> type = node.getClass();
+        int attribute = field(type, "m_Attribute").getInt(node);
+        double[] counts = (double[]) field(type, "m_ClassDistribution").get(node);
+        writeVarint(out, attribute + 1);
+        if (attribute < 0) {
+            writeCounts(out, counts);
+            return;
+        }
+
+        Object[] successors = (Object[]) field(type, "m_Successors").get(node);
+        double[] prop = (double[]) field(type, "m_Prop").get(node);
+        if (info.attribute(attribute).isNumeric()) {
+            // lowest bit of the child count: split point stored as double
+            double split = field(type, "m_SplitPoint").getDouble(node);
+            float quantized = quantize(split, trainValues[attribute]);
+            boolean exact = !Float.isNaN(quantized);
+            writeVarint(out, successors.length * 2 + (exact ? 0 : 1));
+            if (exact) {
+                out.writeFloat(quantized);
+            } else {
+                out.writeDouble(split);
+            }
+        } else {
+            writeVarint(out, successors.length * 2);
+        }
+        for (int i = 0; i < successors.length; i++) {
+            out.writeFloat(prop == null ? 0f : (float) prop[i]);
+        }
+        boolean fallbackUsed = false;
+        for (Object child : successors) {
+            fallbackUsed |= canReturnNull(child);
+        }
+        writeCounts(out, fallbackUsed ? counts : null);
+        for (Object child : successors) {
+            writeNode(out, child, info, trainValues);
+        }
+    }
+
+    // --- Helper: a float giving the same "value < split" answer for every training value
+    //     (lossless float, or one between the training values around the split); NaN if none ---
+    private static float quantize(double split, double[] values) {
+        float f = (float) split;
+        if (f == split) {
+            return f;
+        }
+        if (values == null) {
+            return Float.NaN;
+        }
+        // below = largest training value < split, above = smallest >= split
+        int pos = Arrays.binarySearch(values, split);
+        int firstAbove = (pos >= 0) ? pos : -pos - 1;
+        double below = (firstAbove > 0) ? values[firstAbove - 1] : Double.NEGATIVE_INFINITY;
+        double above = (firstAbove < values.length) ? values[firstAbove] : Double.POSITIVE_INFINITY;
+
+        float down = (f > split) ? Math.nextDown(f) : f;
+        if (down > below) {
+            return down;
+        }
+        float up = Math.nextUp(down);
+        return (up <= above) ? up : Float.NaN;
+    }
+
+    // --- Helper: sorted distinct values of every numeric attribute ---
+    private static double[][] sortedValues(Instances data) {
+        double[][] values = new double[data.numAttributes()][];
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (data.attribute(j).isNumeric()) {
+                values[j] = Arrays.stream(data.attributeToDoubleArray(j))
+                        .filter(v -> !Double.isNaN(v)).sorted().distinct().toArray();
+            }
+        }
+        return values;
+    }
+
+    // --- Helper: Weka returns null for a node without counts whose chosen child is empty ---
+    private static boolean canReturnNull(Object node) throws Exception {
+        Class<?> type = node.getClass();
+        if (field(type, "m_ClassDistribution").get(node) != null) {
+            return false;
+        }
+        if (field(type, "m_Attribute").getInt(node) < 0) {
+            return true;
+        }
+        for (Object child : (Object[]) field(type, "m_Successors").get(node)) {
+            if (canReturnNull(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeCounts(DataOutputStream out, double[] counts) throws IOException {
+        if (counts == null) {
+            out.writeByte(COUNTS_NONE);
+            return;
+        }
+        boolean integral = true;
+        for (double c : counts) {
+            integral &= (c >= 0 && c < Integer.MAX_VALUE && c == Math.rint(c));
+        }
+        out.writeByte(integral ? COUNTS_VARINT : COUNTS_FLOAT);
+        for (double c : counts) {
+            if (integral) {
+                writeVarint(out, (int) c);
+            } else {
+                out.writeFloat((float) c);
+            }
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static Field field(Class<?> type, String name) throws NoSuchFieldException {
+        Field f = type.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+
+    // ===================== READING =====================
+
+    // --- Map the file and read header + tree index; trees are decoded on first use ---
+    public static CompactForest open(File file) throws Exception {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        CompactForest forest = new CompactForest();
+        forest.buffer = mapped;
+        ByteBuffer in = mapped.duplicate();
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a compact forest file (or unsupported version): " + file);
+        }
+        int numTrees = in.getInt();
+        forest.numClasses = in.getInt();
+        int flags = in.getInt();
+        if ((flags & FLAG_MINIMIZE_COST) != 0) {
+            forest.costs = new double[forest.numClasses][forest.numClasses];
+            for (double[] row : forest.costs) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = in.getDouble();
+                }
+            }
+        }
+        byte[] headerText = new byte[in.getInt()];
+        in.get(headerText);
+        forest.header = new Instances(new StringReader(new String(headerText, StandardCharsets.UTF_8)));
+        forest.header.setClassIndex(forest.header.numAttributes() - 1);
+        forest.offsets = new long[numTrees + 1];
+        for (int t = 0; t <= numTrees; t++) {
+            forest.offsets[t] = in.getLong();
+        }
+        forest.trees = new AtomicReferenceArray<>(numTrees);
+        return forest;
+    }
+
+    public Instances header() {
+        return header;
+    }
+
+    public int numTrees() {
+        return offsets.length - 1;
+    }
+
+    // --- Number of trees decoded so far ---
+    public int numLoadedTrees() {
+        int loaded = 0;
+        for (int t = 0; t < trees.length(); t++) {
+            loaded += (trees.get(t) != null) ? 1 : 0;
+        }
+        return loaded;
+    }
+
+    // --- One decoded tree: flat node arrays, children stored contiguously per node ---
+    private static class Tree {
+        int[] attribute;
+        double[] split;
+        int[] firstChild;
+        int[] numChildren;
+        int[] children;
+        double[][] prop;
+        double[][] distribution;    // normalized counts, null = none
+    }
+
+    private Tree tree(int t) {
+        Tree tree = trees.get(t);
+        if (tree == null) {
+            ByteBuffer in = buffer.duplicate();
+            in.position((int) offsets[t]);
+            tree = new TreeDecoder(in, (int) (offsets[t + 1] - offsets[t])).decode();
+            trees.compareAndSet(t, null, tree);
+            tree = trees.get(t);
+        }
+        return tree;
+    }
+
+    private class TreeDecoder {
+        private final ByteBuffer in;
+        private final Tree tree = new Tree();
+        private int numNodes = 0;
+        private int numChildRefs = 0;
+
+        TreeDecoder(ByteBuffer in, int numBytes) {
+            this.in = in;
+            // a node takes at least 2 bytes, which bounds the array sizes
+            int capacity = Math.max(1, numBytes / 2);
+            tree.attribute = new int[capacity];
+            tree.split = new double[capacity];
+            tree.firstChild = new int[capacity];
+            tree.numChildren = new int[capacity];
+            tree.children = new int[capacity];
+            tree.prop = new double[capacity][];
+            tree.distribution = new double[capacity][];
+        }
+
+        Tree decode() {
+            node();
+            return tree;
+        }
+
+        private int node() {
+            int id = numNodes++;
+            int attribute = readVarint() - 1;
+            tree.attribute[id] = attribute;
+            if (attribute < 0) {
+                tree.distribution[id] = readCounts();
+                return id;
+            }
+            int tag = readVarint();
+            int count = tag >>> 1;
+            if (header.attribute(attribute).isNumeric()) {
+                tree.split[id] = ((tag & 1) != 0) ? in.getDouble() : in.getFloat();
+            }
+            double[] prop = new double[count];
+            for (int i = 0; i < count; i++) {
+                prop[i] = in.getFloat();
+            }
+            tree.prop[id] = prop;
+            tree.distribution[id] = readCounts();
+            tree.numChildren[id] = count;
+            tree.firstChild[id] = numChildRefs;
+            numChildRefs += count;
+            for (int i = 0; i < count; i++) {
+                tree.children[tree.firstChild[id] + i] = node();
+            }
+            return id;
+        }
+
+        private double[] readCounts() {
+            byte mode = in.get();
+            if (mode == COUNTS_NONE) {
+                return null;
+            }
+            double[] counts = new double[numClasses];
+            for (int k = 0; k < numClasses; k++) {
+                counts[k] = (mode == COUNTS_VARINT) ? readVarint() : in.getFloat();
+            }
+            Utils.normalize(counts);
+            return counts;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = in.get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+    }
+
+    // --- Same recursion as RandomTree.Tree.distributionForInstance ---
+    private double[] distribution(Tree tree, int node, Instance instance) {
+        double[] returned = null;
+        int attribute = tree.attribute[node];
+        if (attribute >= 0) {
+            int first = tree.firstChild[node];
+            if (instance.isMissing(attribute)) {
+                returned = new double[numClasses];
+                for (int i = 0; i < tree.numChildren[node]; i++) {
+                    double[] help = distribution(tree, tree.children[first + i], instance);
+                    if (help != null) {
+                        for (int k = 0; k < numClasses; k++) {
+                            returned[k] += tree.prop[node][i] * help[k];
+                        }
+                    }
+                }
+            } else if (header.attribute(attribute).isNominal()) {
+                returned = distribution(tree, tree.children[first + (int) instance.value(attribute)], instance);
+            } else {
+                int side = (instance.value(attribute) < tree.split[node]) ? 0 : 1;
+                returned = distribution(tree, tree.children[first + side], instance);
+            }
+        }
+        if (attribute < 0 || returned == null) {
+            return (tree.distribution[node] == null) ? null : tree.distribution[node].clone();
+        }
+        return returned;
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        double[] sums = new double[numClasses];
+        for (int t = 0; t < numTrees(); t++) {
+            double[] p = distribution(tree(t), 0, instance);
+            if (p != null) {
+                for (int k = 0; k < numClasses; k++) {
+                    sums[k] += p[k];
+                }
+            }
+        }
+        if (!Utils.eq(Utils.sum(sums), 0)) {
+            Utils.normalize(sums);
+        }
+        if (costs == null) {
+            return sums;
+        }
+
+        // CostSensitiveClassifier with minimizeExpectedCost: predict the cheapest class
+        double[] expected = new double[numClasses];
+        for (int predicted = 0; predicted < numClasses; predicted++) {
+            for (int actual = 0; actual < numClasses; actual++) {
+                expected[predicted] += sums[actual] * costs[actual][predicted];
+            }
+        }
+        int best = Utils.minIndex(expected);
+        double[] result = new double[numClasses];
+        result[best] = 1.0;
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        throw new Exception("CompactForest is read-only: train a RandomForest and use CompactForest.write");
+    }
+
+    @Override
+    public String toString() {
+        if (offsets == null) {
+            return "CompactForest: no file opened.";
+        }
+        return "CompactForest: " + numTrees() + " trees (" + numLoadedTrees() + " loaded)"
+                + (costs != null ? ", minimum expected cost" : "");
+    }
+
+    // --- MAIN: convert a serialized Weka model and compare with it ---
+    //     Usage: CompactForest <weka.model> <out.cforest> [train.arff]
+    //     (the training data lets more split points be stored as float32; predictions are compared on it)
+    public static void main(String[] args) throws Exception {
+        if (CommandLine.positional(args).size() < 2) {
+            System.err.println("Usage: CompactForest <weka.model> <out.cforest> [train.arff]");
+            System.exit(2);
+        }
+        File modelFile = new File(CommandLine.positional(args, 0, null));
+        File compactFile = new File(CommandLine.positional(args, 1, null));
+        String dataPath = CommandLine.positional(args, 2, null);
+
+        System.out.println("=== COMPACT FOREST ===");
+        long start = System.nanoTime();
+        Classifier model = (Classifier) SerializationHelper.read(modelFile.getPath());
+        double deserializeMs = (System.nanoTime() - start) / 1e6;
+
+        Instances data = null;
+        if (dataPath != null) {
+            data = DataSource.read(dataPath);
+            data.setClassIndex(data.numAttributes() - 1);
+        }
+        write(model, compactFile, data);
+
+        start = System.nanoTime();
+        CompactForest forest = open(compactFile);
+        double openMs = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("Serialized model: %,d bytes, deserialized in %.1f ms%n", modelFile.length(), deserializeMs);
+        System.out.printf("Compact model:    %,d bytes, opened in %.1f ms (%d trees, loaded on first use)%n",
+                compactFile.length(), openMs, forest.numTrees());
+
+        if (data != null) {
+            start = System.nanoTime();
+            forest.distributionForInstance(data.instance(0));
+            System.out.printf("First prediction: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+            int disagreements = 0;
+            double maxDiff = 0;
+            for (int i = 0; i < data.numInstances(); i++) {
+                double[] expected = model.distributionForInstance(data.instance(i));
+                double[] actual = forest.distributionForInstance(data.instance(i));
+                if (Utils.maxIndex(expected) != Utils.maxIndex(actual)) {
+                    disagreements++;
+                }
+                for (int k = 0; k < expected.length; k++) {
+                    maxDiff = Math.max(maxDiff, Math.abs(expected[k] - actual[k]));
+                }
+            }
+            System.out.printf("Compared on %d rows: %d different predictions, max probability difference %.2e%n",
+                    data.numInstances(), disagreements, maxDiff);
+        }
+    }
+}
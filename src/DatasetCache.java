@@ -0,0 +1,82 @@
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU cache of loaded datasets, used by the tools when they run inside WekaDaemon.
+ *
+ * Entries are keyed by canonical path, file size and modification time, so a changed
+ * file is loaded again. Every hit returns a copy, because the tools modify their data.
+ * With capacity 0 (the default for normal command line runs) nothing is kept.
+ */
+public class DatasetCache {
+
+    // --- Loads a dataset from a file ---
+    interface Loader {
+        Instances load(File file) throws Exception;
+    }
+
+    private static int capacity = 0;
+    private static long hits;
+    private static long misses;
+
+    private static final Map<String, Instances> CACHE = new LinkedHashMap<String, Instances>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Instances> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    public static synchronized void setCapacity(int datasets) {
+        capacity = Math.max(0, datasets);
+        while (CACHE.size() > capacity) {
+            CACHE.remove(CACHE.keySet().iterator().next());
+        }
+    }
+
+    // --- ARFF (or any format DataSource understands) ---
+    public static Instances read(String path) throws Exception {
+        return load(new File(path), file -> DataSource.read(file.getPath()));
+    }
+
+    // --- Any file with a custom loader ("kind" separates loaders of the same file) ---
+    public static Instances load(File file, Loader loader) throws Exception {
+        return load(file, "", loader);
+    }
+
+    public static Instances load(File file, String kind, Loader loader) throws Exception {
+        String key = key(file, kind);
+        synchronized (DatasetCache.class) {
+            Instances cached = CACHE.get(key);
+            if (cached != null) {
+                hits++;
+                return new Instances(cached);
+            }
+            misses++;
+        }
+
+        Instances data = loader.load(file);
+        synchronized (DatasetCache.class) {
+            if (capacity > 0) {
+                CACHE.put(key, new Instances(data));
+            }
+        }
+        return data;
+    }
+
+    public static synchronized void clear() {
+        CACHE.clear();
+    }
+
+    public static synchronized String stats() {
+        return String.format("dataset cache: %d/%d entries, %d hits, %d misses", CACHE.size(), capacity, hits, misses);
+    }
+
+    private static String key(File file, String kind) throws IOException {
+        return file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified() + "|" + kind;
+    }
+}
@@ -0,0 +1,368 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.supportVector.PolyKernel;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Pairwise dot products of all rows of a dataset, computed once (in parallel) and
+ * shared by the linear SMO kernel of every cross-validation fold.
+ *
+ * The symmetric matrix is stored as 256 x 256 tiles of the upper triangle. Tiles are
+ * kept on the heap up to the memory budget; the rest is written to a temporary file
+ * and read through memory mapping, up to the disk budget. A matrix that does not fit
+ * both budgets is not built (see fits); the callers then run the default SMO.
+ *
+ * Rows are recognized by their non-class values (exact bits), not by object identity:
+ * the fold copies and the copies SMO's filters make all find their row, and a dot
+ * product depends only on the values, so a hit is always the right number. Instances
+ * whose values are not those of a cached row (e.g. a fold normalized to a different
+ * min/max) are computed directly, so results never depend on a cache hit.
+ *
+ * The cached SMO is the default SMO (same filters, same per-fold normalization) with
+ * a kernel that looks the dot products up, so its results are those of the default
+ * learner. Only dense data with numeric attributes in [0, 1] and no missing values
+ * (the default min-max scaled Preprocessor output) is cached: there the per-fold
+ * normalization usually leaves the values unchanged. k-NN is not cached; IBk's
+ * neighbour search, not the distances, dominates its time.
+ */
+public class DistanceCache implements Closeable {
+
+    private static final int TILE_SHIFT = 8;
+    private static final int TILE = 1 << TILE_SHIFT;                        // rows per tile side
+    private static final long TILE_BYTES = (long) TILE * TILE * Double.BYTES;
+    private static final int TILES_PER_MAPPING = 2048;                        // 1 GB per mapped region
+
+    static final long DEFAULT_DISK_BYTES = 1024L << 20;
+
+    // Open caches by id: learners are serialized (makeCopy) and find their cache again
+    private static final Map<Long, DistanceCache> OPEN = new ConcurrentHashMap<>();
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final int numRows;
+    private final int numTiles;
+    private final int classIndex;
+    private final int numAttributes;
+    private final Map<RowKey, Integer> rowOf = new HashMap<>();
+    private final DoubleBuffer[] tiles;
+    private int heapTiles;
+    private File spillFile;
+    private long buildMillis;
+
+    private DistanceCache(Instances data) {
+        numRows = data.numInstances();
+        numTiles = (numRows + TILE - 1) >>> TILE_SHIFT;
+        classIndex = data.classIndex();
+        numAttributes = data.numAttributes();
+        tiles = new DoubleBuffer[numTiles * (numTiles + 1) / 2];
+    }
+
+    // --- Dense, all non-class attributes numeric and min-max scaled to [0, 1], no missing values ---
+    public static boolean supports(Instances data) {
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (j != data.classIndex() && !data.attribute(j).isNumeric()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance row = data.instance(i);
+            if (!(row instanceof DenseInstance)) {
+                return false;
+            }
+            for (int j = 0; j < data.numAttributes(); j++) {
+                if (j == data.classIndex()) {
+                    continue;
+                }
+                double value = row.value(j);
+                if (row.isMissing(j) || value < 0 || value > 1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // --- Size of the whole matrix (all upper-triangle tiles) for numRows rows ---
+    public static long matrixBytes(int numRows) {
+        long numTiles = (numRows + TILE - 1) >>> TILE_SHIFT;
+        return numTiles * (numTiles + 1) / 2 * TILE_BYTES;
+    }
+
+    // --- Does the matrix fit into heapBytes on the heap plus diskBytes in the spill file? ---
+    public static boolean fits(int numRows, long heapBytes, long diskBytes) {
+        long heapPart = Math.min(matrixBytes(numRows), Math.max(0, heapBytes) / TILE_BYTES * TILE_BYTES);
+        return matrixBytes(numRows) - heapPart <= Math.max(0, diskBytes);
+    }
+
+    // --- Compute all tiles; at most heapBytes of them stay on the heap, at most diskBytes are spilled ---
+    public static DistanceCache build(Instances data, long heapBytes, long diskBytes, int numThreads) throws IOException {
+        if (!supports(data)) {
+            throw new IllegalArgumentException("Distance cache needs dense numeric data in [0, 1] without missing values");
+        }
+        if (!fits(data.numInstances(), heapBytes, diskBytes)) {
+            throw new IllegalArgumentException(String.format("Distance cache needs %d MB, more than %d MB heap + %d MB disk",
+                    matrixBytes(data.numInstances()) >> 20, heapBytes >> 20, diskBytes >> 20));
+        }
+        long start = System.currentTimeMillis();
+        DistanceCache cache = new DistanceCache(data);
+
+        // Row values without the class, in attribute order (same summation order as Weka)
+        double[][] x = new double[cache.numRows][];
+        for (int i = 0; i < cache.numRows; i++) {
+            x[i] = cache.features(data.instance(i));
+            cache.rowOf.putIfAbsent(new RowKey(x[i]), i);
+        }
+
+        cache.heapTiles = (int) Math.min(cache.tiles.length, Math.max(0, heapBytes / TILE_BYTES));
+        cache.mapSpilledTiles();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+        try {
+            pool.submit(() -> IntStream.range(0, cache.numTiles).parallel().forEach(ti -> {
+                for (int tj = ti; tj < cache.numTiles; tj++) {
+                    cache.computeTile(x, ti, tj);
+                }
+            })).get();
+        } catch (Exception e) {
+            cache.close();
+            throw new IOException("Computing the distance matrix failed: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+
+        cache.buildMillis = System.currentTimeMillis() - start;
+        OPEN.put(cache.id, cache);
+        return cache;
+    }
+
+    // --- Heap tiles first; the others live in a memory-mapped temporary file ---
+    private void mapSpilledTiles() throws IOException {
+        for (int t = 0; t < heapTiles; t++) {
+            tiles[t] = DoubleBuffer.allocate((int) (TILE_BYTES / Double.BYTES));
+        }
+        int spilled = tiles.length - heapTiles;
+        if (spilled == 0) {
+            return;
+        }
+        spillFile = File.createTempFile("distance-cache-", ".bin");
+        spillFile.deleteOnExit();
+        if (spillFile.getUsableSpace() < spilled * TILE_BYTES) {
+            close();
+            throw new IOException(String.format("Distance cache: %d MB spill file does not fit in %s",
+                    spilled * TILE_BYTES >> 20, spillFile.getParent()));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(spillFile, "rw")) {
+            file.setLength(spilled * TILE_BYTES);
+            FileChannel channel = file.getChannel();
+            for (int first = 0; first < spilled; first += TILES_PER_MAPPING) {
+                int count = Math.min(TILES_PER_MAPPING, spilled - first);
+                ByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, first * TILE_BYTES, count * TILE_BYTES);
+                for (int t = 0; t < count; t++) {
+                    ByteBuffer tile = region.duplicate();
+                    tile.position((int) (t * TILE_BYTES)).limit((int) ((t + 1) * TILE_BYTES));
+                    tiles[heapTiles + first + t] = tile.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+                }
+            }
+        }
+    }
+
+    private void computeTile(double[][] x, int ti, int tj) {
+        double[] block = new double[(int) (TILE_BYTES / Double.BYTES)];
+        int rowEnd = Math.min(numRows, (ti + 1) << TILE_SHIFT);
+        int colEnd = Math.min(numRows, (tj + 1) << TILE_SHIFT);
+        for (int i = ti << TILE_SHIFT; i < rowEnd; i++) {
+            double[] a = x[i];
+            int offset = (i & (TILE - 1)) << TILE_SHIFT;
+            for (int j = tj << TILE_SHIFT; j < colEnd; j++) {
+                double[] b = x[j];
+                double dot = 0;
+                for (int k = 0; k < a.length; k++) {
+                    dot += a[k] * b[k];
+                }
+                block[offset + (j & (TILE - 1))] = dot;
+            }
+        }
+        DoubleBuffer tile = tiles[tileIndex(ti, tj)].duplicate();
+        tile.clear();
+        tile.put(block);
+    }
+
+    private int tileIndex(int ti, int tj) {
+        return ti * numTiles - ti * (ti - 1) / 2 + (tj - ti);
+    }
+
+    public double dotProduct(int i, int j) {
+        if ((i >>> TILE_SHIFT) > (j >>> TILE_SHIFT)) {
+            int t = i;
+            i = j;
+            j = t;
+        }
+        DoubleBuffer tile = tiles[tileIndex(i >>> TILE_SHIFT, j >>> TILE_SHIFT)];
+        return tile.get(((i & (TILE - 1)) << TILE_SHIFT) | (j & (TILE - 1)));
+    }
+
+    // --- Row of the cached dataset with the same non-class values, or -1 ---
+    int row(Instance instance) {
+        if (instance.numAttributes() != numAttributes) {
+            return -1;
+        }
+        Integer row = rowOf.get(new RowKey(features(instance)));
+        return (row == null) ? -1 : row;
+    }
+
+    // --- Non-class values in attribute order (same summation order as Weka's dot product) ---
+    private double[] features(Instance instance) {
+        double[] x = new double[numAttributes - (classIndex >= 0 ? 1 : 0)];
+        for (int j = 0, k = 0; j < numAttributes; j++) {
+            if (j != classIndex) {
+                x[k++] = instance.value(j);
+            }
+        }
+        return x;
+    }
+
+    // --- Hash key of a row's values (bitwise equality, like Arrays.equals) ---
+    private static final class RowKey {
+        private final double[] values;
+        private final int hash;
+
+        RowKey(double[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RowKey && Arrays.equals(values, ((RowKey) other).values);
+        }
+    }
+
+    public long id() {
+        return id;
+    }
+
+    static DistanceCache get(long id) {
+        return OPEN.get(id);
+    }
+
+    public String describe() {
+        return String.format("Distance cache: %d rows, %d tiles of %dx%d (%d on heap, %d memory-mapped), built in %d ms",
+                numRows, tiles.length, TILE, TILE, heapTiles, tiles.length - heapTiles, buildMillis);
+    }
+
+    // --- Forget the cache; learners still holding its id compute distances directly ---
+    @Override
+    public void close() {
+        OPEN.remove(id);
+        if (spillFile != null && !spillFile.delete()) {
+            spillFile.deleteOnExit();   // still mapped on some platforms
+        }
+    }
+
+    // --- The default SMO (linear PolyKernel, normalization) reading dot products from the cache ---
+    public static SMO cachedSMO(DistanceCache cache) {
+        SMO svm = new SMO();
+        svm.setKernel(new CachedLinearKernel(cache));
+        return svm;
+    }
+
+    // --- How the learner gets its dot products, as plain text ("" when not cached) ---
+    public static String describeLearner(Classifier model) {
+        return isCached(model) ? "shared distance cache" : "";
+    }
+
+    // --- Protocol note for a cached learner (same results as the default SMO) ---
+    public static String protocolNote(Classifier model) {
+        return isCached(model) ? " (" + describeLearner(model) + ")" : "";
+    }
+
+    // --- Does the learner read from a distance cache? ---
+    public static boolean isCached(Classifier model) {
+        return model instanceof SMO && ((SMO) model).getKernel() instanceof CachedLinearKernel;
+    }
+
+    /** Linear kernel (PolyKernel, exponent 1) with dot products looked up in a DistanceCache. */
+    public static class CachedLinearKernel extends PolyKernel {
+
+        private static final long serialVersionUID = 6150738829167339440L;
+
+        private final long cacheId;
+        private transient DistanceCache cache;
+        private transient int[] dataRows;       // cache row of every m_data instance (-1 = not cached)
+        private transient Instance target;      // last instance scored from outside the data (id1 = -1)
+        private transient int targetRow;
+
+        public CachedLinearKernel(DistanceCache cache) {
+            this.cacheId = cache.id();
+            this.cache = cache;
+            setExponent(1.0);
+            setUseLowerOrder(false);
+            setCacheSize(-1);   // the distance cache replaces the kernel cache
+        }
+
+        @Override
+        public void buildKernel(Instances data) throws Exception {
+            super.buildKernel(data);
+            if (cache == null) {
+                cache = DistanceCache.get(cacheId);
+            }
+            dataRows = null;
+            target = null;
+            if (cache != null && data.classIndex() == cache.classIndex) {
+                dataRows = new int[data.numInstances()];
+                for (int k = 0; k < dataRows.length; k++) {
+                    dataRows[k] = cache.row(data.instance(k));
+                }
+            }
+        }
+
+        @Override
+        protected double evaluate(int id1, int id2, Instance inst1) throws Exception {
+            if (dataRows != null) {
+                int i;
+                if (id1 >= 0) {
+                    i = dataRows[id1];
+                } else {
+                    if (inst1 != target) {
+                        target = inst1;
+                        targetRow = cache.row(inst1);
+                    }
+                    i = targetRow;
+                }
+                int j = (id1 == id2) ? i : dataRows[id2];
+                if (i >= 0 && j >= 0) {
+                    return cache.dotProduct(i, j);
+                }
+            }
+            return super.evaluate(id1, id2, inst1);
+        }
+
+        @Override
+        public String globalInfo() {
+            return "Linear kernel read from a precomputed distance cache.";
+        }
+    }
+}
@@ -0,0 +1,437 @@
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Feature drift of incoming CSV batches against the data a Preprocessor run was fitted on.
+ *
+ * Every attribute gets a one-pass summary in constant memory: count, mean and variance
+ * (Welford), missing and zero counts, min/max, and counts per histogram bin (numeric:
+ * bins between the training deciles; nominal: one per training value plus one for
+ * unknown values). Summaries of separate batches can be merged. The training summary
+ * is stored in the PreprocessingModel ("<output>.model"); batches are streamed from
+ * CSV line by line, so a batch of any size is checked without loading it.
+ *
+ * Scores per attribute: PSI over the bins (missing values as one more bin) and a
+ * KS-style distance (numeric: largest gap between the binned CDFs; nominal: largest
+ * frequency difference). An attribute above either threshold raises an alert.
+ */
+public class DriftMonitor {
+
+    static final int BINS = 10;
+    static final double DEFAULT_PSI = 0.2;
+    static final double DEFAULT_KS = 0.1;
+    static final String DEFAULT_LOG = "results/drift.tsv";
+    private static final double EPSILON = 1e-4;     // smallest bin share in PSI (empty bins)
+
+    /** One-pass, mergeable summary of one attribute. */
+    public static class ColumnSummary implements Serializable {
+
+        private static final long serialVersionUID = 2790416634712208857L;
+
+        final String name;
+        final boolean numeric;
+        final double[] edges;       // numeric: upper edges of all bins but the last (training deciles)
+        final int hashBuckets;      // > 0: nominal column hashed by the loader
+        final long[] bins;          // numeric: per bin; nominal: per value, the last one for unknown values
+        long count;                 // values that are not missing
+        long missing;
+        long zeros;
+        double mean;
+        double m2;                  // sum of squared deviations from the mean
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        ColumnSummary(String name, boolean numeric, double[] edges, int numValues, int hashBuckets) {
+            this.name = name;
+            this.numeric = numeric;
+            this.edges = edges;
+            this.hashBuckets = hashBuckets;
+            this.bins = new long[numeric ? edges.length + 1 : numValues + 1];
+        }
+
+        ColumnSummary emptyCopy() {
+            return new ColumnSummary(name, numeric, edges, numeric ? 0 : bins.length - 1, hashBuckets);
+        }
+
+        // --- One value: a number, or the index of a nominal value (NaN = missing) ---
+        void add(double value) {
+            if (Double.isNaN(value)) {
+                missing++;
+                return;
+            }
+            count++;
+            if (!numeric) {
+                bins[(int) value]++;
+                return;
+            }
+            zeros += (value == 0.0) ? 1 : 0;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            int bin = Arrays.binarySearch(edges, value);
+            bins[(bin >= 0) ? bin : -bin - 1]++;
+        }
+
+        // --- A nominal value the training data did not have ---
+        void addUnknown() {
+            count++;
+            bins[bins.length - 1]++;
+        }
+
+        // --- Add the values of another summary of the same attribute (Chan et al. for the variance) ---
+        void merge(ColumnSummary other) {
+            long total = count + other.count;
+            if (numeric && total > 0) {
+                double delta = other.mean - mean;
+                m2 += other.m2 + delta * delta * count * other.count / total;
+                mean += delta * other.count / total;
+            }
+            count = total;
+            missing += other.missing;
+            zeros += other.zeros;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            for (int b = 0; b < bins.length; b++) {
+                bins[b] += other.bins[b];
+            }
+        }
+
+        double variance() {
+            return (count > 1) ? m2 / (count - 1) : 0.0;
+        }
+
+        double missingRate() {
+            return (count + missing > 0) ? (double) missing / (count + missing) : 0.0;
+        }
+    }
+
+    /** Summaries of every attribute of the training header (class and string attributes are skipped). */
+    public static class Profile implements Serializable {
+
+        private static final long serialVersionUID = 6404178121584313570L;
+
+        final ColumnSummary[] columns;  // by training attribute index, null = not profiled
+        long rows;
+
+        private Profile(ColumnSummary[] columns) {
+            this.columns = columns;
+        }
+
+        // --- Training profile: bin edges from the deciles (quantile sketch), then one pass ---
+        static Profile of(Instances data, int[] loaderHashBuckets) {
+            ColumnSummary[] columns = new ColumnSummary[data.numAttributes()];
+            for (int j = 0; j < data.numAttributes(); j++) {
+                Attribute attr = data.attribute(j);
+                if (j == data.classIndex() || !(attr.isNumeric() || attr.isNominal())) {
+                    continue;
+                }
+                double[] edges = new double[0];
+                if (attr.isNumeric()) {
+                    KllSketch sketch = Preprocessor.columnSketch(data, j);
+                    edges = (sketch.count() == 0) ? edges : IntStream.range(1, BINS)
+                            .mapToDouble(b -> sketch.quantile((double) b / BINS)).distinct().sorted().toArray();
+                }
+                columns[j] = new ColumnSummary(attr.name(), attr.isNumeric(), edges,
+                        attr.isNominal() ? attr.numValues() : 0, loaderHashBuckets[j]);
+            }
+            Profile profile = new Profile(columns);
+            for (Instance row : data) {
+                profile.add(row);
+            }
+            return profile;
+        }
+
+        Profile emptyCopy() {
+            ColumnSummary[] copies = new ColumnSummary[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                copies[j] = (columns[j] != null) ? columns[j].emptyCopy() : null;
+            }
+            return new Profile(copies);
+        }
+
+        // --- A row in the training header (e.g. from PreprocessingModel.conform) ---
+        void add(Instance row) {
+            rows++;
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j] != null) {
+                    columns[j].add(row.isMissing(j) ? Double.NaN : row.value(j));
+                }
+            }
+        }
+
+        void merge(Profile other) {
+            rows += other.rows;
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j] != null) {
+                    columns[j].merge(other.columns[j]);
+                }
+            }
+        }
+    }
+
+    /** Drift of one attribute. */
+    public static class Score {
+        public final String attribute;
+        public final double psi;
+        public final double ks;
+        public final double trainMissing;
+        public final double batchMissing;
+        public final double meanShift;      // in training standard deviations, NaN for nominal
+        public final boolean alert;
+
+        Score(String attribute, double psi, double ks, double trainMissing, double batchMissing,
+              double meanShift, boolean alert) {
+            this.attribute = attribute;
+            this.psi = psi;
+            this.ks = ks;
+            this.trainMissing = trainMissing;
+            this.batchMissing = batchMissing;
+            this.meanShift = meanShift;
+            this.alert = alert;
+        }
+    }
+
+    // --- Scores of every profiled attribute, highest PSI first ---
+    public static List<Score> compare(Profile training, Profile batch, double psiThreshold, double ksThreshold) {
+        List<Score> scores = new ArrayList<>();
+        for (int j = 0; j < training.columns.length; j++) {
+            ColumnSummary train = training.columns[j];
+            ColumnSummary current = batch.columns[j];
+            if (train == null || current.count + current.missing == 0) {
+                continue;
+            }
+            double psi = psi(train, current);
+            double ks = ks(train, current);
+            double shift = (train.numeric && train.variance() > 0 && current.count > 0)
+                    ? (current.mean - train.mean) / Math.sqrt(train.variance()) : Double.NaN;
+            boolean alert = psi >= psiThreshold || ks >= ksThreshold;
+            scores.add(new Score(train.name, psi, ks, train.missingRate(), current.missingRate(), shift, alert));
+        }
+        scores.sort(Comparator.comparingDouble((Score s) -> -s.psi));
+        return scores;
+    }
+
+    // --- Helper: population stability index over the bins plus the missing values ---
+    private static double psi(ColumnSummary train, ColumnSummary batch) {
+        double trainTotal = train.count + train.missing;
+        double batchTotal = batch.count + batch.missing;
+        double psi = 0;
+        for (int b = 0; b <= train.bins.length; b++) {
+            long trainCount = (b < train.bins.length) ? train.bins[b] : train.missing;
+            long batchCount = (b < batch.bins.length) ? batch.bins[b] : batch.missing;
+            double expected = Math.max(EPSILON, trainCount / trainTotal);
+            double actual = Math.max(EPSILON, batchCount / batchTotal);
+            psi += (actual - expected) * Math.log(actual / expected);
+        }
+        return psi;
+    }
+
+    // --- Helper: largest CDF gap at the bin edges (numeric), largest frequency gap (nominal) ---
+    private static double ks(ColumnSummary train, ColumnSummary batch) {
+        if (train.count == 0 || batch.count == 0) {
+            return Double.NaN;
+        }
+        double gap = 0;
+        double trainCdf = 0, batchCdf = 0;
+        for (int b = 0; b < train.bins.length; b++) {
+            double trainShare = (double) train.bins[b] / train.count;
+            double batchShare = (double) batch.bins[b] / batch.count;
+            if (train.numeric) {
+                trainCdf += trainShare;
+                batchCdf += batchShare;
+                gap = Math.max(gap, Math.abs(trainCdf - batchCdf));
+            } else {
+                gap = Math.max(gap, Math.abs(trainShare - batchShare));
+            }
+        }
+        return gap;
+    }
+
+    // ===================== STREAMING CSV =====================
+
+    // --- Profile a raw CSV (columns matched to the training header by name) in one pass ---
+    public static Profile scan(File csv, PreprocessingModel model) throws IOException {
+        Profile profile = model.trainingProfile.emptyCopy();
+        Instances header = model.header();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(csv), 1 << 16)) {
+            ParallelCsvLoader.LineReader lines = new ParallelCsvLoader.LineReader(in);
+            if (!lines.next()) {
+                return profile;
+            }
+            ParallelCsvLoader.FieldCursor cursor = new ParallelCsvLoader.FieldCursor(lines.bytes, 0, lines.length);
+            List<Integer> targets = new ArrayList<>();
+            while (cursor.next()) {
+                Attribute attr = header.attribute(cursor.text());
+                targets.add((attr != null && profile.columns[attr.index()] != null) ? attr.index() : -1);
+            }
+            int[] target = targets.stream().mapToInt(Integer::intValue).toArray();
+            // profiled attributes the CSV does not have: missing in every row
+            List<Integer> absent = new ArrayList<>();
+            for (int j = 0; j < profile.columns.length; j++) {
+                if (profile.columns[j] != null && !targets.contains(j)) {
+                    absent.add(j);
+                }
+            }
+
+            while (lines.next()) {
+                if (lines.isBlank()) {
+                    continue;
+                }
+                profile.rows++;
+                cursor = new ParallelCsvLoader.FieldCursor(lines.bytes, 0, lines.length);
+                int c = 0;
+                while (c < target.length && cursor.next()) {
+                    int j = target[c++];
+                    if (j >= 0) {
+                        addField(profile.columns[j], header.attribute(j), cursor);
+                    }
+                }
+                for (; c < target.length; c++) {    // short line: the rest is missing
+                    if (target[c] >= 0) {
+                        profile.columns[target[c]].add(Double.NaN);
+                    }
+                }
+                for (int j : absent) {
+                    profile.columns[j].add(Double.NaN);
+                }
+            }
+        }
+        return profile;
+    }
+
+    // --- Helper: one CSV field, converted like PreprocessingModel.conform (unknown nominals kept apart) ---
+    private static void addField(ColumnSummary column, Attribute attr, ParallelCsvLoader.FieldCursor field) {
+        if (field.isMissing()) {
+            column.add(Double.NaN);
+        } else if (column.numeric) {
+            column.add(field.number());     // not a number: missing
+        } else if (column.hashBuckets > 0) {
+            column.add(Preprocessor.hashBucket(field.text(), column.hashBuckets));
+        } else {
+            double index = PreprocessingModel.nominalIndex(attr, field.text(), field.number());
+            if (Double.isNaN(index)) {
+                column.addUnknown();
+            } else {
+                column.add(index);
+            }
+        }
+    }
+
+    // ===================== REPORT =====================
+
+    // --- Table of the drifted attributes (all of them up to maxRows); returns the number of alerts ---
+    public static int printReport(String label, Profile batch, List<Score> scores, double psiThreshold,
+                                  double ksThreshold, int maxRows) {
+        System.out.println("\n=== Drift: " + label + " (" + batch.rows + " rows) ===");
+        System.out.printf("%-32s %8s %8s %19s %12s%n", "Attribute", "PSI", "KS", "Missing train->now", "Mean shift");
+        int alerts = 0;
+        for (int k = 0; k < scores.size(); k++) {
+            Score s = scores.get(k);
+            alerts += s.alert ? 1 : 0;
+            if (k < maxRows) {
+                System.out.printf("%-32s %8.4f %8.4f %8.1f%% -> %5.1f%% %12s%s%n", s.attribute, s.psi, s.ks,
+                        100 * s.trainMissing, 100 * s.batchMissing,
+                        Double.isNaN(s.meanShift) ? "-" : String.format("%+.2f sd", s.meanShift),
+                        s.alert ? "  ALERT" : "");
+            }
+        }
+        if (scores.size() > maxRows) {
+            System.out.printf("... %d more attribute(s)%n", scores.size() - maxRows);
+        }
+        System.out.printf("Alerts: %d of %d attributes (PSI >= %.2f or KS >= %.2f)%n",
+                alerts, scores.size(), psiThreshold, ksThreshold);
+        return alerts;
+    }
+
+    // --- One line per attribute appended to results/drift.tsv ---
+    static void appendLog(String label, Profile batch, List<Score> scores) {
+        File file = new File(DEFAULT_LOG);
+        boolean header = !file.exists();
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        String now = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (header) {
+                out.println("timestamp\tbatch\trows\tattribute\tpsi\tks\ttrain_missing\tbatch_missing\tmean_shift_sd\talert");
+            }
+            for (Score s : scores) {
+                out.printf(Locale.ROOT, "%s\t%s\t%d\t%s\t%.6f\t%.6f\t%.6f\t%.6f\t%.4f\t%b%n", now, label,
+                        batch.rows, s.attribute, s.psi, s.ks, s.trainMissing, s.batchMissing, s.meanShift, s.alert);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    // --- MAIN: compare CSV batches with the training data of a Preprocessor run ---
+    //     Usage: DriftMonitor <preprocessed.arff.model> <batch.csv | directory>... [--psi=0.2] [--ks=0.1] [--top=N]
+    //     Exit status 1 when any attribute raises an alert.
+    public static void main(String[] args) throws Exception {
+        List<String> paths = CommandLine.positional(args);
+        if (paths.size() < 2) {
+            System.err.println("Usage: DriftMonitor <preprocessed.arff.model> <batch.csv | directory>..."
+                    + " [--psi=" + DEFAULT_PSI + "] [--ks=" + DEFAULT_KS + "] [--top=N]");
+            System.exit(2);
+        }
+        double psiThreshold = CommandLine.doubleOption(args, "psi", DEFAULT_PSI);
+        double ksThreshold = CommandLine.doubleOption(args, "ks", DEFAULT_KS);
+        int top = CommandLine.intOption(args, "top", Integer.MAX_VALUE);
+
+        PreprocessingModel model = PreprocessingModel.load(new File(paths.get(0)));
+        if (model.trainingProfile == null) {
+            System.err.println("The preprocessing model has no training profile; run Preprocessor again to create one.");
+            System.exit(2);
+        }
+        List<File> batches = new ArrayList<>();
+        for (String path : paths.subList(1, paths.size())) {
+            File file = new File(path);
+            File[] csvs = file.isDirectory() ? file.listFiles((dir, name) -> name.endsWith(".csv")) : new File[]{file};
+            if (csvs != null) {
+                Arrays.sort(csvs);
+                batches.addAll(Arrays.asList(csvs));
+            }
+        }
+
+        System.out.println("=== DRIFT MONITOR ===");
+        System.out.printf("Training profile: %s (%d rows)%n", paths.get(0), model.trainingProfile.rows);
+        int alerts = 0;
+        Profile all = model.trainingProfile.emptyCopy();
+        for (File csv : batches) {
+            long start = System.nanoTime();
+            Profile batch = scan(csv, model);
+            List<Score> scores = compare(model.trainingProfile, batch, psiThreshold, ksThreshold);
+            alerts += printReport(csv.getName(), batch, scores, psiThreshold, ksThreshold, top);
+            System.out.printf("Scanned in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            appendLog(csv.getName(), batch, scores);
+            all.merge(batch);
+        }
+        if (batches.size() > 1) {
+            List<Score> scores = compare(model.trainingProfile, all, psiThreshold, ksThreshold);
+            printReport("all " + batches.size() + " batches", all, scores, psiThreshold, ksThreshold, top);
+        }
+        if (alerts > 0) {
+            System.exit(1);
+        }
+    }
+}
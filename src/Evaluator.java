@@ -1,13 +1,15 @@
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.bayes.NaiveBayes;
 import weka.classifiers.functions.SMO;
 import weka.classifiers.lazy.IBk;
 import weka.classifiers.trees.J48;
-import weka.classifiers.trees.RandomForest;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils;
+import weka.filters.Filter;
+import weka.filters.supervised.instance.Resample;
 
+import java.io.File;
 import java.util.*;
 
 public class Evaluator {
@@ -22,6 +24,7 @@ public class Evaluator {
         double kappa;
         long runtime;
         Evaluation eval;
+        String protocol = "10-fold CV";
 
         Result(String name, double acc, double prec, double rec, double f1,
                 double k, long time, Evaluation e) {
@@ -36,18 +39,179 @@ public class Evaluator {
         }
     }
 
-    // Store baseline and improved results
-    static List<Result> baselineResults = new ArrayList<>();
-    static List<Result> improvedResults = new ArrayList<>();
+    // State of one run: baseline and improved results, memory used by every model
+    // (one Session per dataset, so several datasets can be evaluated concurrently)
+    static class Session {
+        final List<Result> baselineResults = new ArrayList<>();
+        final List<Result> improvedResults = new ArrayList<>();
+        final MemoryProfiler profiler = new MemoryProfiler("Evaluator");
+        DistanceCache distanceCache;    // shared by the SMO folds, null = off
+        long deadline;                  // time budget: end of the run (ms), 0 = no budget
+        int modelsLeft;                 // time budget: models not evaluated yet
+        Instances forestData;           // warm start: data whose CV folds the forests below were built on
+        GrowableRandomForest[] foldForests;
+        long reusedTrees, totalTrees;   // warm start: forest trees of the last crossValidate
+        Checkpoint checkpoint;          // fold progress on disk, null = off
+        long restoredMs;                // time of the folds of the current model restored from checkpoints
+    }
 
-    // Evaluate a model with 10-fold cross-validation
-    static Result evaluate(String label, Classifier model, Instances data) throws Exception {
+    // Progressive sampling: evaluate on growing stratified samples until accuracy converges
+    static boolean progressive = false;
+    static final double DEFAULT_TOLERANCE = 0.5;  // accuracy change in percentage points
+    static double progressiveTolerance = DEFAULT_TOLERANCE;
+    static final double[] PROGRESSIVE_FRACTIONS = {0.01, 0.02, 0.05, 0.10, 0.20, 0.50, 1.0};
+    static final int MIN_SAMPLE_SIZE = 100;
+
+    // Out-of-core mode: fold files on disk instead of the dataset in memory (null = off)
+    static OutOfCoreCV.Folds outOfCore = null;
+
+    // Optional: train the random forests on all data and save them in the compact format (null = off)
+    static File saveForestsDir = null;
+
+    // Optional: precompute pairwise dot products once for SMO: heap budget (0 = off) and spill file budget
+    static long distanceCacheBytes = 0;
+    static long distanceCacheDiskBytes = DistanceCache.DEFAULT_DISK_BYTES;
+
+    // Time budget: wall-clock limit for all models; each model gets an equal share of the
+    // time left, and a pilot run decides how it is evaluated within it (0 = off)
+    static long timeBudgetMs = 0;
+    static final int MODELS_PER_RUN = 11;           // baseline + improved models in evaluateAllModels
+    static final int[] BUDGET_FOLDS = {10, 5, 3};
+    static final double BUDGET_SAFETY = 1.25;       // margin on the pilot estimates
+
+    // Random forests stop growing after this many trees without out-of-bag improvement (0 = off)
+    static int oobWindow = 0;
+
+    // Optional: checkpoint every finished CV fold here, resume from it after a crash (null = off)
+    static File checkpointDir = null;
+    static boolean checkpointModels = false;
+
+    // Evaluate a model with 10-fold cross-validation (or progressive sampling)
+    static Result evaluate(Session session, String label, Classifier model, Instances data) throws Exception {
+        session.restoredMs = 0;
+        if (outOfCore != null) {
+            return evaluateOutOfCore(session, label, model);
+        }
+        if (progressive) {
+            return evaluateProgressive(session, label, model, data);
+        }
+        if (session.deadline > 0) {
+            return evaluateWithinBudget(session, label, model, data);
+        }
         long start = System.currentTimeMillis();
 
-        Evaluation evaluation = new Evaluation(data);
-        evaluation.crossValidateModel(model, data, 10, new Random(1));
+        Evaluation evaluation = crossValidate(session, label, model, data, 10, new Random(1));
+
+        long end = System.currentTimeMillis() + session.restoredMs;
+        recordHistory(session, "cv", label, model, data);
+
+        Result result = new Result(
+                label,
+                evaluation.pctCorrect(),
+                evaluation.weightedPrecision(),
+                evaluation.weightedRecall(),
+                evaluation.weightedFMeasure(),
+                evaluation.kappa(),
+                end - start,
+                evaluation);
+        result.protocol += DistanceCache.protocolNote(model);
+        result.protocol += forestNote(session, 10);
+
+        return result;
+    }
+
+    // Train a forest on all data and write it as <saveForestsDir>/<label>.cforest
+    static void saveForest(String label, Classifier model, Instances data) throws Exception {
+        if (saveForestsDir == null || outOfCore != null) {
+            return;
+        }
+        saveForestsDir.mkdirs();
+        Classifier full = AbstractClassifier.makeCopy(model);
+        full.buildClassifier(data);
+        File file = new File(saveForestsDir,
+                label.toLowerCase().replaceAll("[^a-z0-9]+", "_").replaceAll("^_|_$", "") + ".cforest");
+        CompactForest.write(full, file, data);
+        System.out.printf("Compact model saved: %s (%,d bytes)%n", file.getPath(), file.length());
+    }
+
+    // 10-fold CV over the fold files; models whose training folds do not fit in memory are skipped
+    static Result evaluateOutOfCore(Session session, String label, Classifier model) throws Exception {
+        if (!OutOfCoreCV.fits(model, outOfCore)) {
+            System.out.println("\n[Out-of-core] Skipping " + label + ": training folds do not fit in memory");
+            Result skipped = new Result(label, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0, null);
+            skipped.protocol = "skipped (out-of-core, does not fit in memory)";
+            return skipped;
+        }
+        long start = System.currentTimeMillis();
+
+        Evaluation evaluation = OutOfCoreCV.crossValidate(model, outOfCore, session.profiler, label);
 
         long end = System.currentTimeMillis();
+        MemoryProfiler.Step train = session.profiler.get(label + " | train");
+        MemoryProfiler.Step test = session.profiler.get(label + " | eval");
+        PerfHistory.record("Evaluator", "ooc-cv", label, model, outOfCore.header(), train.wallMs, test.wallMs,
+                Math.max(train.peakHeapBytes, test.peakHeapBytes));
+
+        Result result = new Result(
+                label,
+                evaluation.pctCorrect(),
+                evaluation.weightedPrecision(),
+                evaluation.weightedRecall(),
+                evaluation.weightedFMeasure(),
+                evaluation.kappa(),
+                end - start,
+                evaluation);
+        result.protocol = "out-of-core 10-fold CV (" + outOfCore.numRows() + " rows streamed from disk)";
+        return result;
+    }
+
+    // 10-fold CV on stratified samples of growing size; stops when accuracy changes
+    // by at most progressiveTolerance between two sample sizes
+    static Result evaluateProgressive(Session session, String label, Classifier model, Instances data) throws Exception {
+        long start = System.currentTimeMillis();
+        int n = data.numInstances();
+
+        List<Integer> sizes = new ArrayList<>();
+        for (double fraction : PROGRESSIVE_FRACTIONS) {
+            int size = (int) Math.round(fraction * n);
+            if ((size >= MIN_SAMPLE_SIZE || fraction == 1.0) && (sizes.isEmpty() || size > sizes.get(sizes.size() - 1))) {
+                sizes.add(size);
+            }
+        }
+
+        System.out.println("\n[Progressive] " + label);
+        System.out.printf("%-10s | %-8s | %-10s | %-10s | %-12s%n", "Rows", "Sample", "Accuracy", "Change", "Runtime (ms)");
+        System.out.println("-".repeat(60));
+
+        Evaluation evaluation = null;
+        Instances sample = data;
+        String steps = label;
+        double previous = Double.NaN;
+        boolean converged = false;
+        for (int size : sizes) {
+            sample = (size == n) ? data : stratifiedSample(data, size);
+            long stepStart = System.currentTimeMillis();
+            steps = label + " @ " + sample.numInstances() + " rows";   // profiled per sample size
+            evaluation = crossValidate(session, steps, model, sample, 10, new Random(1));
+            double accuracy = evaluation.pctCorrect();
+            double change = accuracy - previous;
+            System.out.printf("%-10d | %6.1f%%  | %-10.4f | %-10s | %-12d%n",
+                    sample.numInstances(), 100.0 * sample.numInstances() / n, accuracy,
+                    Double.isNaN(change) ? "-" : String.format("%+.4f", change),
+                    System.currentTimeMillis() - stepStart);
+            if (!Double.isNaN(previous) && Math.abs(change) <= progressiveTolerance) {
+                converged = true;
+                break;
+            }
+            previous = accuracy;
+        }
+        System.out.println("-".repeat(60));
+        System.out.printf("%s at %d rows (%.1f%% of the data)%n",
+                converged ? "Converged" : "Used full dataset", sample.numInstances(),
+                100.0 * sample.numInstances() / n);
+
+        long end = System.currentTimeMillis() + session.restoredMs;
+        recordHistory(session, "progressive", label, steps, model, sample);
 
         Result result = new Result(
                 label,
@@ -58,10 +222,264 @@ public class Evaluator {
                 evaluation.kappa(),
                 end - start,
                 evaluation);
+        result.protocol = String.format("progressive, 10-fold CV on %d of %d rows", sample.numInstances(), n);
+        return result;
+    }
+
+    // Time budget: pilot runs estimate the cost of the model, then the largest protocol
+    // that fits its share of the time left is used (fewer folds first, then a smaller
+    // stratified sample); the model is skipped when even the smallest one does not fit
+    static Result evaluateWithinBudget(Session session, String label, Classifier model, Instances data) throws Exception {
+        long start = System.currentTimeMillis();
+        int modelsLeft = Math.max(1, session.modelsLeft--);
+        double allowance = (session.deadline - start) / 1000.0 / modelsLeft;
+        int n = data.numInstances();
+        if (allowance <= 0) {
+            System.out.printf("%n[Budget] %s: skipped, no time left%n", label);
+            Result skipped = new Result(label, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0, null);
+            skipped.protocol = "skipped (time budget used up)";
+            return skipped;
+        }
+
+        // Pilot: train on two sample sizes, fit time = a * rows^b
+        double[] pilot = pilotCost(model, data);
+        double spent = (System.currentTimeMillis() - start) / 1000.0;
+        allowance -= spent;
+
+        // Largest protocol that fits: all rows with 10, 5 or 3 folds, then halve the sample
+        int smallest = Math.min(n, MIN_SAMPLE_SIZE);
+        int folds = 0;
+        int size = n;
+        double estimate = Double.NaN;
+        while (folds == 0) {
+            for (int k : BUDGET_FOLDS) {
+                estimate = BUDGET_SAFETY * k * predictCost(pilot, (double) size * (k - 1) / k);
+                if (estimate <= allowance) {
+                    folds = k;
+                    break;
+                }
+            }
+            if (folds == 0 && size == smallest) {
+                break;
+            }
+            if (folds == 0) {
+                size = Math.max(size / 2, smallest);
+            }
+        }
+
+        System.out.printf("%n[Budget] %s: %.1f s available, pilot %.1f s, estimated %s%n", label,
+                allowance + spent, spent, (folds == 0) ? String.format("%.1f s for the smallest protocol", estimate)
+                        : String.format("%.1f s for %d-fold CV on %d rows", estimate, folds, size));
+
+        if (folds == 0) {
+            Result skipped = new Result(label, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                    System.currentTimeMillis() - start, null);
+            skipped.protocol = String.format("skipped (time budget: estimated %.1f s, %.1f s available)",
+                    estimate, allowance);
+            return skipped;
+        }
+
+        Instances sample = (size == n) ? data : stratifiedSample(data, size);
+        Evaluation evaluation = crossValidate(session, label, model, sample, folds, new Random(1));
+
+        long end = System.currentTimeMillis() + session.restoredMs;
+        recordHistory(session, "budget-cv", label, model, sample);
 
+        Result result = new Result(
+                label,
+                evaluation.pctCorrect(),
+                evaluation.weightedPrecision(),
+                evaluation.weightedRecall(),
+                evaluation.weightedFMeasure(),
+                evaluation.kappa(),
+                end - start,
+                evaluation);
+        result.protocol = (size == n)
+                ? String.format("%d-fold CV (time budget)", folds)
+                : String.format("%d-fold CV on a stratified sample of %d of %d rows (time budget)", folds, size, n);
+        result.protocol += DistanceCache.protocolNote(model);
+        result.protocol += forestNote(session, folds);
         return result;
     }
 
+    // Fit/predict time of a CV for results/perf_history.tsv; not recorded when folds
+    // were restored from checkpoints (the timings would only cover part of the folds)
+    static void recordHistory(Session session, String stage, String label, Classifier model, Instances data) {
+        recordHistory(session, stage, label, label, model, data);
+    }
+
+    // --- Same, with the timings of the profiler steps "<steps> | train" / "<steps> | eval" ---
+    static void recordHistory(Session session, String stage, String label, String steps,
+                              Classifier model, Instances data) {
+        MemoryProfiler.Step train = session.profiler.get(steps + " | train");
+        MemoryProfiler.Step test = session.profiler.get(steps + " | eval");
+        if (session.restoredMs > 0 || train == null || test == null) {
+            return;
+        }
+        PerfHistory.record("Evaluator", stage, label, model, data, train.wallMs, test.wallMs,
+                Math.max(train.peakHeapBytes, test.peakHeapBytes));
+    }
+
+    // Train + test time on two stratified samples: {rows1, seconds1, rows2, seconds2}
+    static double[] pilotCost(Classifier model, Instances data) throws Exception {
+        int n = data.numInstances();
+        int small = Math.min(n, Math.max(MIN_SAMPLE_SIZE, n / 50));
+        int large = Math.min(n, 2 * small);
+        double[] cost = new double[4];
+        int[] sizes = {small, large};
+        for (int p = 0; p < 2; p++) {
+            Instances sample = (sizes[p] == n) ? new Instances(data) : stratifiedSample(data, sizes[p]);
+            sample.randomize(new Random(1));
+            int trainSize = (int) Math.round(sample.numInstances() * 0.9);
+            Instances train = new Instances(sample, 0, trainSize);
+            Instances test = new Instances(sample, trainSize, sample.numInstances() - trainSize);
+
+            long start = System.nanoTime();
+            Classifier copy = AbstractClassifier.makeCopy(model);
+            copy.buildClassifier(train);
+            Evaluation evaluation = new Evaluation(train);
+            evaluation.evaluateModel(copy, test);
+            cost[2 * p] = trainSize;
+            cost[2 * p + 1] = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        }
+        return cost;
+    }
+
+    // Seconds to train on "rows" rows (and test on a tenth as many), from the pilot runs
+    static double predictCost(double[] pilot, double rows) {
+        double exponent = 1.0;
+        if (pilot[2] > pilot[0]) {
+            exponent = Math.log(pilot[3] / pilot[1]) / Math.log(pilot[2] / pilot[0]);
+            exponent = Math.max(1.0, Math.min(2.5, exponent));   // pilot timings are noisy
+        }
+        return pilot[3] * Math.pow(rows / pilot[2], exponent);
+    }
+
+    // Stratified sample without replacement (class distribution is kept)
+    static Instances stratifiedSample(Instances data, int size) throws Exception {
+        Resample resample = new Resample();
+        resample.setNoReplacement(true);
+        resample.setBiasToUniformClass(0.0);
+        resample.setRandomSeed(1);
+        resample.setSampleSizePercent(100.0 * size / data.numInstances());
+        resample.setInputFormat(data);
+        return Filter.useFilter(data, resample);
+    }
+
+    // Warm start: continue the fold's forest of the previous forest run on the same folds
+    // (same trees as building from scratch, only the extra trees are trained)
+    static void buildForest(Session session, GrowableRandomForest forest, Instances data, int numFolds, int fold,
+                            Instances train) throws Exception {
+        boolean warm = session.forestData == data && session.foldForests != null
+                && session.foldForests.length == numFolds && session.foldForests[fold] != null
+                && forest.warmStart(session.foldForests[fold], train);
+        if (!warm) {
+            forest.buildClassifier(train);
+        }
+        session.reusedTrees += forest.getReusedTrees();
+        session.totalTrees += forest.getNumIterations();
+        keepForest(session, forest, data, numFolds, fold);
+    }
+
+    // Keep a fold's forest for the next forest, if it kept its growth state and the heap is less than half full
+    static void keepForest(Session session, GrowableRandomForest forest, Instances data, int numFolds, int fold) {
+        if (session.forestData != data || session.foldForests == null || session.foldForests.length != numFolds) {
+            session.forestData = data;
+            session.foldForests = new GrowableRandomForest[numFolds];
+        }
+        Runtime runtime = Runtime.getRuntime();
+        if (!forest.canGrow() || runtime.totalMemory() - runtime.freeMemory() > runtime.maxMemory() / 2) {
+            session.foldForests[fold] = null;
+            forest.discardTrainingData();   // not kept: only the trees are needed for the fold's evaluation
+            return;
+        }
+        session.foldForests[fold] = forest;
+    }
+
+    // Protocol note for forests: trees reused by the warm start, trees per fold after out-of-bag stopping
+    static String forestNote(Session session, int numFolds) {
+        if (session.totalTrees == 0) {
+            return "";
+        }
+        String note = "";
+        if (session.reusedTrees > 0) {
+            note += String.format(" (warm start: %d of %d trees reused)", session.reusedTrees, session.totalTrees);
+        }
+        if (oobWindow > 0) {
+            note += String.format(" (out-of-bag stopping: %.0f trees per fold on average)",
+                    (double) session.totalTrees / numFolds);
+        }
+        session.totalTrees = 0;
+        return note;
+    }
+
+    // Same folds and results as Evaluation.crossValidateModel, with training and
+    // evaluation of every fold profiled separately (and checkpointed, when on)
+    static Evaluation crossValidate(Session session, String label, Classifier model, Instances data,
+                                    int numFolds, Random random) throws Exception {
+        Evaluation evaluation = new Evaluation(data);
+        session.reusedTrees = 0;
+        session.totalTrees = 0;
+
+        // Resume: continue after the last fold a previous run finished
+        Checkpoint checkpoint = session.checkpoint;
+        String key = (checkpoint != null) ? checkpoint.key(label, model, data, numFolds, random) : null;
+        Checkpoint.State state = (checkpoint != null) ? checkpoint.load(key) : null;
+        if (state != null) {
+            evaluation = state.evaluation;
+            session.reusedTrees = state.reusedTrees;
+            session.totalTrees = state.totalTrees;
+            session.restoredMs += state.elapsedMs;
+            System.out.printf("[Checkpoint] %s: %d of %d folds restored%n", label, state.foldsDone, numFolds);
+        } else if (checkpoint != null) {
+            state = new Checkpoint.State();
+        }
+
+        Instances copy = new Instances(data);
+        copy.randomize(random);
+        if (copy.classAttribute().isNominal()) {
+            copy.stratify(numFolds);
+        }
+
+        for (int i = 0; i < numFolds; i++) {
+            Instances train = copy.trainCV(numFolds, i, random);   // also for restored folds: same Random sequence
+            if (state != null && i < state.foldsDone) {
+                Classifier saved = (model instanceof GrowableRandomForest) ? checkpoint.loadModel(key, i) : null;
+                if (saved instanceof GrowableRandomForest && ((GrowableRandomForest) saved).attachTrainingData(train)) {
+                    keepForest(session, (GrowableRandomForest) saved, data, numFolds, i);
+                }
+                continue;
+            }
+            long foldStart = System.currentTimeMillis();
+            evaluation.setPriors(train);
+            Classifier foldModel = AbstractClassifier.makeCopy(model);
+
+            session.profiler.start(label + " | train");
+            if (foldModel instanceof GrowableRandomForest) {
+                buildForest(session, (GrowableRandomForest) foldModel, data, numFolds, i, train);
+            } else {
+                foldModel.buildClassifier(train);
+            }
+            session.profiler.stop();
+
+            Instances test = copy.testCV(numFolds, i);
+            session.profiler.start(label + " | eval");
+            evaluation.evaluateModel(foldModel, test);
+            session.profiler.stop();
+
+            if (checkpoint != null) {
+                state.evaluation = evaluation;
+                state.foldsDone = i + 1;
+                state.elapsedMs += System.currentTimeMillis() - foldStart;
+                state.reusedTrees = session.reusedTrees;
+                state.totalTrees = session.totalTrees;
+                checkpoint.saveModel(key, i, foldModel);
+                checkpoint.save(key, state);
+            }
+        }
+        return evaluation;
+    }
+
     // Print detailed results for each model
     static void printDetailedResults(Result r) throws Exception {
         System.out.println("\n" + "-".repeat(70));
@@ -73,8 +491,11 @@ public class Evaluator {
         System.out.printf("F1-Score (Weighted) : %.4f%n", r.f1Score);
         System.out.printf("Kappa Statistic     : %.4f%n", r.kappa);
         System.out.printf("Runtime             : %d ms%n", r.runtime);
-        System.out.println("\nConfusion Matrix:");
-        System.out.println(r.eval.toMatrixString());
+        System.out.println("Protocol            : " + r.protocol);
+        if (r.eval != null) {
+            System.out.println("\nConfusion Matrix:");
+            System.out.println(r.eval.toMatrixString());
+        }
     }
 
     // Print performance summary table
@@ -91,10 +512,15 @@ public class Evaluator {
                     r.modelName, r.accuracy, r.precision, r.recall, r.f1Score, r.runtime);
         }
         System.out.println("=".repeat(90));
+        for (Result r : results) {
+            if (!r.protocol.equals("10-fold CV")) {
+                System.out.printf("  %s: %s%n", r.modelName, r.protocol);
+            }
+        }
     }
 
     // Compare baseline vs improved models
-    static void compareModels() {
+    static void compareModels(Session session) {
         System.out.println("\n" + "█".repeat(90));
         System.out.println("█ 5.2 ANALYSIS OF RESULTS - BASELINE VS IMPROVED COMPARISON");
         System.out.println("█".repeat(90));
@@ -107,12 +533,12 @@ public class Evaluator {
         System.out.println("-".repeat(90));
 
         Map<String, Result> baselineMap = new HashMap<>();
-        for (Result r : baselineResults) {
+        for (Result r : session.baselineResults) {
             String modelType = r.modelName.split(" ")[0]; // Extract base model name
             baselineMap.put(modelType, r);
         }
 
-        for (Result improved : improvedResults) {
+        for (Result improved : session.improvedResults) {
             String modelType = improved.modelName.split(" ")[0];
             Result baseline = baselineMap.get(modelType);
 
@@ -130,28 +556,40 @@ public class Evaluator {
     }
 
     // Print comprehensive analysis
-    static void printAnalysis() {
+    static void printAnalysis(Session session) {
+        List<Result> baselineResults = session.baselineResults;
+        List<Result> improvedResults = session.improvedResults;
+
         System.out.println("\n" + "█".repeat(90));
         System.out.println("█ 5.3 KEY INSIGHTS & INTERPRETATION");
         System.out.println("█".repeat(90));
 
         // Best models
+        // Models skipped by the time budget have no accuracy (NaN) and are left out
         Result bestBaseline = baselineResults.stream()
+                .filter(r -> !Double.isNaN(r.accuracy))
                 .max(Comparator.comparingDouble(r -> r.accuracy))
                 .orElse(null);
         Result bestImproved = improvedResults.stream()
+                .filter(r -> !Double.isNaN(r.accuracy))
                 .max(Comparator.comparingDouble(r -> r.accuracy))
                 .orElse(null);
 
         System.out.println("\n▪ BEST PERFORMING MODELS:");
-        System.out.printf("  • Baseline: %s (Accuracy: %.4f%%, F1: %.4f)%n",
-                bestBaseline.modelName, bestBaseline.accuracy, bestBaseline.f1Score);
-        System.out.printf("  • Improved: %s (Accuracy: %.4f%%, F1: %.4f)%n",
-                bestImproved.modelName, bestImproved.accuracy, bestImproved.f1Score);
+        if (bestBaseline != null) {
+            System.out.printf("  • Baseline: %s (Accuracy: %.4f%%, F1: %.4f)%n",
+                    bestBaseline.modelName, bestBaseline.accuracy, bestBaseline.f1Score);
+        }
+        if (bestImproved != null) {
+            System.out.printf("  • Improved: %s (Accuracy: %.4f%%, F1: %.4f)%n",
+                    bestImproved.modelName, bestImproved.accuracy, bestImproved.f1Score);
+        }
 
         // Average metrics
-        double avgBaselineAcc = baselineResults.stream().mapToDouble(r -> r.accuracy).average().orElse(0);
-        double avgImprovedAcc = improvedResults.stream().mapToDouble(r -> r.accuracy).average().orElse(0);
+        double avgBaselineAcc = baselineResults.stream().mapToDouble(r -> r.accuracy)
+                .filter(a -> !Double.isNaN(a)).average().orElse(0);
+        double avgImprovedAcc = improvedResults.stream().mapToDouble(r -> r.accuracy)
+                .filter(a -> !Double.isNaN(a)).average().orElse(0);
         double avgBaselineTime = baselineResults.stream().mapToDouble(r -> r.runtime).average().orElse(0);
         double avgImprovedTime = improvedResults.stream().mapToDouble(r -> r.runtime).average().orElse(0);
 
@@ -173,7 +611,7 @@ public class Evaluator {
         System.out.println("  • Be cautious of models predicting majority class only");
 
         System.out.println("\n▪ RECOMMENDATIONS:");
-        System.out.printf("  • Best Model: %s%n", bestImproved.modelName);
+        System.out.printf("  • Best Model: %s%n", (bestImproved != null) ? bestImproved.modelName : "-");
         System.out.println("    ✓ Highest accuracy and F1-score");
         System.out.println("    ✓ Balance between prediction quality and computational cost");
         System.out.println("    ✓ Suitable for deployment in heart disease prediction");
@@ -194,6 +632,19 @@ public class Evaluator {
         System.out.println("-".repeat(90));
     }
 
+    // --- Options back to their defaults (main sets them; run() alone always uses the defaults) ---
+    static void resetOptions() {
+        progressive = false;
+        progressiveTolerance = DEFAULT_TOLERANCE;
+        saveForestsDir = null;
+        distanceCacheBytes = 0;
+        distanceCacheDiskBytes = DistanceCache.DEFAULT_DISK_BYTES;
+        timeBudgetMs = 0;
+        oobWindow = 0;
+        checkpointDir = null;
+        checkpointModels = false;
+    }
+
     public static void main(String[] args) throws Exception {
         System.out.println("█".repeat(90));
         System.out.println("█ HEART DISEASE PREDICTION - MODEL EVALUATION");
@@ -202,29 +653,152 @@ public class Evaluator {
 
         // Load dataset
         // Load dataset (supports relative + absolute path)
-        String datasetPath;
-        if (args.length > 0) {
-            // User-specified path (can be relative or absolute)
-            datasetPath = args[0];
-        } else {
-            // Default dataset
-            datasetPath = "datasets/heart_disease_preprocessed.arff";
+        // User-specified path (can be relative or absolute), default dataset otherwise
+        String datasetPath = CommandLine.positional(args, 0, "datasets/heart_disease_preprocessed.arff");
+
+        try {
+            // Optional: --progressive [--tolerance=0.5]
+            progressive = CommandLine.flag(args, "progressive");
+            progressiveTolerance = CommandLine.doubleOption(args, "tolerance", DEFAULT_TOLERANCE);
+            if (progressive) {
+                System.out.printf("Mode: progressive sampling (tolerance %.2f accuracy points)%n", progressiveTolerance);
+            }
+
+            // Optional: --save-forests=<dir> (random forests are also saved as compact .cforest files)
+            String saveForests = CommandLine.option(args, "save-forests", null);
+            saveForestsDir = (saveForests != null) ? new File(saveForests) : null;
+
+            // Optional: --distance-cache [--distance-cache-mb=256] [--distance-cache-disk-mb=1024]
+            //           (heap budget, the rest is memory-mapped up to the disk budget)
+            distanceCacheBytes = CommandLine.flag(args, "distance-cache")
+                    ? (long) CommandLine.intOption(args, "distance-cache-mb", 256) << 20 : 0;
+            distanceCacheDiskBytes = (long) CommandLine.intOption(args, "distance-cache-disk-mb", 1024) << 20;
+
+            // Optional: --time-budget=<seconds> (wall clock for all models; folds / sample size chosen per model)
+            timeBudgetMs = (long) (CommandLine.doubleOption(args, "time-budget", 0) * 1000);
+            if (timeBudgetMs > 0) {
+                System.out.printf("Mode: time budget of %.0f s for %d models%n", timeBudgetMs / 1000.0, MODELS_PER_RUN);
+            }
+
+            // Optional: --oob-window=<trees> (random forests stop once out-of-bag error stops improving)
+            oobWindow = CommandLine.intOption(args, "oob-window", 0);
+
+            // Optional: --checkpoint=<dir> [--checkpoint-models] (resume an interrupted run from its finished folds)
+            String checkpoint = CommandLine.option(args, "checkpoint", null);
+            checkpointDir = (checkpoint != null) ? new File(checkpoint) : null;
+            checkpointModels = CommandLine.flag(args, "checkpoint-models");
+
+            // Optional: --out-of-core (dataset is never loaded into memory as a whole)
+            if (CommandLine.flag(args, "out-of-core")) {
+                System.out.println("\nDataset path: " + datasetPath);
+                outOfCore = OutOfCoreCV.partition(new File(datasetPath), 10, 1);
+                System.out.println(OutOfCoreCV.describe(outOfCore));
+                try {
+                    run(outOfCore.header());
+                } finally {
+                    outOfCore.close();
+                    outOfCore = null;
+                }
+                return;
+            }
+
+            System.out.println("\nDataset path: " + datasetPath);
+
+            Instances data = DatasetCache.read(datasetPath);
+            data.setClassIndex(data.numAttributes() - 1);
+
+            run(data);
+        } finally {
+            resetOptions();     // not inherited by later runs in the same JVM (WekaDaemon, Pipeline)
         }
+    }
 
-        System.out.println("\nDataset path: " + datasetPath);
+    // Evaluate all baseline and improved models on already loaded data (class index set)
+    public static Session run(Instances data) throws Exception {
+        Session session = new Session();
 
-        Instances data = ConverterUtils.DataSource.read(datasetPath);
-        data.setClassIndex(data.numAttributes() - 1);
+        long numRows = (outOfCore != null) ? outOfCore.numRows() : data.numInstances();
 
         System.out.println("Dataset:   " + data.relationName());
-        System.out.println("Instances: " + data.numInstances());
+        System.out.println("Instances: " + numRows);
         System.out.println("Attributes:" + data.numAttributes());
         System.out.println("Class:     " + data.classAttribute().name());
 
         System.out.println("\nDataset: " + data.relationName());
-        System.out.println("Instances: " + data.numInstances());
+        System.out.println("Instances: " + numRows);
         System.out.println("Attributes: " + data.numAttributes());
         System.out.println("Class: " + data.classAttribute().name());
+        String weights = Preprocessor.describeWeights(data);
+        if (weights != null) {
+            System.out.println("Weights: " + weights + " (instance weights used in training and CV; k-NN ignores them)");
+        }
+
+        long start = System.currentTimeMillis();
+        if (timeBudgetMs > 0 && outOfCore == null) {
+            session.deadline = start + timeBudgetMs;
+            session.modelsLeft = MODELS_PER_RUN;
+        }
+        if (checkpointDir != null && outOfCore == null) {
+            session.checkpoint = new Checkpoint(checkpointDir, "Evaluator", checkpointModels);
+            System.out.println("Checkpoints: " + session.checkpoint.describe());
+        }
+        session.distanceCache = buildDistanceCache(data);
+        try {
+            evaluateAllModels(session, data);
+        } finally {
+            if (session.distanceCache != null) {
+                session.distanceCache.close();
+            }
+        }
+        if (session.checkpoint != null && session.checkpoint.restoredFolds() > 0) {
+            System.out.printf("%n[Checkpoint] %d fold(s) restored instead of recomputed%n",
+                    session.checkpoint.restoredFolds());
+        }
+        if (session.deadline > 0) {
+            System.out.printf("%n[Budget] Used %.1f s of %.1f s%n",
+                    (System.currentTimeMillis() - start) / 1000.0, timeBudgetMs / 1000.0);
+        }
+
+        // Memory used per model (console + results/memory_profile.tsv)
+        session.profiler.printReport();
+        session.profiler.writeTsv(PerfHistory.datasetFingerprint(data));
+
+        System.out.println("\n" + "█".repeat(90));
+        System.out.println("█ EVALUATION COMPLETED");
+        System.out.println("█".repeat(90));
+        return session;
+    }
+
+    // Pairwise dot product cache for SMO (null when off or not applicable)
+    static DistanceCache buildDistanceCache(Instances data) throws Exception {
+        if (distanceCacheBytes <= 0 || outOfCore != null) {
+            return null;
+        }
+        if (!DistanceCache.supports(data)) {
+            System.out.println("\n[Distance cache] Skipped: needs numeric attributes scaled to [0, 1] without missing values");
+            return null;
+        }
+        if (!DistanceCache.fits(data.numInstances(), distanceCacheBytes, distanceCacheDiskBytes)) {
+            System.out.printf("%n[Distance cache] Skipped: the matrix needs %d MB, more than %d MB heap + %d MB disk%n",
+                    DistanceCache.matrixBytes(data.numInstances()) >> 20, distanceCacheBytes >> 20,
+                    distanceCacheDiskBytes >> 20);
+            return null;
+        }
+        DistanceCache cache = DistanceCache.build(data, distanceCacheBytes, distanceCacheDiskBytes,
+                Runtime.getRuntime().availableProcessors());
+        System.out.println("\n[" + cache.describe() + "]");
+        return cache;
+    }
+
+    // SMO reading the session's distance cache when there is one
+    static Classifier smo(Session session) {
+        return (session.distanceCache != null) ? DistanceCache.cachedSMO(session.distanceCache) : new SMO();
+    }
+
+    // Baseline and improved models, summary tables and analysis
+    static void evaluateAllModels(Session session, Instances data) throws Exception {
+        List<Result> baselineResults = session.baselineResults;
+        List<Result> improvedResults = session.improvedResults;
 
         // ========== BASELINE MODELS ==========
         System.out.println("\n" + "█".repeat(90));
@@ -233,28 +807,45 @@ public class Evaluator {
 
         // J48 Baseline
         J48 j48 = new J48();
-        baselineResults.add(evaluate("J48 (Baseline)", j48, data));
+        baselineResults.add(evaluate(session, "J48 (Baseline)", j48, data));
         printDetailedResults(baselineResults.get(baselineResults.size() - 1));
 
-        // Random Forest Baseline
-        RandomForest rf = new RandomForest();
+        // Random Forest Baseline (its fold forests are kept only if the improved forest can grow them)
+        GrowableRandomForest rf = new GrowableRandomForest();
         rf.setNumIterations(100);
-        baselineResults.add(evaluate("Random Forest (Baseline)", rf, data));
+        rf.setOutOfBagWindow(oobWindow);
+        GrowableRandomForest rfImp = new GrowableRandomForest();
+        rfImp.setNumIterations(200);
+        rfImp.setNumFeatures(5);
+        rfImp.setOutOfBagWindow(oobWindow);
+        rf.setKeepGrowthState(rfImp.canGrowFrom(rf, data));
+        baselineResults.add(evaluate(session, "Random Forest (Baseline)", rf, data));
         printDetailedResults(baselineResults.get(baselineResults.size() - 1));
+        saveForest("Random Forest (Baseline)", rf, data);
 
         // Naive Bayes Baseline
         NaiveBayes nb = new NaiveBayes();
-        baselineResults.add(evaluate("Naive Bayes (Baseline)", nb, data));
+        baselineResults.add(evaluate(session, "Naive Bayes (Baseline)", nb, data));
         printDetailedResults(baselineResults.get(baselineResults.size() - 1));
 
         // SVM Baseline
-        SMO svm = new SMO();
-        baselineResults.add(evaluate("SVM/SMO (Baseline)", svm, data));
+        Classifier svm = smo(session);
+        baselineResults.add(evaluate(session, "SVM/SMO (Baseline)", svm, data));
+        printDetailedResults(baselineResults.get(baselineResults.size() - 1));
+
+        // Linear SVM Baseline (dual coordinate descent, fast path for SMO)
+        LinearSVM linearSvm = new LinearSVM();
+        baselineResults.add(evaluate(session, "Linear SVM (Baseline)", linearSvm, data));
         printDetailedResults(baselineResults.get(baselineResults.size() - 1));
 
         // k-NN Baseline
-        IBk knn = new IBk(3);
-        baselineResults.add(evaluate("k-NN k=3 (Baseline)", knn, data));
+        Classifier knn = new IBk(3);
+        baselineResults.add(evaluate(session, "k-NN k=3 (Baseline)", knn, data));
+        printDetailedResults(baselineResults.get(baselineResults.size() - 1));
+
+        // Histogram Gradient Boosting Baseline
+        HistGradientBoosting hgb = new HistGradientBoosting();
+        baselineResults.add(evaluate(session, "Hist GBT (Baseline)", hgb, data));
         printDetailedResults(baselineResults.get(baselineResults.size() - 1));
 
         // ========== IMPROVED MODELS ==========
@@ -266,25 +857,24 @@ public class Evaluator {
         J48 j48Imp = new J48();
         j48Imp.setConfidenceFactor(0.1f);
         j48Imp.setMinNumObj(5);
-        improvedResults.add(evaluate("J48 (Improved)", j48Imp, data));
+        improvedResults.add(evaluate(session, "J48 (Improved)", j48Imp, data));
         printDetailedResults(improvedResults.get(improvedResults.size() - 1));
 
-        // Random Forest Improved
-        RandomForest rfImp = new RandomForest();
-        rfImp.setNumIterations(200);
-        rfImp.setNumFeatures(5);
-        improvedResults.add(evaluate("Random Forest (Improved)", rfImp, data));
+        // Random Forest Improved (warm start: grows the baseline's fold forests when the settings allow)
+        improvedResults.add(evaluate(session, "Random Forest (Improved)", rfImp, data));
         printDetailedResults(improvedResults.get(improvedResults.size() - 1));
+        session.foldForests = null;
+        saveForest("Random Forest (Improved)", rfImp, data);
 
         // Naive Bayes Improved
         NaiveBayes nbImp = new NaiveBayes();
         nbImp.setUseKernelEstimator(true);
-        improvedResults.add(evaluate("Naive Bayes (Improved)", nbImp, data));
+        improvedResults.add(evaluate(session, "Naive Bayes (Improved)", nbImp, data));
         printDetailedResults(improvedResults.get(improvedResults.size() - 1));
 
         // k-NN Improved
-        IBk knnImp = new IBk(5);
-        improvedResults.add(evaluate("k-NN k=5 (Improved)", knnImp, data));
+        Classifier knnImp = new IBk(5);
+        improvedResults.add(evaluate(session, "k-NN k=5 (Improved)", knnImp, data));
         printDetailedResults(improvedResults.get(improvedResults.size() - 1));
 
         // ========== 5.1 PERFORMANCE METRICS SUMMARY ==========
@@ -296,11 +886,7 @@ public class Evaluator {
         printSummaryTable("IMPROVED MODELS SUMMARY", improvedResults);
 
         // ========== 5.2 & 5.3 ANALYSIS ==========
-        compareModels();
-        printAnalysis();
-
-        System.out.println("\n" + "█".repeat(90));
-        System.out.println("█ EVALUATION COMPLETED");
-        System.out.println("█".repeat(90));
+        compareModels(session);
+        printAnalysis(session);
     }
 }
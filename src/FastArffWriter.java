@@ -0,0 +1,308 @@
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.core.converters.ArffSaver;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ARFF writer producing the same bytes as ArffSaver.writeBatch() (header, then one
+ * line per row with at most 6 decimals, weights as ",{w}").
+ *
+ * Rows are formatted in blocks on a thread pool while the calling thread writes the
+ * finished blocks in order through a large NIO buffer, so writing is I/O-bound.
+ * Numbers go through a fast fixed-point formatter; values it cannot round exactly
+ * like Weka's DecimalFormat (near-ties, large magnitudes, non-finite) fall back to
+ * Utils.doubleToString. Sparse rows use Weka's own toString.
+ *
+ * Output is gzip-compressed when requested or when the file name ends with ".gz".
+ */
+public class FastArffWriter {
+
+    private static final int DECIMALS = 6;                  // AbstractInstance.s_numericAfterDecimalPoint
+    private static final double SCALE = 1e6;
+    private static final double FAST_LIMIT = 1e6;           // |value| * 1e6 stays far below 2^53
+    private static final double TIE_MARGIN = 1e-3;          // closer to .5 than this -> let Weka decide
+    private static final int ROWS_PER_BLOCK = 4096;
+    private static final int WRITE_BUFFER_BYTES = 4 << 20;  // 4 MB
+    private static final String LINE_END = System.lineSeparator();   // PrintWriter.println
+
+    // Minus sign of the default locale, or null when DecimalFormat does not print plain ASCII digits
+    private static final String MINUS = detectMinusSign();
+
+    private final int numThreads;
+
+    public FastArffWriter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FastArffWriter(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    // --- Write the data set, gzip when the file name ends with ".gz" ---
+    public void write(Instances data, File file) throws IOException {
+        write(data, file, file.getName().endsWith(".gz"));
+    }
+
+    public void write(Instances data, File file, boolean gzip) throws IOException {
+        Charset charset = Charset.defaultCharset();   // same as ArffSaver's OutputStreamWriter
+        String[][] nominalText = quotedNominalValues(data);
+        int numBlocks = (data.numInstances() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Sink sink = new Sink(channel, gzip);
+            sink.write(new Instances(data, 0).toString().getBytes(charset));
+
+            // Keep a bounded window of blocks in flight: formatting runs ahead of writing
+            ArrayDeque<Future<byte[]>> window = new ArrayDeque<>();
+            int next = 0;
+            while (next < numBlocks || !window.isEmpty()) {
+                while (next < numBlocks && window.size() < 2 * numThreads) {
+                    int block = next++;
+                    window.add(pool.submit(() -> formatBlock(data, block, nominalText).getBytes(charset)));
+                }
+                sink.write(window.poll().get());
+            }
+            sink.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("ARFF writing interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Formatting rows failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // --- Buffered output: direct buffer on the channel, or a gzip stream over it ---
+    private static class Sink {
+        private final FileChannel channel;
+        private final GZIPOutputStream gzip;
+        private final ByteBuffer buffer;
+
+        Sink(FileChannel channel, boolean gzip) throws IOException {
+            this.channel = channel;
+            this.gzip = gzip ? new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) : null;
+            this.buffer = gzip ? null : ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            if (gzip != null) {
+                gzip.write(bytes);
+                return;
+            }
+            int offset = 0;
+            while (offset < bytes.length) {
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            if (gzip != null) {
+                gzip.finish();
+                gzip.flush();
+            } else {
+                flush();
+            }
+        }
+    }
+
+    // --- Helper: quoted nominal values per attribute (null for other types) ---
+    private static String[][] quotedNominalValues(Instances data) {
+        String[][] text = new String[data.numAttributes()][];
+        for (int j = 0; j < data.numAttributes(); j++) {
+            Attribute attr = data.attribute(j);
+            if (attr.isNominal()) {
+                text[j] = new String[attr.numValues()];
+                for (int v = 0; v < attr.numValues(); v++) {
+                    text[j][v] = Utils.quote(attr.value(v));
+                }
+            }
+        }
+        return text;
+    }
+
+    // --- Format one block of rows exactly like Instance.toStringMaxDecimalDigits(6) + println ---
+    private static String formatBlock(Instances data, int block, String[][] nominalText) {
+        int from = block * ROWS_PER_BLOCK;
+        int to = Math.min(data.numInstances(), from + ROWS_PER_BLOCK);
+        StringBuilder sb = new StringBuilder((to - from) * data.numAttributes() * 8);
+        for (int i = from; i < to; i++) {
+            Instance row = data.instance(i);
+            if (row instanceof SparseInstance) {
+                sb.append(row.toStringMaxDecimalDigits(DECIMALS)).append(LINE_END);
+                continue;
+            }
+            for (int j = 0; j < row.numAttributes(); j++) {
+                if (j > 0) {
+                    sb.append(',');
+                }
+                Attribute attr = data.attribute(j);
+                if (row.isMissing(j)) {
+                    sb.append('?');
+                } else if (attr.isNumeric()) {
+                    appendNumber(sb, row.value(j));
+                } else if (attr.isNominal()) {
+                    sb.append(nominalText[j][(int) row.value(j)]);
+                } else {
+                    sb.append(row.toString(j, DECIMALS));
+                }
+            }
+            if (row.weight() != 1.0) {
+                sb.append(",{");
+                appendNumber(sb, row.weight());
+                sb.append('}');
+            }
+            sb.append(LINE_END);
+        }
+        return sb.toString();
+    }
+
+    // --- Append a number as Utils.doubleToString(value, 6) would (HALF_UP, no trailing zeros) ---
+    static void appendNumber(StringBuilder sb, double value) {
+        double magnitude = Math.abs(value);
+        if (MINUS == null || !(magnitude < FAST_LIMIT)) {
+            sb.append(Utils.doubleToString(value, DECIMALS));
+            return;
+        }
+        double scaled = magnitude * SCALE;
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5) < TIE_MARGIN) {
+            sb.append(Utils.doubleToString(value, DECIMALS));
+            return;
+        }
+        long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+        boolean negative = Double.doubleToRawLongBits(value) < 0;
+        if (negative && units == 0) {
+            // DecimalFormat prints "-0" here
+            sb.append(Utils.doubleToString(value, DECIMALS));
+            return;
+        }
+        if (negative) {
+            sb.append(MINUS);
+        }
+        sb.append(units / 1_000_000L);
+        long decimals = units % 1_000_000L;
+        if (decimals != 0) {
+            int digits = DECIMALS;
+            while (decimals % 10 == 0) {
+                decimals /= 10;
+                digits--;
+            }
+            sb.append('.');
+            String text = Long.toString(decimals);
+            for (int k = text.length(); k < digits; k++) {
+                sb.append('0');
+            }
+            sb.append(text);
+        }
+    }
+
+    // --- Round every numeric value and weight in place to what ArffLoader reads back from this writer ---
+    public static void roundAsWritten(Instances data) {
+        StringBuilder sb = new StringBuilder(32);
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance row = data.instance(i);
+            for (int k = 0; k < row.numValues(); k++) {
+                int j = row.index(k);
+                if (data.attribute(j).isNumeric() && !row.isMissingSparse(k)) {
+                    row.setValueSparse(k, asWritten(sb, row.valueSparse(k)));
+                }
+            }
+            if (row.weight() != 1.0) {
+                row.setWeight(asWritten(sb, row.weight()));
+            }
+        }
+    }
+
+    private static double asWritten(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        sb.setLength(0);
+        appendNumber(sb, value);
+        String text = sb.toString();
+        return Double.parseDouble((MINUS != null) ? text.replace(MINUS, "-") : text);
+    }
+
+    private static String detectMinusSign() {
+        if (!Utils.doubleToString(1234567.125, DECIMALS).equals("1234567.125")) {
+            return null;
+        }
+        String minusOne = Utils.doubleToString(-1.0, 0);
+        return minusOne.endsWith("1") ? minusOne.substring(0, minusOne.length() - 1) : null;
+    }
+
+    // --- MAIN: rewrite an ARFF with both writers and compare ---
+    //     Usage: FastArffWriter <input.arff> <output.arff[.gz]> [--threads=N] [--compare]
+    public static void main(String[] args) throws Exception {
+        if (CommandLine.positional(args).size() < 2) {
+            System.err.println("Usage: FastArffWriter <input.arff> <output.arff[.gz]> [--threads=N] [--compare]");
+            System.exit(2);
+        }
+        File input = new File(CommandLine.positional(args, 0, null));
+        File output = new File(CommandLine.positional(args, 1, null));
+        int threads = CommandLine.intOption(args, "threads", Runtime.getRuntime().availableProcessors());
+        Instances data = DataSource.read(input.getPath());
+
+        System.out.println("=== FAST ARFF WRITER ===");
+        System.out.printf("Rows: %d, attributes: %d, threads: %d%n", data.numInstances(), data.numAttributes(), threads);
+        long start = System.nanoTime();
+        new FastArffWriter(threads).write(data, output);
+        System.out.printf("FastArffWriter: %.2f s -> %s (%d bytes)%n",
+                (System.nanoTime() - start) / 1e9, output, output.length());
+
+        if (CommandLine.flag(args, "compare")) {
+            File reference = new File(output.getPath() + ".arffsaver" + (output.getName().endsWith(".gz") ? ".gz" : ""));
+            start = System.nanoTime();
+            ArffSaver saver = new ArffSaver();
+            saver.setInstances(data);
+            saver.setFile(reference);
+            saver.writeBatch();
+            System.out.printf("ArffSaver:      %.2f s -> %s (%d bytes)%n",
+                    (System.nanoTime() - start) / 1e9, reference, reference.length());
+            if (output.getName().endsWith(".gz")) {
+                Instances reread = DataSource.read(output.getPath());
+                System.out.println("Parsed back equal: " + (reread.equalHeaders(data)
+                        && reread.numInstances() == data.numInstances()));
+            } else {
+                boolean same = Arrays.equals(Files.readAllBytes(output.toPath()), Files.readAllBytes(reference.toPath()));
+                System.out.println("Byte-identical: " + same);
+            }
+        }
+    }
+}
@@ -0,0 +1,479 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.SingleClassifierEnhancer;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Randomizable;
+import weka.core.SerializedObject;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * RandomForest that can grow: trees are added to an already built forest, and growth
+ * stops early once the out-of-bag error has not improved for a given number of trees.
+ *
+ * Tree i gets the i-th seed drawn from Random(seed) and the bootstrap sample of
+ * Random(seed + i), exactly as in Weka's RandomForest, so a forest grown from 100 to
+ * 200 trees is the same model as a 200-tree RandomForest built from scratch.
+ *
+ * Out-of-bag votes are only computed when something needs them: out-of-bag stopping,
+ * out-of-bag evaluation (-O) or later growth (setKeepGrowthState). They are summed per
+ * training row in tree order, each tree scoring its out-of-bag rows on the tree pool.
+ * Without growth state the training rows and votes are released once the build is done;
+ * with it they are kept until discardTrainingData(). The training rows are referenced,
+ * not copied, and must not change while the forest can grow. They are never serialized:
+ * a copy (e.g. AbstractClassifier.makeCopy, a saved model) can only grow again after
+ * attachTrainingData() with the same rows.
+ */
+public class GrowableRandomForest extends weka.classifiers.trees.RandomForest {
+
+    private static final long serialVersionUID = 5308716214938265174L;
+
+    // Options
+    private int outOfBagWindow = 0;         // stop after this many trees without improvement, 0 = off
+    private int outOfBagStep = 10;          // trees added between two out-of-bag checks
+    private double outOfBagTolerance = 0;   // smallest error decrease that counts as improvement
+    private boolean keepGrowthState = false;    // keep training rows and out-of-bag votes after the build
+
+    // Growth state
+    private transient Instances trainingData;   // null once released, discarded or copied (the forest cannot grow)
+    private double[][] oobVotes;            // [row][class] summed distributions, [row][0] sum for a numeric class; null = not needed
+    private int[] oobCounts;                // trees that did not see the row
+    private List<double[]> oobCurve;        // {trees, out-of-bag error} after every step
+    private double bestError;
+    private int bestTrees;
+    private boolean converged;
+    private int reusedTrees;                // trees taken over by the last warmStart
+    private boolean numericClass;           // Bagging's own flag is private
+
+    // --- Build a new forest of (up to) getNumIterations() trees ---
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        if (m_Classifier == null) {
+            throw new Exception("A base classifier has not been specified!");
+        }
+        trainingData = data;
+        m_data = new Instances(data, 0);    // header only, as RandomForest keeps it
+        numericClass = data.classAttribute().isNumeric();
+        m_random = new Random(m_Seed);
+        m_Classifiers = new Classifier[0];
+        boolean votes = needsOutOfBagVotes();
+        oobVotes = votes ? new double[data.numInstances()][numericClass ? 1 : data.numClasses()] : null;
+        oobCounts = votes ? new int[data.numInstances()] : null;
+        oobCurve = new ArrayList<>();
+        bestError = Double.POSITIVE_INFINITY;
+        bestTrees = 0;
+        converged = false;
+        reusedTrees = 0;
+
+        int target = m_NumIterations;
+        m_NumIterations = 0;
+        growTo(target);
+    }
+
+    // --- Add trees until there are numTrees (or the out-of-bag error has converged) ---
+    //     Returns the number of trees added.
+    public int growTo(int numTrees) throws Exception {
+        if (trainingData == null) {
+            throw new IllegalStateException("Training data discarded: the forest can no longer grow");
+        }
+        int before = m_Classifiers.length;
+        converged = false;
+        while (m_Classifiers.length < numTrees && !converged) {
+            int step = (outOfBagWindow > 0) ? Math.max(1, outOfBagStep) : numTrees;
+            addTrees(Math.min(step, numTrees - m_Classifiers.length));
+            if (oobVotes == null) {
+                continue;
+            }
+
+            double error = outOfBagError();
+            oobCurve.add(new double[]{m_Classifiers.length, error});
+            if (error < bestError - outOfBagTolerance) {
+                bestError = error;
+                bestTrees = m_Classifiers.length;
+            } else if (outOfBagWindow > 0 && m_Classifiers.length - bestTrees >= outOfBagWindow) {
+                converged = true;
+            }
+        }
+        m_NumIterations = m_Classifiers.length;
+        m_OutOfBagEvaluationObject = getCalcOutOfBag() ? outOfBagEvaluation() : null;
+        if (!keepGrowthState) {
+            discardTrainingData();      // nothing grows this forest later
+        }
+        return m_Classifiers.length - before;
+    }
+
+    // --- Helper: out-of-bag votes are needed for stopping, -O or later growth ---
+    private boolean needsOutOfBagVotes() {
+        return outOfBagWindow > 0 || getCalcOutOfBag() || keepGrowthState;
+    }
+
+    // --- Helper: build "count" more trees (in parallel when execution slots are set) ---
+    private void addTrees(int count) throws Exception {
+        int from = m_Classifiers.length;
+        int n = trainingData.numInstances();
+        Classifier[] trees = Arrays.copyOf(m_Classifiers, from + count);
+        for (int i = from; i < trees.length; i++) {
+            trees[i] = AbstractClassifier.makeCopy(m_Classifier);
+            if (trees[i] instanceof Randomizable) {
+                ((Randomizable) trees[i]).setSeed(m_random.nextInt());
+            }
+        }
+
+        boolean votes = oobVotes != null;
+        boolean[][] inBag = new boolean[count][n];
+        int slots = (m_numExecutionSlots == 0) ? Runtime.getRuntime().availableProcessors() : m_numExecutionSlots;
+        if (slots > 1 && count > 1) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(slots, count));
+            try {
+                List<Future<double[][]>> futures = new ArrayList<>();
+                for (int j = 0; j < count; j++) {
+                    int tree = from + j;
+                    boolean[] sampled = inBag[j];
+                    futures.add(pool.submit(() -> {
+                        trees[tree].buildClassifier(bootstrap(tree, sampled));
+                        return votes ? outOfBagPredictions(trees[tree], sampled) : null;
+                    }));
+                }
+                for (Future<double[][]> future : futures) {
+                    double[][] predictions = future.get();
+                    if (votes) {
+                        addVotes(predictions);      // in tree order, as built one by one
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw new Exception("Tree failed: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        } else {
+            for (int j = 0; j < count; j++) {
+                trees[from + j].buildClassifier(bootstrap(from + j, inBag[j]));
+                if (votes) {
+                    addVotes(outOfBagPredictions(trees[from + j], inBag[j]));
+                }
+            }
+        }
+        m_Classifiers = trees;
+        m_NumIterations = trees.length;
+    }
+
+    // --- Helper: one tree's predictions for the rows it did not see (null = in the bag or no prediction) ---
+    private double[][] outOfBagPredictions(Classifier tree, boolean[] inBag) throws Exception {
+        double[][] predictions = new double[inBag.length][];
+        for (int i = 0; i < inBag.length; i++) {
+            if (inBag[i]) {
+                continue;
+            }
+            Instance row = trainingData.instance(i);
+            if (numericClass) {
+                double prediction = tree.classifyInstance(row);
+                if (!Utils.isMissingValue(prediction)) {
+                    predictions[i] = new double[]{prediction};
+                }
+            } else {
+                predictions[i] = tree.distributionForInstance(row);
+            }
+        }
+        return predictions;
+    }
+
+    // --- Helper: add one tree's out-of-bag predictions to the votes ---
+    private void addVotes(double[][] predictions) {
+        for (int i = 0; i < predictions.length; i++) {
+            if (predictions[i] == null) {
+                continue;
+            }
+            for (int k = 0; k < predictions[i].length; k++) {
+                oobVotes[i][k] += predictions[i][k];
+            }
+            oobCounts[i]++;
+        }
+    }
+
+    // --- Helper: bootstrap sample of tree "index" (same draws as Bagging.getTrainingSet) ---
+    private Instances bootstrap(int index, boolean[] sampled) {
+        return trainingData.resampleWithWeights(new Random(m_Seed + index), sampled,
+                getRepresentCopiesUsingWeights(), m_BagSizePercent);
+    }
+
+    // --- Same as Bagging.distributionForInstance, with this class's numeric flag ---
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        double[] sums = new double[instance.numClasses()];
+        double numPredictions = 0;
+        for (int i = 0; i < m_NumIterations; i++) {
+            if (numericClass) {
+                double prediction = m_Classifiers[i].classifyInstance(instance);
+                if (!Utils.isMissingValue(prediction)) {
+                    sums[0] += prediction;
+                    numPredictions++;
+                }
+            } else {
+                double[] distribution = m_Classifiers[i].distributionForInstance(instance);
+                for (int k = 0; k < distribution.length; k++) {
+                    sums[k] += distribution[k];
+                }
+            }
+        }
+        if (numericClass) {
+            sums[0] = (numPredictions == 0) ? Utils.missingValue() : sums[0] / numPredictions;
+        } else if (!Utils.eq(Utils.sum(sums), 0)) {
+            Utils.normalize(sums);
+        }
+        return sums;
+    }
+
+    // --- Same as Bagging.measureOutOfBagError (-O), with this class's numeric flag ---
+    @Override
+    public double measureOutOfBagError() {
+        if (m_OutOfBagEvaluationObject == null) {
+            return -1;
+        }
+        return numericClass ? m_OutOfBagEvaluationObject.meanAbsoluteError() : m_OutOfBagEvaluationObject.errorRate();
+    }
+
+    // --- Out-of-bag error: misclassification rate, or RMSE for a numeric class ---
+    //     (rows no tree has left out are not counted; NaN before the first tree or without votes)
+    public double outOfBagError() {
+        if (oobCounts == null) {
+            return Double.NaN;
+        }
+        double sum = 0, weight = 0;
+        for (int i = 0; i < oobCounts.length; i++) {
+            if (oobCounts[i] == 0) {
+                continue;
+            }
+            Instance row = trainingData.instance(i);
+            if (row.classIsMissing()) {
+                continue;
+            }
+            double error;
+            if (numericClass) {
+                double diff = oobVotes[i][0] / oobCounts[i] - row.classValue();
+                error = diff * diff;
+            } else {
+                error = (Utils.maxIndex(oobVotes[i]) == (int) row.classValue()) ? 0 : 1;
+            }
+            sum += row.weight() * error;
+            weight += row.weight();
+        }
+        if (weight == 0) {
+            return Double.NaN;
+        }
+        return numericClass ? Math.sqrt(sum / weight) : sum / weight;
+    }
+
+    // --- Helper: Evaluation of the out-of-bag predictions (for -O / measureOutOfBagError) ---
+    private Evaluation outOfBagEvaluation() throws Exception {
+        Evaluation evaluation = new Evaluation(trainingData);
+        for (int i = 0; i < oobCounts.length; i++) {
+            if (oobCounts[i] == 0) {
+                continue;
+            }
+            double[] votes = oobVotes[i].clone();
+            if (numericClass) {
+                votes[0] /= oobCounts[i];
+            } else {
+                Utils.normalize(votes);
+            }
+            evaluation.evaluationForSingleInstance(votes, trainingData.instance(i), getStoreOutOfBagPredictions());
+        }
+        return evaluation;
+    }
+
+    // --- Continue from "built" (same data and tree settings) instead of starting over ---
+    //     Returns false, leaving this forest untouched, when "built" cannot be continued;
+    //     otherwise this forest holds the reused trees and then grows to getNumIterations().
+    public boolean warmStart(GrowableRandomForest built, Instances data) throws Exception {
+        if (!canContinue(built, data)) {
+            return false;
+        }
+        trainingData = built.trainingData;  // read-only, shared
+        m_data = new Instances(data, 0);
+        numericClass = built.numericClass;
+        m_random = (Random) new SerializedObject(built.m_random).getObject();   // continue the same seed sequence
+        m_Classifiers = built.m_Classifiers.clone();   // trees are never modified, shared
+        oobVotes = new double[built.oobVotes.length][];
+        for (int i = 0; i < oobVotes.length; i++) {
+            oobVotes[i] = built.oobVotes[i].clone();
+        }
+        oobCounts = built.oobCounts.clone();
+        oobCurve = new ArrayList<>(built.oobCurve);
+        bestError = built.bestError;
+        bestTrees = built.bestTrees;
+        converged = false;
+        reusedTrees = m_Classifiers.length;
+
+        int target = m_NumIterations;
+        m_NumIterations = m_Classifiers.length;
+        growTo(target);
+        return true;
+    }
+
+    // --- Helper: same training data, bootstrap and tree settings, and not more trees than wanted ---
+    private boolean canContinue(GrowableRandomForest built, Instances data) throws Exception {
+        if (built.trainingData == null || built.oobVotes == null || built.m_Classifiers == null
+                || built.m_Classifiers.length > m_NumIterations
+                || built.trainingData.numInstances() != data.numInstances()
+                || !built.trainingData.equalHeaders(data)) {
+            return false;
+        }
+        return canGrowFrom(built, data);
+    }
+
+    // --- Same bootstrap and tree settings as "built" on this data, so warmStart could continue it
+    //     (lets a caller decide before building whether to keep the growth state) ---
+    public boolean canGrowFrom(GrowableRandomForest built, Instances data) throws Exception {
+        if (built.m_Seed != m_Seed || built.m_BagSizePercent != m_BagSizePercent
+                || built.getRepresentCopiesUsingWeights() != getRepresentCopiesUsingWeights()
+                || built.getClass() != getClass()) {
+            return false;
+        }
+        // Tree options must match, with the number of features resolved as RandomTree does
+        String[] mine = ((AbstractClassifier) m_Classifier).getOptions();
+        String[] theirs = ((AbstractClassifier) built.m_Classifier).getOptions();
+        int features = effectiveFeatures(Utils.getOption('K', mine), data);
+        int builtFeatures = effectiveFeatures(Utils.getOption('K', theirs), data);
+        return features == builtFeatures && Utils.joinOptions(mine).equals(Utils.joinOptions(theirs));
+    }
+
+    // --- Helper: RandomTree's number of randomly chosen attributes for a -K value ---
+    private static int effectiveFeatures(String k, Instances data) {
+        int features = k.isEmpty() ? 0 : Integer.parseInt(k);
+        int attributes = data.numAttributes() - 1;
+        if (features > attributes) {
+            features = attributes;
+        }
+        if (features < 1) {
+            features = (int) Utils.log2(attributes) + 1;
+        }
+        return features;
+    }
+
+    // --- Drop the training data and out-of-bag votes (smaller model, no more growth) ---
+    public void discardTrainingData() {
+        trainingData = null;
+        oobVotes = null;
+        oobCounts = null;
+    }
+
+    // --- Discard the growth state of a forest, also inside a wrapper (e.g. CostSensitiveClassifier) ---
+    public static void discardTrainingData(Classifier model) {
+        if (model instanceof SingleClassifierEnhancer) {
+            discardTrainingData(((SingleClassifierEnhancer) model).getClassifier());
+        } else if (model instanceof GrowableRandomForest) {
+            ((GrowableRandomForest) model).discardTrainingData();
+        }
+    }
+
+    // --- Give a deserialized forest its training rows back, so it can grow again;
+    //     returns false when the out-of-bag votes were discarded or do not match the rows ---
+    public boolean attachTrainingData(Instances data) {
+        if (oobCounts == null || oobCounts.length != data.numInstances() || !m_data.equalHeaders(data)) {
+            return false;
+        }
+        trainingData = data;
+        return true;
+    }
+
+    public boolean canGrow() { return trainingData != null && oobVotes != null; }
+    public boolean hasConverged() { return converged; }
+    public int getReusedTrees() { return reusedTrees; }
+
+    // {trees, out-of-bag error} after every step
+    public List<double[]> getOutOfBagCurve() {
+        return (oobCurve != null) ? Collections.unmodifiableList(oobCurve) : Collections.emptyList();
+    }
+
+    // ===================== OPTIONS =====================
+
+    public int getOutOfBagWindow() { return outOfBagWindow; }
+    public void setOutOfBagWindow(int value) { outOfBagWindow = Math.max(0, value); }
+
+    public int getOutOfBagStep() { return outOfBagStep; }
+    public void setOutOfBagStep(int value) { outOfBagStep = Math.max(1, value); }
+
+    public double getOutOfBagTolerance() { return outOfBagTolerance; }
+    public void setOutOfBagTolerance(double value) { outOfBagTolerance = Math.max(0, value); }
+
+    public boolean getKeepGrowthState() { return keepGrowthState; }
+    public void setKeepGrowthState(boolean value) { keepGrowthState = value; }
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        Vector<Option> options = new Vector<>();
+        options.add(new Option("\tStop growing after this many trees without out-of-bag improvement,"
+                + " 0 = off (default 0).", "oob-window", 1, "-oob-window <trees>"));
+        options.add(new Option("\tTrees added between two out-of-bag checks (default 10).",
+                "oob-step", 1, "-oob-step <trees>"));
+        options.add(new Option("\tSmallest out-of-bag error decrease that counts as improvement (default 0).",
+                "oob-tolerance", 1, "-oob-tolerance <error>"));
+        options.add(new Option("\tKeep the training rows and out-of-bag votes, so the forest can grow later.",
+                "keep-growth-state", 0, "-keep-growth-state"));
+        options.addAll(Collections.list(super.listOptions()));
+        return options.elements();
+    }
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String value = Utils.getOption("oob-window", options);
+        setOutOfBagWindow(value.isEmpty() ? 0 : Integer.parseInt(value));
+        value = Utils.getOption("oob-step", options);
+        setOutOfBagStep(value.isEmpty() ? 10 : Integer.parseInt(value));
+        value = Utils.getOption("oob-tolerance", options);
+        setOutOfBagTolerance(value.isEmpty() ? 0 : Double.parseDouble(value));
+        setKeepGrowthState(Utils.getFlag("keep-growth-state", options));
+        super.setOptions(options);
+    }
+
+    @Override
+    public String[] getOptions() {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-oob-window", "" + outOfBagWindow,
+                "-oob-step", "" + outOfBagStep,
+                "-oob-tolerance", "" + outOfBagTolerance));
+        if (keepGrowthState) {
+            options.add("-keep-growth-state");
+        }
+        Collections.addAll(options, super.getOptions());
+        return options.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        if (m_Classifiers == null) {
+            return "GrowableRandomForest: No model built yet.";
+        }
+        StringBuilder text = new StringBuilder(super.toString().replaceFirst("^RandomForest", "GrowableRandomForest"));
+        text.append("\nTrees: ").append(m_Classifiers.length);
+        if (reusedTrees > 0) {
+            text.append(" (").append(reusedTrees).append(" reused by warm start)");
+        }
+        if (oobCurve != null && !oobCurve.isEmpty()) {
+            text.append(String.format(", out-of-bag error: %.4f", oobCurve.get(oobCurve.size() - 1)[1]));
+        }
+        if (converged) {
+            text.append(String.format(" (converged: no improvement over the last %d trees)", outOfBagWindow));
+        }
+        return text.append("\n").toString();
+    }
+
+    public static void main(String[] args) {
+        runClassifier(new GrowableRandomForest(), args);
+    }
+}
@@ -0,0 +1,582 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Histogram-based gradient boosted trees for a nominal class.
+ *
+ * Every attribute is quantized once into at most 255 bins stored as one byte per row
+ * (numeric: -B equal-width bins, the preprocessed data is already min-max normalized
+ * to [0, 1]; nominal: one bin per value, so at most 255 values), plus one extra bin
+ * for missing values. Trees are grown depth-wise on per-bin
+ * gradient/hessian histograms that are built in parallel over attributes; the larger
+ * child's histogram is derived by subtraction from its parent.
+ *
+ * Loss: logistic for two classes, softmax (one tree per class and iteration) otherwise.
+ * Instance weights scale gradients and hessians.
+ */
+public class HistGradientBoosting extends AbstractClassifier implements WeightedInstancesHandler {
+
+    private static final long serialVersionUID = 4108275236914820561L;
+
+    private static final int MAX_BINS = 255;
+    private static final int MISSING_BIN = 255;
+    private static final int HIST_SIZE = 256;
+
+    // Options
+    private int numIterations = 100;
+    private double learningRate = 0.1;
+    private int maxDepth = 6;
+    private double minWeightLeaf = 20;
+    private double lambda = 1.0;
+    private int numBins = MAX_BINS;
+    private int numThreads = 0;   // 0 = all cores
+
+    // Model
+    private Instances header;
+    private int[] featureAttributes;      // attribute index for every feature
+    private double[] binMin;
+    private double[] binWidth;
+    private int[] featureBins;            // bins of every feature (nominal: its number of values)
+    private int numScores;                // 1 for two classes, K otherwise
+    private double[] initialScores;
+    private List<Tree[]> trees;
+
+    // --- One regression tree in flat arrays ---
+    private static class Tree implements Serializable {
+        private static final long serialVersionUID = -2365014702751437721L;
+
+        int size;
+        int[] feature = new int[16];      // -1 = leaf
+        int[] threshold = new int[16];    // go left if bin <= threshold
+        boolean[] missingLeft = new boolean[16];
+        int[] left = new int[16];
+        int[] right = new int[16];
+        double[] value = new double[16];
+
+        int addNode() {
+            if (size == feature.length) {
+                int capacity = size * 2;
+                feature = Arrays.copyOf(feature, capacity);
+                threshold = Arrays.copyOf(threshold, capacity);
+                missingLeft = Arrays.copyOf(missingLeft, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                value = Arrays.copyOf(value, capacity);
+            }
+            feature[size] = -1;
+            return size++;
+        }
+
+        double predict(byte[] bins) {
+            int node = 0;
+            while (feature[node] >= 0) {
+                int bin = bins[feature[node]] & 0xFF;
+                boolean goLeft = (bin == MISSING_BIN) ? missingLeft[node] : bin <= threshold[node];
+                node = goLeft ? left[node] : right[node];
+            }
+            return value[node];
+        }
+    }
+
+    // --- Per-bin sums of one node: gradient, hessian and weight for every feature ---
+    private static class Histogram {
+        final double[] grad;
+        final double[] hess;
+        final double[] weight;
+
+        Histogram(int numFeatures) {
+            grad = new double[numFeatures * HIST_SIZE];
+            hess = new double[numFeatures * HIST_SIZE];
+            weight = new double[numFeatures * HIST_SIZE];
+        }
+
+        Histogram minus(Histogram other) {
+            Histogram result = new Histogram(grad.length / HIST_SIZE);
+            for (int i = 0; i < grad.length; i++) {
+                result.grad[i] = grad[i] - other.grad[i];
+                result.hess[i] = hess[i] - other.hess[i];
+                result.weight[i] = weight[i] - other.weight[i];
+            }
+            return result;
+        }
+    }
+
+    // --- Best split of a node ---
+    private static class Split {
+        int feature = -1;
+        int threshold;
+        boolean missingLeft;
+        double gain;
+    }
+
+    // --- Training state shared by the tree builder ---
+    private static class TrainingData {
+        byte[][] columns;     // [feature][row]
+        double[] grad;
+        double[] hess;
+        double[] weight;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capability.MISSING_VALUES);
+        result.enable(Capability.NOMINAL_CLASS);
+        result.enable(Capability.MISSING_CLASS_VALUES);
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        data = new Instances(data);
+        data.deleteWithMissingClass();
+
+        header = new Instances(data, 0);
+        int numClasses = data.numClasses();
+        numScores = (numClasses == 2) ? 1 : numClasses;
+        int n = data.numInstances();
+
+        // 1. Quantize every attribute into byte columns
+        List<Integer> features = new ArrayList<>();
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (j != data.classIndex()) {
+                features.add(j);
+            }
+        }
+        featureAttributes = features.stream().mapToInt(Integer::intValue).toArray();
+        int numFeatures = featureAttributes.length;
+        binMin = new double[numFeatures];
+        binWidth = new double[numFeatures];
+        featureBins = new int[numFeatures];
+        for (int f = 0; f < numFeatures; f++) {
+            Attribute attr = data.attribute(featureAttributes[f]);
+            if (attr.isNominal() && attr.numValues() > MAX_BINS) {
+                throw new Exception("Nominal attribute " + attr.name() + " has " + attr.numValues()
+                        + " values; at most " + MAX_BINS + " are supported");
+            }
+        }
+
+        TrainingData train = new TrainingData();
+        train.columns = new byte[numFeatures][];
+        train.weight = new double[n];
+        int[] label = new int[n];
+        for (int i = 0; i < n; i++) {
+            train.weight[i] = data.instance(i).weight();
+            label[i] = (int) data.instance(i).classValue();
+        }
+
+        ForkJoinPool pool = (numThreads > 0) ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            final Instances rows = data;
+            pool.submit(() -> IntStream.range(0, numFeatures).parallel()
+                    .forEach(f -> train.columns[f] = quantize(rows, f))).get();
+
+            // 2. Initial scores from the (weighted) class prior
+            double[] prior = new double[numClasses];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                prior[label[i]] += train.weight[i];
+                total += train.weight[i];
+            }
+            initialScores = new double[numScores];
+            for (int k = 0; k < numClasses; k++) {
+                prior[k] = Math.max(prior[k] / Math.max(total, 1e-12), 1e-6);
+            }
+            if (numScores == 1) {
+                initialScores[0] = Math.log(prior[1] / prior[0]);
+            } else {
+                for (int k = 0; k < numClasses; k++) {
+                    initialScores[k] = Math.log(prior[k]);
+                }
+            }
+
+            double[][] scores = new double[numScores][n];
+            for (int k = 0; k < numScores; k++) {
+                Arrays.fill(scores[k], initialScores[k]);
+            }
+
+            // 3. Boosting iterations
+            trees = new ArrayList<>();
+            train.grad = new double[n];
+            train.hess = new double[n];
+            double[][] probabilities = new double[numClasses][n];
+
+            for (int iteration = 0; iteration < numIterations; iteration++) {
+                pool.submit(() -> IntStream.range(0, n).parallel()
+                        .forEach(i -> probabilities(scores, i, probabilities))).get();
+
+                Tree[] round = new Tree[numScores];
+                for (int k = 0; k < numScores; k++) {
+                    int target = (numScores == 1) ? 1 : k;
+                    for (int i = 0; i < n; i++) {
+                        double p = probabilities[target][i];
+                        double y = (label[i] == target) ? 1.0 : 0.0;
+                        train.grad[i] = (p - y) * train.weight[i];
+                        train.hess[i] = Math.max(p * (1 - p), 1e-16) * train.weight[i];
+                    }
+                    round[k] = buildTree(train, n, scores[k], pool);
+                }
+                trees.add(round);
+            }
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // --- Byte column of one feature; remembers the binning for prediction ---
+    private byte[] quantize(Instances data, int f) {
+        int attIndex = featureAttributes[f];
+        Attribute attr = data.attribute(attIndex);
+        int n = data.numInstances();
+        byte[] column = new byte[n];
+
+        if (attr.isNumeric()) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double v = data.instance(i).value(attIndex);
+                if (!Utils.isMissingValue(v)) {
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+            }
+            if (min > max) {
+                min = 0;
+                max = 0;
+            }
+            binMin[f] = min;
+            binWidth[f] = (max > min) ? (max - min) / numBins : 0;
+            featureBins[f] = numBins;
+        } else {
+            binMin[f] = 0;
+            binWidth[f] = -1;   // nominal: bin = value index
+            featureBins[f] = attr.numValues();
+        }
+
+        for (int i = 0; i < n; i++) {
+            column[i] = (byte) bin(f, data.instance(i).value(attIndex));
+        }
+        return column;
+    }
+
+    private int bin(int f, double value) {
+        if (Utils.isMissingValue(value)) {
+            return MISSING_BIN;
+        }
+        if (binWidth[f] < 0) {
+            return (int) value;
+        }
+        if (binWidth[f] == 0) {
+            return 0;
+        }
+        int bin = (int) ((value - binMin[f]) / binWidth[f]);
+        return Math.max(0, Math.min(numBins - 1, bin));
+    }
+
+    // --- Class probabilities of row i from the raw scores ---
+    private void probabilities(double[][] scores, int i, double[][] out) {
+        if (numScores == 1) {
+            double p = 1.0 / (1.0 + Math.exp(-scores[0][i]));
+            out[0][i] = 1 - p;
+            out[1][i] = p;
+            return;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < numScores; k++) {
+            max = Math.max(max, scores[k][i]);
+        }
+        double sum = 0;
+        for (int k = 0; k < numScores; k++) {
+            out[k][i] = Math.exp(scores[k][i] - max);
+            sum += out[k][i];
+        }
+        for (int k = 0; k < numScores; k++) {
+            out[k][i] /= sum;
+        }
+    }
+
+    // --- Grow one tree depth-wise and add its leaf values to the training scores ---
+    private Tree buildTree(TrainingData train, int n, double[] scores, ForkJoinPool pool) throws Exception {
+        Tree tree = new Tree();
+        int[] rows = new int[n];
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            if (train.weight[i] > 0) {
+                rows[used++] = i;
+            }
+        }
+        Histogram histogram = buildHistogram(train, rows, 0, used, pool);
+        grow(tree, tree.addNode(), train, rows, 0, used, histogram, 0, scores, pool);
+        return tree;
+    }
+
+    private void grow(Tree tree, int node, TrainingData train, int[] rows, int from, int to,
+                      Histogram histogram, int depth, double[] scores, ForkJoinPool pool) throws Exception {
+        // node totals from the first feature's histogram
+        double g = 0;
+        double h = 0;
+        double w = 0;
+        for (int b = 0; b < HIST_SIZE; b++) {
+            g += histogram.grad[b];
+            h += histogram.hess[b];
+            w += histogram.weight[b];
+        }
+
+        Split split = (depth < maxDepth && w >= 2 * minWeightLeaf) ? findSplit(histogram, g, h, w) : null;
+        if (split == null) {
+            double value = -g / (h + lambda) * learningRate;
+            tree.value[node] = value;
+            for (int r = from; r < to; r++) {
+                scores[rows[r]] += value;
+            }
+            return;
+        }
+
+        // partition rows in place: left part first
+        byte[] column = train.columns[split.feature];
+        int mid = from;
+        for (int r = from; r < to; r++) {
+            int bin = column[rows[r]] & 0xFF;
+            boolean goLeft = (bin == MISSING_BIN) ? split.missingLeft : bin <= split.threshold;
+            if (goLeft) {
+                int tmp = rows[mid];
+                rows[mid++] = rows[r];
+                rows[r] = tmp;
+            }
+        }
+
+        tree.feature[node] = split.feature;
+        tree.threshold[node] = split.threshold;
+        tree.missingLeft[node] = split.missingLeft;
+        int leftNode = tree.addNode();
+        int rightNode = tree.addNode();
+        tree.left[node] = leftNode;
+        tree.right[node] = rightNode;
+
+        // histogram of the smaller child, the other one by subtraction
+        Histogram leftHist;
+        Histogram rightHist;
+        if (mid - from <= to - mid) {
+            leftHist = buildHistogram(train, rows, from, mid, pool);
+            rightHist = histogram.minus(leftHist);
+        } else {
+            rightHist = buildHistogram(train, rows, mid, to, pool);
+            leftHist = histogram.minus(rightHist);
+        }
+        grow(tree, leftNode, train, rows, from, mid, leftHist, depth + 1, scores, pool);
+        grow(tree, rightNode, train, rows, mid, to, rightHist, depth + 1, scores, pool);
+    }
+
+    // --- Histograms of rows[from, to) for all features, in parallel over features ---
+    private Histogram buildHistogram(TrainingData train, int[] rows, int from, int to,
+                                     ForkJoinPool pool) throws Exception {
+        int numFeatures = train.columns.length;
+        Histogram histogram = new Histogram(numFeatures);
+        pool.submit(() -> IntStream.range(0, numFeatures).parallel().forEach(f -> {
+            byte[] column = train.columns[f];
+            int offset = f * HIST_SIZE;
+            for (int r = from; r < to; r++) {
+                int row = rows[r];
+                int slot = offset + (column[row] & 0xFF);
+                histogram.grad[slot] += train.grad[row];
+                histogram.hess[slot] += train.hess[row];
+                histogram.weight[slot] += train.weight[row];
+            }
+        })).get();
+        return histogram;
+    }
+
+    // --- Best split over all features and bins (missing bin tried on both sides) ---
+    private Split findSplit(Histogram histogram, double g, double h, double w) {
+        int numFeatures = histogram.grad.length / HIST_SIZE;
+        double parentScore = g * g / (h + lambda);
+        Split best = null;
+
+        for (int f = 0; f < numFeatures; f++) {
+            int offset = f * HIST_SIZE;
+            double missingG = histogram.grad[offset + MISSING_BIN];
+            double missingH = histogram.hess[offset + MISSING_BIN];
+            double missingW = histogram.weight[offset + MISSING_BIN];
+
+            double leftG = 0;
+            double leftH = 0;
+            double leftW = 0;
+            for (int b = 0; b < featureBins[f] - 1; b++) {
+                leftG += histogram.grad[offset + b];
+                leftH += histogram.hess[offset + b];
+                leftW += histogram.weight[offset + b];
+                if (histogram.weight[offset + b] == 0) {
+                    continue;   // same split as the previous bin
+                }
+                for (int side = 0; side < 2; side++) {
+                    boolean missingLeft = (side == 0);
+                    double lg = leftG + (missingLeft ? missingG : 0);
+                    double lh = leftH + (missingLeft ? missingH : 0);
+                    double lw = leftW + (missingLeft ? missingW : 0);
+                    double rg = g - lg;
+                    double rh = h - lh;
+                    double rw = w - lw;
+                    if (lw < minWeightLeaf || rw < minWeightLeaf) {
+                        continue;
+                    }
+                    double gain = lg * lg / (lh + lambda) + rg * rg / (rh + lambda) - parentScore;
+                    if (gain > 1e-12 && (best == null || gain > best.gain)) {
+                        best = new Split();
+                        best.feature = f;
+                        best.threshold = b;
+                        best.missingLeft = missingLeft;
+                        best.gain = gain;
+                    }
+                    if (missingW == 0) {
+                        break;      // both sides identical without missing values
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) {
+        byte[] bins = new byte[featureAttributes.length];
+        for (int f = 0; f < featureAttributes.length; f++) {
+            bins[f] = (byte) bin(f, instance.value(featureAttributes[f]));
+        }
+
+        double[] score = Arrays.copyOf(initialScores, numScores);
+        for (Tree[] round : trees) {
+            for (int k = 0; k < numScores; k++) {
+                score[k] += round[k].predict(bins);
+            }
+        }
+
+        double[][] single = new double[numScores][1];
+        for (int k = 0; k < numScores; k++) {
+            single[k][0] = score[k];
+        }
+        double[][] probabilities = new double[header.numClasses()][1];
+        probabilities(single, 0, probabilities);
+
+        double[] distribution = new double[header.numClasses()];
+        for (int k = 0; k < distribution.length; k++) {
+            distribution[k] = probabilities[k][0];
+        }
+        return distribution;
+    }
+
+    // ===================== OPTIONS =====================
+
+    public int getNumIterations() { return numIterations; }
+    public void setNumIterations(int value) { numIterations = value; }
+
+    public double getLearningRate() { return learningRate; }
+    public void setLearningRate(double value) { learningRate = value; }
+
+    public int getMaxDepth() { return maxDepth; }
+    public void setMaxDepth(int value) { maxDepth = value; }
+
+    public double getMinWeightLeaf() { return minWeightLeaf; }
+    public void setMinWeightLeaf(double value) { minWeightLeaf = value; }
+
+    public double getLambda() { return lambda; }
+    public void setLambda(double value) { lambda = value; }
+
+    public int getNumBins() { return numBins; }
+    public void setNumBins(int value) { numBins = Math.max(2, Math.min(MAX_BINS, value)); }
+
+    public int getNumThreads() { return numThreads; }
+    public void setNumThreads(int value) { numThreads = value; }
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        Vector<Option> options = new Vector<>();
+        options.add(new Option("\tNumber of boosting iterations (default 100).", "I", 1, "-I <num>"));
+        options.add(new Option("\tLearning rate (default 0.1).", "shrinkage", 1, "-shrinkage <rate>"));
+        options.add(new Option("\tMaximum tree depth (default 6).", "depth", 1, "-depth <num>"));
+        options.add(new Option("\tMinimum total weight per leaf (default 20).", "M", 1, "-M <weight>"));
+        options.add(new Option("\tL2 regularization of leaf values (default 1).", "L", 1, "-L <lambda>"));
+        options.add(new Option("\tNumber of bins per numeric attribute, at most 255 (default 255).\n"
+                + "\tNominal attributes use one bin per value.", "B", 1, "-B <num>"));
+        options.add(new Option("\tNumber of threads, 0 = all cores (default 0).", "num-threads", 1,
+                "-num-threads <num>"));
+        options.addAll(Collections.list(super.listOptions()));
+        return options.elements();
+    }
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String value = Utils.getOption('I', options);
+        numIterations = value.isEmpty() ? 100 : Integer.parseInt(value);
+        value = Utils.getOption("shrinkage", options);
+        learningRate = value.isEmpty() ? 0.1 : Double.parseDouble(value);
+        value = Utils.getOption("depth", options);
+        maxDepth = value.isEmpty() ? 6 : Integer.parseInt(value);
+        value = Utils.getOption('M', options);
+        minWeightLeaf = value.isEmpty() ? 20 : Double.parseDouble(value);
+        value = Utils.getOption('L', options);
+        lambda = value.isEmpty() ? 1.0 : Double.parseDouble(value);
+        value = Utils.getOption('B', options);
+        setNumBins(value.isEmpty() ? MAX_BINS : Integer.parseInt(value));
+        value = Utils.getOption("num-threads", options);
+        numThreads = value.isEmpty() ? 0 : Integer.parseInt(value);
+        super.setOptions(options);
+        Utils.checkForRemainingOptions(options);
+    }
+
+    @Override
+    public String[] getOptions() {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-I", "" + numIterations,
+                "-shrinkage", "" + learningRate,
+                "-depth", "" + maxDepth,
+                "-M", "" + minWeightLeaf,
+                "-L", "" + lambda,
+                "-B", "" + numBins,
+                "-num-threads", "" + numThreads));
+        Collections.addAll(options, super.getOptions());
+        return options.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        if (trees == null) {
+            return "HistGradientBoosting: no model built yet.";
+        }
+        int nodes = 0;
+        for (Tree[] round : trees) {
+            for (Tree tree : round) {
+                nodes += tree.size;
+            }
+        }
+        return "HistGradientBoosting\n====================\n"
+                + "Iterations: " + trees.size() + ", trees per iteration: " + numScores
+                + ", total nodes: " + nodes + ", bins per numeric attribute: " + numBins + "\n";
+    }
+
+    public static void main(String[] args) {
+        runClassifier(new HistGradientBoosting(), args);
+    }
+}
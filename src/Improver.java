@@ -2,45 +2,104 @@ import weka.filters.supervised.attribute.AttributeSelection;
 import weka.attributeSelection.InfoGainAttributeEval;
 import weka.attributeSelection.Ranker;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.meta.CostSensitiveClassifier;
-import weka.classifiers.trees.RandomForest;
 import weka.classifiers.CostMatrix;
 
 
 import weka.classifiers.bayes.NaiveBayes;              // Step 4 – thêm model
 import weka.classifiers.lazy.IBk;                      // kNN
-import weka.classifiers.functions.Logistic;            // Logistic Regression
 import weka.classifiers.functions.SMO;                 // SVM
 
 import weka.filters.Filter;                             // Step 4 – feature selection
 
 
+import java.io.File;
 import java.util.Random;
 
 public class Improver {
 
+    // Out-of-core mode: fold files on disk instead of the dataset in memory (null = off)
+    static OutOfCoreCV.Folds outOfCore = null;
+
+    // Optional: write the cost-sensitive forest in the compact format (null = off)
+    static String saveForestPath = null;
+
+    // Random forests stop growing after this many trees without out-of-bag improvement (0 = off)
+    static int oobWindow = 0;
+
+    // Optional: checkpoint every finished CV fold here, resume from it after a crash (null = off)
+    static File checkpointDir = null;
+    static boolean checkpointModels = false;
+
+    // Fold loop shared with Evaluator (profiling, checkpoints); a new one for every run
+    static Evaluator.Session session;
+
+    // --- Options back to their defaults (main sets them; run() alone always uses the defaults) ---
+    static void resetOptions() {
+        saveForestPath = null;
+        oobWindow = 0;
+        checkpointDir = null;
+        checkpointModels = false;
+    }
+
     public static void main(String[] args) throws Exception {
 
         printLine();
         System.out.println("=== HEART DISEASE - IMPROVEMENT EXPERIMENTS (STEP 3 - PHAM HUYNH DUC) ===");
         printLine();
 
-        String arffPath = (args.length > 0)
-                ? args[0]
-                : "datasets/heart_disease_preprocessed.arff";
-
-        // 1. Load dataset
-        DataSource source = new DataSource(arffPath);
-        Instances data = source.getDataSet();
-        if (data.classIndex() == -1) {
-            data.setClassIndex(data.numAttributes() - 1);
+        String arffPath = CommandLine.positional(args, 0, "datasets/heart_disease_preprocessed.arff");
+
+        try {
+            // Optional: --save-forest=<file.cforest> (cost-sensitive forest in the compact format)
+            saveForestPath = CommandLine.option(args, "save-forest", null);
+
+            // Optional: --oob-window=<trees> (forests stop once out-of-bag error stops improving)
+            oobWindow = CommandLine.intOption(args, "oob-window", 0);
+
+            // Optional: --checkpoint=<dir> [--checkpoint-models] (resume an interrupted run from its finished folds)
+            String checkpoint = CommandLine.option(args, "checkpoint", null);
+            checkpointDir = (checkpoint != null) ? new File(checkpoint) : null;
+            checkpointModels = CommandLine.flag(args, "checkpoint-models");
+
+            // Optional: --out-of-core (folds are streamed from disk, in-memory-only steps are skipped)
+            if (CommandLine.flag(args, "out-of-core")) {
+                outOfCore = OutOfCoreCV.partition(new File(arffPath), 10, 1);
+                System.out.println(OutOfCoreCV.describe(outOfCore));
+                try {
+                    run(outOfCore.header());
+                } finally {
+                    outOfCore.close();
+                    outOfCore = null;
+                }
+                return;
+            }
+
+            // 1. Load dataset
+            Instances data = DatasetCache.read(arffPath);
+            if (data.classIndex() == -1) {
+                data.setClassIndex(data.numAttributes() - 1);
+            }
+
+            run(data);
+        } finally {
+            resetOptions();     // not inherited by later runs in the same JVM (WekaDaemon, Pipeline)
         }
+    }
 
+    /**
+     * Runs all improvement experiments on already loaded data (class index set).
+     */
+    public static void run(Instances data) throws Exception {
+        session = new Evaluator.Session();
+        if (checkpointDir != null && outOfCore == null) {
+            session.checkpoint = new Checkpoint(checkpointDir, "Improver", checkpointModels);
+            System.out.println("Checkpoints: " + session.checkpoint.describe());
+        }
         System.out.println("Loaded dataset: " + data.relationName());
-        System.out.println("Instances: " + data.numInstances());
+        System.out.println("Instances: " + ((outOfCore != null) ? outOfCore.numRows() : data.numInstances()));
         System.out.println("Attributes: " + data.numAttributes());
         System.out.println("Class: " + data.classAttribute().name());
 
@@ -48,6 +107,11 @@ public class Improver {
         System.out.println();
         System.out.println("[Step] Building Cost-Sensitive RandomForest...");
         Classifier csRandomForest = buildCostSensitiveRandomForest(data);
+        if (saveForestPath != null && outOfCore == null) {
+            CompactForest.write(csRandomForest, new File(saveForestPath), data);
+            System.out.printf("[Step] Compact model saved: %s (%,d bytes)%n",
+                    saveForestPath, new File(saveForestPath).length());
+        }
 
         // 3. Evaluate with 10-fold CV
         System.out.println("[Step] Evaluating model with 10-fold cross-validation...");
@@ -62,8 +126,13 @@ public class Improver {
         // 4.1 – Thử thêm nhiều model baseline khác (Logistic, NB, kNN, SVM)
         runAdditionalModels(data);
 
-        // 4.2 – Feature selection + RandomForest
-        runFeatureSelectionExperiment(data);
+        // 4.2 – Feature selection + RandomForest (needs the whole dataset in memory)
+        if (outOfCore == null) {
+            runFeatureSelectionExperiment(data);
+        } else {
+            System.out.println();
+            System.out.println("[Step 4.2] Feature selection skipped (out-of-core mode)");
+        }
 
         printLine();
         System.out.println("=== END OF IMPROVEMENT EXPERIMENTS ===");
@@ -75,9 +144,10 @@ public class Improver {
     }
 
     private static Classifier buildCostSensitiveRandomForest(Instances train) throws Exception {
-        RandomForest rf = new RandomForest();
+        GrowableRandomForest rf = new GrowableRandomForest();
         rf.setNumIterations(100);   // số cây
         rf.setMaxDepth(0);          // 0 = không giới hạn, rừng sẽ tự regularize
+        rf.setOutOfBagWindow(oobWindow);
 
         // Cost matrix: rows = actual, cols = predicted
         // Giả sử: class 0 = No, class 1 = Yes
@@ -91,7 +161,10 @@ public class Improver {
         csc.setClassifier(rf);
         csc.setCostMatrix(costMatrix);
         csc.setMinimizeExpectedCost(true);
-        csc.buildClassifier(train);
+        if (outOfCore == null) {
+            csc.buildClassifier(train);   // only the CV fold models are built out-of-core
+            GrowableRandomForest.discardTrainingData(csc);
+        }
 
         return csc;
     }
@@ -99,13 +172,31 @@ public class Improver {
 
 
     private static void evaluateModel(Classifier cls, Instances data, String name) throws Exception {
+        if (outOfCore != null && !OutOfCoreCV.fits(cls, outOfCore)) {
+            System.out.println("Skipped " + name + ": training folds do not fit in memory (out-of-core mode)");
+            return;
+        }
         long start = System.currentTimeMillis();
-
-        Evaluation eval = new Evaluation(data);
-        eval.crossValidateModel(cls, data, 10, new Random(1));
+        session.restoredMs = 0;
+
+        Evaluation eval;
+        if (outOfCore != null) {
+            eval = OutOfCoreCV.crossValidate(cls, outOfCore, session.profiler, name);
+        } else {
+            eval = Evaluator.crossValidate(session, name, cls, data, 10, new Random(1));
+            session.foldForests = null;     // no later forest is built on these folds
+        }
 
         long end = System.currentTimeMillis();
-        long runtimeMs = end - start;
+        long runtimeMs = end - start + session.restoredMs;
+        // Fit/predict time of the folds, as in Evaluator.recordHistory; restored folds: timings
+        // would cover only part of the run
+        MemoryProfiler.Step train = session.profiler.get(name + " | train");
+        MemoryProfiler.Step test = session.profiler.get(name + " | eval");
+        if (session.restoredMs == 0 && train != null && test != null) {
+            PerfHistory.record("Improver", (outOfCore != null) ? "ooc-cv" : "cv", name, cls, data,
+                    train.wallMs, test.wallMs, Math.max(train.peakHeapBytes, test.peakHeapBytes));
+        }
 
         System.out.println();
         System.out.println("--------------------------------------------------------");
@@ -136,17 +227,19 @@ public class Improver {
         System.out.println("[Step 4.1] Evaluating additional baseline models on full feature set...");
 
         Classifier[] models = new Classifier[] {
-                new Logistic(),
+                new ParallelLogistic(),   // cùng mô hình với Logistic, L-BFGS song song
                 new NaiveBayes(),
                 new IBk(5),   // kNN với k = 5
-                new SMO()     // SVM
+                new SMO(),    // SVM
+                new LinearSVM()   // SVM tuyến tính (dual coordinate descent)
         };
 
         String[] names = new String[] {
                 "Step 4 – Logistic Regression",
                 "Step 4 – Naive Bayes",
                 "Step 4 – kNN (k=5)",
-                "Step 4 – SVM (SMO)"
+                "Step 4 – SVM (SMO)",
+                "Step 4 – Linear SVM (dual CD)"
         };
 
         for (int i = 0; i < models.length; i++) {
@@ -187,9 +280,10 @@ public class Improver {
         System.out.println("[Step 4.2] Relation (after selection): " + reducedData.relationName());
 
         // Dùng lại RandomForest cơ bản
-        RandomForest rf = new RandomForest();
+        GrowableRandomForest rf = new GrowableRandomForest();
         rf.setNumIterations(100);
         rf.setMaxDepth(0);
+        rf.setOutOfBagWindow(oobWindow);
 
         System.out.println();
         System.out.println("[Step 4.2] Evaluating RandomForest on selected features...");
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * KLL quantile sketch (Karnin, Lang, Liberty) for one numeric column.
+ *
+ * Values are kept in levels; an item on level h stands for 2^h input values. A full
+ * level is sorted and every other item (random offset) is promoted to the next level,
+ * so memory stays bounded by about 3k values however many values are added. Sketches
+ * built on separate chunks can be merged. With k = 200 the rank error is about 1.3%.
+ *
+ * The random offsets come from a seeded generator, so the same input (and merge order)
+ * always gives the same quantiles.
+ */
+public class KllSketch {
+
+    static final int DEFAULT_K = 200;
+    private static final double SHRINK = 2.0 / 3.0;
+
+    private final int k;
+    private final Random random;
+    private final List<double[]> levels = new ArrayList<>();
+    private final List<Integer> sizes = new ArrayList<>();
+    private long count;
+
+    public KllSketch() {
+        this(DEFAULT_K, 1);
+    }
+
+    public KllSketch(int k, long seed) {
+        this.k = k;
+        this.random = new Random(seed);
+        addLevel();
+    }
+
+    public long count() {
+        return count;
+    }
+
+    // --- Add one value (NaN is ignored) ---
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        append(0, value);
+        count++;
+        compress();
+    }
+
+    // --- Add all values of another sketch ---
+    public void merge(KllSketch other) {
+        for (int h = 0; h < other.levels.size(); h++) {
+            double[] items = other.levels.get(h);
+            for (int i = 0; i < other.sizes.get(h); i++) {
+                append(h, items[i]);
+            }
+        }
+        count += other.count;
+        compress();
+    }
+
+    // --- Approximate q-quantile (0 <= q <= 1); NaN for an empty sketch ---
+    public double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        int total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        double[] values = new double[total];
+        long[] weights = new long[total];
+        int n = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            double[] items = levels.get(h);
+            for (int i = 0; i < sizes.get(h); i++) {
+                values[n] = items[i];
+                weights[n] = 1L << h;
+                n++;
+            }
+        }
+
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        long totalWeight = 0;
+        for (long w : weights) {
+            totalWeight += w;
+        }
+        double target = q * totalWeight;
+        long cumulative = 0;
+        for (int i = 0; i < total; i++) {
+            cumulative += weights[order[i]];
+            if (cumulative >= target) {
+                return values[order[i]];
+            }
+        }
+        return values[order[total - 1]];
+    }
+
+    private void addLevel() {
+        levels.add(new double[8]);
+        sizes.add(0);
+    }
+
+    private void append(int level, double value) {
+        while (levels.size() <= level) {
+            addLevel();
+        }
+        double[] items = levels.get(level);
+        int size = sizes.get(level);
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            levels.set(level, items);
+        }
+        items[size] = value;
+        sizes.set(level, size + 1);
+    }
+
+    private int capacity(int level) {
+        int depth = levels.size() - 1 - level;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(SHRINK, depth)));
+    }
+
+    // --- Compact the lowest full level until the sketch is within its size bound ---
+    private void compress() {
+        while (true) {
+            int total = 0;
+            int bound = 0;
+            for (int h = 0; h < levels.size(); h++) {
+                total += sizes.get(h);
+                bound += capacity(h);
+            }
+            if (total < bound) {
+                return;
+            }
+            for (int h = 0; h < levels.size(); h++) {
+                if (sizes.get(h) >= capacity(h)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void compact(int level) {
+        double[] items = levels.get(level);
+        int size = sizes.get(level);
+        Arrays.sort(items, 0, size);
+
+        // an odd item out stays on this level
+        int keep = size % 2;
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = keep + offset; i < size; i += 2) {
+            append(level + 1, items[i]);
+        }
+        sizes.set(level, keep);
+    }
+}
@@ -0,0 +1,285 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.NominalToBinary;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.stream.IntStream;
+
+/**
+ * Linear support vector machine trained by dual coordinate descent
+ * (L2-regularized hinge loss, as in LIBLINEAR). Each pass over the data is linear in
+ * the number of rows, so training time grows roughly linearly instead of the
+ * super-linear growth of SMO.
+ *
+ * Like SMO, missing values are replaced by means and nominal attributes are binarized.
+ * Attributes are NOT normalized: the preprocessed data is already scaled to [0, 1].
+ * Multi-class problems use one-vs-rest (trained in parallel); class probabilities are
+ * the normalized sigmoids of the decision values.
+ */
+public class LinearSVM extends AbstractClassifier implements WeightedInstancesHandler {
+
+    private static final long serialVersionUID = -6042738130675521438L;
+
+    // Options
+    private double c = 1.0;
+    private double epsilon = 0.01;
+    private int maxIterations = 1000;
+    private int seed = 1;
+
+    // Model
+    private ReplaceMissingValues replaceMissing;
+    private NominalToBinary nominalToBinary;
+    private int numClasses;
+    private int numFeatures;
+    private double[][] weights;     // [model][feature + bias]
+    private int[] iterationsUsed;
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capability.MISSING_VALUES);
+        result.enable(Capability.NOMINAL_CLASS);
+        result.enable(Capability.MISSING_CLASS_VALUES);
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        getCapabilities().testWithFail(data);
+        data = new Instances(data);
+        data.deleteWithMissingClass();
+
+        replaceMissing = new ReplaceMissingValues();
+        replaceMissing.setInputFormat(data);
+        data = Filter.useFilter(data, replaceMissing);
+        nominalToBinary = new NominalToBinary();
+        nominalToBinary.setInputFormat(data);
+        data = Filter.useFilter(data, nominalToBinary);
+
+        numClasses = data.numClasses();
+        int n = data.numInstances();
+        int classIndex = data.classIndex();
+        numFeatures = data.numAttributes() - 1;
+
+        // Rows in one contiguous array, bias feature (= 1) last
+        int stride = numFeatures + 1;
+        double[] x = new double[n * stride];
+        double[] rowNorm = new double[n];
+        double[] upper = new double[n];
+        int[] label = new int[n];
+        for (int i = 0; i < n; i++) {
+            Instance row = data.instance(i);
+            int offset = i * stride;
+            int f = 0;
+            for (int j = 0; j < data.numAttributes(); j++) {
+                if (j != classIndex) {
+                    x[offset + f++] = row.value(j);
+                }
+            }
+            x[offset + numFeatures] = 1.0;
+            double norm = 0;
+            for (int k = 0; k < stride; k++) {
+                norm += x[offset + k] * x[offset + k];
+            }
+            rowNorm[i] = norm;
+            upper[i] = c * row.weight();
+            label[i] = (int) row.classValue();
+        }
+
+        // One model for two classes (positive = class 1), one per class otherwise
+        int numModels = (numClasses == 2) ? 1 : numClasses;
+        weights = new double[numModels][];
+        iterationsUsed = new int[numModels];
+        IntStream.range(0, numModels).parallel().forEach(m -> {
+            int positive = (numModels == 1) ? 1 : m;
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                y[i] = (label[i] == positive) ? 1.0 : -1.0;
+            }
+            weights[m] = train(x, stride, n, y, rowNorm, upper, m);
+        });
+    }
+
+    // --- Dual coordinate descent for one binary problem ---
+    private double[] train(double[] x, int stride, int n, double[] y, double[] rowNorm, double[] upper, int model) {
+        double[] w = new double[stride];
+        double[] alpha = new double[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(seed + model);
+
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+
+            double maxPG = Double.NEGATIVE_INFINITY;
+            double minPG = Double.POSITIVE_INFINITY;
+            for (int idx = 0; idx < n; idx++) {
+                int i = order[idx];
+                if (rowNorm[i] == 0 || upper[i] == 0) {
+                    continue;
+                }
+                int offset = i * stride;
+                double dot = 0;
+                for (int k = 0; k < stride; k++) {
+                    dot += w[k] * x[offset + k];
+                }
+                double gradient = y[i] * dot - 1;
+
+                double projected = gradient;
+                if (alpha[i] == 0) {
+                    projected = Math.min(gradient, 0);
+                } else if (alpha[i] == upper[i]) {
+                    projected = Math.max(gradient, 0);
+                }
+                maxPG = Math.max(maxPG, projected);
+                minPG = Math.min(minPG, projected);
+
+                if (Math.abs(projected) > 1e-12) {
+                    double old = alpha[i];
+                    alpha[i] = Math.min(Math.max(old - gradient / rowNorm[i], 0), upper[i]);
+                    double delta = (alpha[i] - old) * y[i];
+                    for (int k = 0; k < stride; k++) {
+                        w[k] += delta * x[offset + k];
+                    }
+                }
+            }
+            if (maxPG - minPG <= epsilon) {
+                break;
+            }
+        }
+        iterationsUsed[model] = iteration;
+        return w;
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        replaceMissing.input(instance);
+        Instance filtered = replaceMissing.output();
+        nominalToBinary.input(filtered);
+        filtered = nominalToBinary.output();
+
+        double[] features = new double[numFeatures + 1];
+        int f = 0;
+        for (int j = 0; j < filtered.numAttributes(); j++) {
+            if (j != filtered.classIndex()) {
+                features[f++] = filtered.value(j);
+            }
+        }
+        features[numFeatures] = 1.0;
+
+        double[] distribution = new double[numClasses];
+        if (weights.length == 1) {
+            double p = sigmoid(dot(weights[0], features));
+            distribution[0] = 1 - p;
+            distribution[1] = p;
+            return distribution;
+        }
+        for (int k = 0; k < numClasses; k++) {
+            distribution[k] = sigmoid(dot(weights[k], features));
+        }
+        Utils.normalize(distribution);
+        return distribution;
+    }
+
+    private static double dot(double[] w, double[] features) {
+        double sum = 0;
+        for (int k = 0; k < w.length; k++) {
+            sum += w[k] * features[k];
+        }
+        return sum;
+    }
+
+    private static double sigmoid(double margin) {
+        return 1.0 / (1.0 + Math.exp(-margin));
+    }
+
+    // ===================== OPTIONS =====================
+
+    public double getC() { return c; }
+    public void setC(double value) { c = value; }
+
+    public double getEpsilon() { return epsilon; }
+    public void setEpsilon(double value) { epsilon = value; }
+
+    public int getMaxIterations() { return maxIterations; }
+    public void setMaxIterations(int value) { maxIterations = value; }
+
+    public int getSeed() { return seed; }
+    public void setSeed(int value) { seed = value; }
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        Vector<Option> options = new Vector<>();
+        options.add(new Option("\tComplexity constant C (default 1).", "C", 1, "-C <num>"));
+        options.add(new Option("\tTolerance of the stopping criterion (default 0.01).", "E", 1, "-E <num>"));
+        options.add(new Option("\tMaximum number of passes over the data (default 1000).", "I", 1, "-I <num>"));
+        options.add(new Option("\tRandom seed for the visiting order (default 1).", "S", 1, "-S <num>"));
+        options.addAll(Collections.list(super.listOptions()));
+        return options.elements();
+    }
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String value = Utils.getOption('C', options);
+        c = value.isEmpty() ? 1.0 : Double.parseDouble(value);
+        value = Utils.getOption('E', options);
+        epsilon = value.isEmpty() ? 0.01 : Double.parseDouble(value);
+        value = Utils.getOption('I', options);
+        maxIterations = value.isEmpty() ? 1000 : Integer.parseInt(value);
+        value = Utils.getOption('S', options);
+        seed = value.isEmpty() ? 1 : Integer.parseInt(value);
+        super.setOptions(options);
+        Utils.checkForRemainingOptions(options);
+    }
+
+    @Override
+    public String[] getOptions() {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-C", "" + c,
+                "-E", "" + epsilon,
+                "-I", "" + maxIterations,
+                "-S", "" + seed));
+        Collections.addAll(options, super.getOptions());
+        return options.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        if (weights == null) {
+            return "LinearSVM: no model built yet.";
+        }
+        StringBuilder sb = new StringBuilder("LinearSVM (dual coordinate descent)\n===================================\n");
+        sb.append("Models: ").append(weights.length).append(", passes: ").append(Arrays.toString(iterationsUsed)).append("\n");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        runClassifier(new LinearSVM(), args);
+    }
+}
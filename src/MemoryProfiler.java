@@ -0,0 +1,269 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Per-step memory profiling for the command line tools.
+ *
+ * For every step it records wall time, bytes allocated, peak heap during the step, and
+ * GC count / pause time. Steps with the same name are accumulated (e.g. the training
+ * phase of all 10 folds). The report is printed to the console and appended to
+ * results/memory_profile.tsv.
+ *
+ * Allocation is the growth of the heap in use plus the bytes freed by the collections
+ * during the step (GC notifications), so it includes worker threads that start and
+ * finish inside the step (loader and writer pools). It is counted for the whole JVM.
+ * While BatchRunner runs several datasets at once (PerfHistory.concurrent) only the
+ * calling thread's own allocation is counted and the peak heap is not measured.
+ */
+public class MemoryProfiler {
+
+    static final String DEFAULT_PROFILE = "results/memory_profile.tsv";
+
+    // File used by writeTsv(); can be changed before a run
+    static File profileFile = new File(DEFAULT_PROFILE);
+
+    private static final String[] COLUMNS = {
+            "timestamp", "tool", "dataset", "step", "calls", "wallMs",
+            "allocatedMB", "peakHeapMB", "gcCount", "gcTimeMs"
+    };
+
+    // --- Accumulated numbers for one step ---
+    static class Step {
+        String name;
+        int calls;
+        long wallMs;
+        long allocatedBytes;
+        long peakHeapBytes;
+        long gcCount;
+        long gcTimeMs;
+    }
+
+    // Bytes freed and collections seen by the GC listener since the JVM started
+    private static final AtomicLong FREED_BYTES = new AtomicLong();
+    private static final AtomicLong NOTIFIED_GCS = new AtomicLong();
+    private static final boolean GC_NOTIFICATIONS = listenToCollections();
+    private static final long NOTIFICATION_WAIT_MS = 200;
+
+    private final String tool;
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private boolean concurrent = false;     // some step was measured in a concurrent run
+
+    // State of the running measurement
+    private String current;
+    private long startNanos;
+    private long startAllocated;
+    private long startGcCount;
+    private long startGcTime;
+
+    public MemoryProfiler(String tool) {
+        this.tool = tool;
+    }
+
+    // --- Start measuring a step (one step at a time) ---
+    public void start(String step) {
+        if (current != null) {
+            stop();
+        }
+        current = step;
+        PerfHistory.resetPeakHeap();
+        startGcCount = gcCount();
+        startAllocated = PerfHistory.concurrent ? allocatedByThisThread() : allocatedSoFar(startGcCount);
+        startGcTime = gcTime();
+        startNanos = System.nanoTime();
+    }
+
+    // --- Stop the running step and add its numbers to the totals ---
+    public Step stop() {
+        if (current == null) {
+            return null;
+        }
+        long wallMs = (System.nanoTime() - startNanos) / 1_000_000;
+        long peak = PerfHistory.peakHeapBytes();
+        long gcs = gcCount();
+        long allocated = PerfHistory.concurrent
+                ? allocatedByThisThread() - startAllocated : allocatedSoFar(gcs) - startAllocated;
+        concurrent |= PerfHistory.concurrent;
+
+        Step step = steps.computeIfAbsent(current, name -> {
+            Step s = new Step();
+            s.name = name;
+            return s;
+        });
+        step.calls++;
+        step.wallMs += wallMs;
+        step.allocatedBytes += Math.max(0, allocated);
+        step.peakHeapBytes = Math.max(step.peakHeapBytes, peak);
+        step.gcCount += gcs - startGcCount;
+        step.gcTimeMs += gcTime() - startGcTime;
+
+        current = null;
+        return step;
+    }
+
+    // --- Accumulated numbers of a step (null if never measured) ---
+    public Step get(String step) {
+        return steps.get(step);
+    }
+
+    // --- Console table ---
+    public void printReport() {
+        System.out.println();
+        System.out.println("=".repeat(100));
+        System.out.println("=== MEMORY PROFILE: " + tool + " ===");
+        System.out.println("=".repeat(100));
+        System.out.printf("%-45s | %5s | %9s | %13s | %12s | %6s | %8s%n",
+                "Step", "Calls", "Wall (ms)", "Allocated (MB)", "Peak heap MB", "GCs", "GC (ms)");
+        System.out.println("-".repeat(100));
+
+        Step top = null;
+        for (Step s : steps.values()) {
+            System.out.printf("%-45s | %5d | %9d | %14.1f | %12s | %6d | %8d%n",
+                    s.name, s.calls, s.wallMs, mb(s.allocatedBytes),
+                    concurrent ? "-" : String.format("%.1f", mb(s.peakHeapBytes)), s.gcCount, s.gcTimeMs);
+            if (top == null || s.allocatedBytes > top.allocatedBytes) {
+                top = s;
+            }
+        }
+        System.out.println("-".repeat(100));
+        if (top != null) {
+            System.out.printf("Largest allocator: %s (%.1f MB); max heap available: %.1f MB%n",
+                    top.name, mb(top.allocatedBytes), mb(Runtime.getRuntime().maxMemory()));
+        }
+        if (concurrent) {
+            System.out.println("Concurrent run: allocation of this dataset's own thread only (no worker pools), "
+                    + "no peak heap; GC numbers include the other datasets");
+        }
+    }
+
+    // --- Append all steps to the machine-readable profile file ---
+    public void writeTsv(String dataset) {
+        try {
+            File parent = profileFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            boolean newFile = !profileFile.exists() || profileFile.length() == 0;
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            synchronized (MemoryProfiler.class) {
+                try (PrintWriter out = new PrintWriter(new FileWriter(profileFile, true))) {
+                    if (newFile) {
+                        out.println(String.join("\t", COLUMNS));
+                    }
+                    for (Step s : steps.values()) {
+                        out.println(String.join("\t", timestamp, concurrent ? tool + " (concurrent)" : tool, dataset,
+                                s.name.replace('\t', ' '), Integer.toString(s.calls), Long.toString(s.wallMs),
+                                String.format(Locale.ROOT, "%.2f", mb(s.allocatedBytes)),
+                                concurrent ? "-1" : String.format(Locale.ROOT, "%.2f", mb(s.peakHeapBytes)),
+                                Long.toString(s.gcCount), Long.toString(s.gcTimeMs)));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Profiling is best effort; never fail a run because of it
+            System.err.println("[MemoryProfiler] Could not write " + profileFile + ": " + e.getMessage());
+        }
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    // --- Bytes allocated by all threads since the JVM started: heap in use + bytes freed by GC.
+    //     Notifications arrive on their own thread, so wait briefly until all "gcs" collections are in ---
+    private static long allocatedSoFar(long gcs) {
+        if (GC_NOTIFICATIONS) {
+            long waitUntil = System.currentTimeMillis() + NOTIFICATION_WAIT_MS;
+            while (NOTIFIED_GCS.get() < gcs && System.currentTimeMillis() < waitUntil) {
+                Thread.onSpinWait();
+            }
+        }
+        return FREED_BYTES.get() + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // --- Bytes allocated by the calling thread (HotSpot extension of ThreadMXBean; 0 if unsupported) ---
+    private static long allocatedByThisThread() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+            return 0;
+        }
+        return Math.max(0, hotspot.getCurrentThreadAllocatedBytes());
+    }
+
+    // --- Add the heap freed by every collection to FREED_BYTES (HotSpot GC notifications) ---
+    private static boolean listenToCollections() {
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+        boolean listening = false;
+        try {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (!(gc instanceof NotificationEmitter)) {
+                    continue;
+                }
+                ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        return;
+                    }
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long freed = 0;
+                    for (Map.Entry<String, MemoryUsage> before : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+                        MemoryUsage after = info.getGcInfo().getMemoryUsageAfterGc().get(before.getKey());
+                        if (heapPools.contains(before.getKey()) && after != null) {
+                            freed += before.getValue().getUsed() - after.getUsed();
+                        }
+                    }
+                    FREED_BYTES.addAndGet(freed);
+                    NOTIFIED_GCS.incrementAndGet();
+                }, null, null);
+                listening = true;
+            }
+            NOTIFIED_GCS.addAndGet(gcCount());   // collections before the listeners were added
+        } catch (RuntimeException | LinkageError e) {
+            // Not a HotSpot JVM: allocation is then only the growth of the heap in use
+        }
+        return listening;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,249 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Out-of-core cross-validation for ARFF files larger than the heap.
+ *
+ * The ARFF is streamed once and every row is assigned to a fold file (binary doubles).
+ * Folds are stratified by dealing the rows of each class round-robin from a random
+ * start fold; the row order inside the file is kept (a stream cannot be shuffled).
+ *
+ * For every fold, updateable classifiers are trained by streaming the other folds,
+ * batch classifiers load the training folds into memory only if they fit, and the
+ * test fold is always scored as a stream. Predictions are not stored, so metrics
+ * that need them (ROC/PRC area) are not available.
+ */
+public class OutOfCoreCV {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Heap needed for a loaded fold, relative to its raw size (object overhead + copies)
+    private static final double MEMORY_FACTOR = 3.0;
+
+    // --- Fold files of one dataset ---
+    public static class Folds implements AutoCloseable {
+        final Instances header;
+        final File dir;
+        final long[] counts;
+        final String source;
+
+        Folds(Instances header, File dir, int numFolds, String source) {
+            this.header = header;
+            this.dir = dir;
+            this.counts = new long[numFolds];
+            this.source = source;
+        }
+
+        public Instances header() {
+            return header;
+        }
+
+        public int numFolds() {
+            return counts.length;
+        }
+
+        public long numRows() {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            return total;
+        }
+
+        File file(int fold) {
+            return new File(dir, "fold-" + fold + ".bin");
+        }
+
+        // Raw size of one fold in bytes (all values + weight as doubles)
+        long bytesPerRow() {
+            return (header.numAttributes() + 1) * 8L;
+        }
+
+        @Override
+        public void close() {
+            for (int i = 0; i < counts.length; i++) {
+                file(i).delete();
+            }
+            dir.delete();
+        }
+    }
+
+    // --- Stream the ARFF once and write every row to its fold file ---
+    public static Folds partition(File arff, int numFolds, long seed) throws Exception {
+        ArffLoader loader = new ArffLoader();
+        loader.setFile(arff);
+        Instances structure = loader.getStructure();
+        if (structure.classIndex() == -1) {
+            structure.setClassIndex(structure.numAttributes() - 1);
+        }
+        for (int j = 0; j < structure.numAttributes(); j++) {
+            Attribute attr = structure.attribute(j);
+            if (attr.isString() || attr.isRelationValued()) {
+                throw new IllegalArgumentException("Out-of-core CV supports numeric, nominal and date attributes only: "
+                        + attr.name());
+            }
+        }
+
+        File dir = Files.createTempDirectory("ooc-cv-").toFile();
+        Folds folds = new Folds(new Instances(structure, 0), dir, numFolds, arff.getPath());
+
+        // Per class (plus one slot for a missing / numeric class): next fold to deal to
+        int slots = structure.classAttribute().isNominal() ? structure.numClasses() + 1 : 1;
+        int[] next = new int[slots];
+        Random random = new Random(seed);
+        for (int c = 0; c < slots; c++) {
+            next[c] = random.nextInt(numFolds);
+        }
+
+        DataOutputStream[] out = new DataOutputStream[numFolds];
+        try {
+            for (int i = 0; i < numFolds; i++) {
+                out[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(folds.file(i)), BUFFER_SIZE));
+            }
+            Instance row;
+            while ((row = loader.getNextInstance(structure)) != null) {
+                int slot = 0;
+                if (slots > 1) {
+                    slot = row.classIsMissing() ? slots - 1 : (int) row.classValue();
+                }
+                int fold = next[slot];
+                next[slot] = (fold + 1) % numFolds;
+
+                for (int j = 0; j < row.numAttributes(); j++) {
+                    out[fold].writeDouble(row.value(j));
+                }
+                out[fold].writeDouble(row.weight());
+                folds.counts[fold]++;
+            }
+        } catch (Exception e) {
+            folds.close();
+            throw e;
+        } finally {
+            for (DataOutputStream o : out) {
+                if (o != null) {
+                    o.close();
+                }
+            }
+        }
+        return folds;
+    }
+
+    // --- Consumer of streamed rows ---
+    interface RowHandler {
+        void accept(Instance row) throws Exception;
+    }
+
+    // --- Stream all rows of one fold ---
+    static void streamFold(Folds folds, int fold, RowHandler handler) throws Exception {
+        int numAttributes = folds.header.numAttributes();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(folds.file(fold)), BUFFER_SIZE))) {
+            for (long r = 0; r < folds.counts[fold]; r++) {
+                double[] values = new double[numAttributes];
+                for (int j = 0; j < numAttributes; j++) {
+                    values[j] = in.readDouble();
+                }
+                Instance row = new DenseInstance(in.readDouble(), values);
+                row.setDataset(folds.header);
+                handler.accept(row);
+            }
+        }
+    }
+
+    // --- True if the learner must hold the training rows in memory ---
+    static boolean needsMemory(Classifier model) {
+        boolean lazy = model.getClass().getName().startsWith("weka.classifiers.lazy.");
+        return lazy || !(model instanceof UpdateableClassifier);
+    }
+
+    // --- Rough check whether the largest training set fits in the free heap ---
+    public static boolean fits(Classifier model, Folds folds) {
+        if (!needsMemory(model)) {
+            return true;
+        }
+        long trainRows = 0;
+        for (long c : folds.counts) {
+            trainRows = Math.max(trainRows, folds.numRows() - c);
+        }
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        return trainRows * folds.bytesPerRow() * MEMORY_FACTOR < free;
+    }
+
+    // --- Cross-validate a model over the fold files (profiler may be null) ---
+    public static Evaluation crossValidate(Classifier model, Folds folds,
+                                           MemoryProfiler profiler, String label) throws Exception {
+        if (!fits(model, folds)) {
+            throw new IllegalStateException("Training folds do not fit in memory for " + label);
+        }
+        Instances header = folds.header;
+        Evaluation evaluation = new Evaluation(header);
+        evaluation.setDiscardPredictions(true);
+
+        for (int i = 0; i < folds.numFolds(); i++) {
+            Classifier foldModel = AbstractClassifier.makeCopy(model);
+            evaluation.setPriors(header);   // reset priors, then count this fold's training rows
+
+            if (profiler != null) {
+                profiler.start(label + " | train");
+            }
+            if (model instanceof UpdateableClassifier) {
+                UpdateableClassifier updateable = (UpdateableClassifier) foldModel;
+                foldModel.buildClassifier(new Instances(header, 0));
+                for (int f = 0; f < folds.numFolds(); f++) {
+                    if (f != i) {
+                        streamFold(folds, f, row -> {
+                            evaluation.updatePriors(row);
+                            updateable.updateClassifier(row);
+                        });
+                    }
+                }
+            } else {
+                Instances train = new Instances(header, (int) Math.min(Integer.MAX_VALUE, folds.numRows() - folds.counts[i]));
+                for (int f = 0; f < folds.numFolds(); f++) {
+                    if (f != i) {
+                        streamFold(folds, f, row -> {
+                            evaluation.updatePriors(row);
+                            train.add(row);
+                        });
+                    }
+                }
+                foldModel.buildClassifier(train);
+            }
+            if (profiler != null) {
+                profiler.stop();
+                profiler.start(label + " | eval");
+            }
+            streamFold(folds, i, row -> evaluation.evaluateModelOnce(foldModel, row));
+            if (profiler != null) {
+                profiler.stop();
+            }
+        }
+        return evaluation;
+    }
+
+    // --- One line describing the partitioned dataset ---
+    public static String describe(Folds folds) {
+        return String.format("Out-of-core CV: %s, %d rows in %d fold files (%.1f MB)",
+                folds.source, folds.numRows(), folds.numFolds(),
+                folds.numRows() * folds.bytesPerRow() / (1024.0 * 1024.0));
+    }
+}
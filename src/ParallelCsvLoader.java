@@ -0,0 +1,886 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded CSV ingest that produces the same Instances as Weka's CSVLoader
+ * (default settings: "," separator, " and ' enclosures, "?" or empty = missing).
+ *
+ * The file is split into byte ranges on line boundaries, each range is parsed on its
+ * own thread into primitive columns (double[] for numbers, int[] codes for text),
+ * and the per-range nominal dictionaries are merged in file order so nominal values
+ * keep CSVLoader's first-appearance order.
+ *
+ * Type inference follows CSVLoader: a column whose first value is a number is numeric
+ * (and becomes string if text shows up later), a column whose first value is text is
+ * nominal, a column with only missing values is string.
+ *
+ * Optional high-cardinality screening (off by default): every text column gets a
+ * HyperLogLog counter per chunk, merged after the first read. Columns estimated above
+ * the threshold are kept as string attributes, or hashed into a fixed number of
+ * buckets (nominal values h0..hN-1, same bucket function as Preprocessor.hashBucket).
+ * In hash mode a chunk's dictionary is capped at the threshold and switches to bucket
+ * codes when it overflows, so memory for exploding columns stays constant.
+ *
+ * Limitation: quoted fields must not contain line breaks.
+ */
+public class ParallelCsvLoader {
+
+    // Column states while parsing one chunk
+    private static final byte EMPTY = 0;    // only missing values so far
+    private static final byte NUMERIC = 1;  // only numbers so far
+    private static final byte TEXT = 2;     // first value was text, every value is dictionary-encoded
+    private static final byte MIXED = 3;    // numbers first, then text -> chunk must be re-parsed as text
+
+    // Final attribute types
+    private static final int TYPE_NUMERIC = 0;
+    private static final int TYPE_NOMINAL = 1;
+    private static final int TYPE_STRING = 2;
+    private static final int TYPE_HASHED = 3;
+
+    private static final int MIN_CHUNK_BYTES = 1 << 20;   // 1 MB
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final int numThreads;
+
+    // High-cardinality screening (threshold 0 = off)
+    private int highCardinalityThreshold = 0;
+    private boolean hashHighCardinality = false;
+    private int hashBuckets = 32;
+    private final List<String> screeningReport = new ArrayList<>();
+
+    public ParallelCsvLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelCsvLoader(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    // --- Screen text columns with HyperLogLog; above "threshold" distinct values keep them as
+    //     strings (hash = false) or hash them into "buckets" nominal values (hash = true) ---
+    public void setHighCardinality(int threshold, boolean hash, int buckets) {
+        this.highCardinalityThreshold = Math.max(0, threshold);
+        this.hashHighCardinality = hash;
+        this.hashBuckets = Math.max(1, buckets);
+    }
+
+    // --- One line per screened text column of the last load ---
+    public List<String> screeningReport() {
+        return screeningReport;
+    }
+
+    // --- Screening settings of one parse ---
+    private static class Screening {
+        int dictionaryCap;          // hash mode: switch to bucket codes above this many values (0 = no cap)
+        int buckets;
+    }
+
+    // --- One parsed column of one chunk ---
+    private static class ColumnChunk {
+        byte state = EMPTY;
+        boolean forceText;          // re-parse: store everything in the dictionary
+        HyperLogLog distinct;       // screening: distinct text values of this chunk
+        int dictionaryCap;
+        int buckets;
+        boolean hashed;             // dictionary overflowed: codes are hash buckets
+        double[] numbers;           // NUMERIC: value per row, NaN = missing
+        int[] codes;                // TEXT: dictionary code per row, -1 = missing
+        List<String> values = new ArrayList<>();        // dictionary in first-appearance order
+        Map<String, Integer> lookup = new HashMap<>();
+    }
+
+    // --- One byte range of the file ---
+    private static class Chunk {
+        final long start;
+        final long end;
+        int rows;
+        ColumnChunk[] columns;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public Instances load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // 1. Header row -> attribute names
+            long[] headerEnd = new long[1];
+            List<String> names = readHeader(channel, headerEnd);
+            int numColumns = names.size();
+            if (numColumns == 0) {
+                throw new IOException("premature end of file: " + file);
+            }
+
+            // 2. Split the rest of the file into chunks on line boundaries
+            List<Chunk> chunks = splitIntoChunks(channel, headerEnd[0], size);
+
+            // 3. Parse all chunks in parallel (optimistic column types)
+            Screening screening = screening();
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(1, chunks.size())));
+            try {
+                return assemble(file, names, chunks, screening,
+                        (parse, forceText) -> runAll(pool, parse, forceText, file, numColumns, screening));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Rows already in memory (e.g. a sample of a larger file): same attribute types and
+     * values as load() of a file with the given header and these lines. The relation is
+     * named after "source".
+     */
+    public Instances loadLines(File source, List<String> names, List<byte[]> lines) throws IOException {
+        Screening screening = screening();
+        List<Chunk> chunks = new ArrayList<>();
+        chunks.add(new Chunk(0, 0));
+        return assemble(source, names, chunks, screening,
+                (parse, forceText) -> parseLines(chunks.get(0), lines, names.size(), forceText, screening));
+    }
+
+    // --- How chunks are (re-)parsed: from the file, or from lines in memory ---
+    private interface ChunkParser {
+        void parse(List<Chunk> chunks, boolean[] forceText) throws IOException;
+    }
+
+    private Screening screening() {
+        screeningReport.clear();
+        if (highCardinalityThreshold <= 0) {
+            return null;
+        }
+        Screening screening = new Screening();
+        screening.dictionaryCap = hashHighCardinality ? highCardinalityThreshold : 0;
+        screening.buckets = hashBuckets;
+        return screening;
+    }
+
+    // --- Parse, resolve the column types, re-parse where needed and build the rows ---
+    private Instances assemble(File file, List<String> names, List<Chunk> chunks, Screening screening,
+                               ChunkParser parser) throws IOException {
+        int numColumns = names.size();
+        parser.parse(chunks, null);
+
+        // 4. Decide the global type of every column, in file order like CSVLoader
+        int[] types = new int[numColumns];
+        boolean[] needsText = new boolean[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            types[c] = resolveType(chunks, c);
+            if (screening != null && types[c] == TYPE_NOMINAL) {
+                types[c] = screen(names.get(c), chunks, c);
+            }
+            needsText[c] = (types[c] != TYPE_NUMERIC);
+        }
+
+        // 5. Re-parse chunks that stored numbers for a column that turned out to be text
+        List<Chunk> reparse = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            for (int c = 0; c < numColumns; c++) {
+                byte state = chunk.columns[c].state;
+                boolean lostValues = chunk.columns[c].hashed && types[c] != TYPE_HASHED;
+                if (needsText[c] && (state == NUMERIC || state == MIXED || lostValues)) {
+                    reparse.add(chunk);
+                    break;
+                }
+            }
+        }
+        if (!reparse.isEmpty()) {
+            parser.parse(reparse, needsText);
+        }
+
+        // 6. Merge dictionaries and build the header
+        Instances data = buildHeader(file, names, types, chunks);
+
+        // 7. Assemble rows
+        int totalRows = 0;
+        for (Chunk chunk : chunks) {
+            totalRows += chunk.rows;
+        }
+        Instances result = new Instances(data, totalRows);
+        int[][] remap = mergeDictionaries(result, types, chunks);
+        int chunkIndex = 0;
+        for (Chunk chunk : chunks) {
+            addRows(result, types, chunk, remap, chunkIndex++);
+            chunk.columns = null;   // release primitive columns as we go
+        }
+        return result;
+    }
+
+    // --- Merge the chunks' HyperLogLog counters of a nominal column and decide its final type ---
+    private int screen(String name, List<Chunk> chunks, int c) {
+        HyperLogLog merged = new HyperLogLog();
+        boolean overflowed = false;
+        for (Chunk chunk : chunks) {
+            ColumnChunk column = chunk.columns[c];
+            if (column.distinct != null) {
+                merged.merge(column.distinct);
+            }
+            overflowed |= column.hashed;
+        }
+        long estimate = merged.estimate();
+        if (!overflowed && estimate <= highCardinalityThreshold) {
+            return TYPE_NOMINAL;
+        }
+        screeningReport.add(String.format("%s: ~%d distinct values -> %s", name, estimate,
+                hashHighCardinality ? "hashed into " + hashBuckets + " buckets" : "kept as string"));
+        return hashHighCardinality ? TYPE_HASHED : TYPE_STRING;
+    }
+
+    // --- Parse a list of chunks on the pool (forceText != null -> re-parse those columns as text) ---
+    private void runAll(ExecutorService pool, List<Chunk> chunks, boolean[] forceText,
+                        File file, int numColumns, Screening screening) throws IOException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            futures.add(pool.submit(() -> {
+                parseChunk(file, chunk, numColumns, forceText, screening);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("CSV parsing failed: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    // --- Read the first line and return the unquoted attribute names ---
+    private static List<String> readHeader(FileChannel channel, long[] headerEnd) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] line = new byte[0];
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                headerEnd[0] = position;
+                break;
+            }
+            int newline = -1;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            int take = (newline >= 0) ? newline : read;
+            byte[] grown = Arrays.copyOf(line, line.length + take);
+            buffer.position(0);
+            buffer.get(grown, line.length, take);
+            line = grown;
+            position += take;
+            if (newline >= 0) {
+                headerEnd[0] = position + 1;
+                break;
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        FieldCursor cursor = new FieldCursor(line, 0, line.length);
+        while (cursor.next()) {
+            names.add(cursor.text());
+        }
+        return names;
+    }
+
+    // --- Chunk boundaries: every boundary is moved forward to the start of a line ---
+    private List<Chunk> splitIntoChunks(FileChannel channel, long dataStart, long size) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long remaining = size - dataStart;
+        if (remaining <= 0) {
+            return chunks;
+        }
+        long chunkBytes = Math.max(MIN_CHUNK_BYTES, remaining / (numThreads * 4L));
+
+        long start = dataStart;
+        ByteBuffer probe = ByteBuffer.allocate(64 * 1024);
+        while (start < size) {
+            long end = Math.min(size, start + chunkBytes);
+            // move end to the byte after the next '\n'
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += read;
+            }
+            chunks.add(new Chunk(start, Math.min(end, size)));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // --- Parse one chunk into primitive columns ---
+    private static void parseChunk(File file, Chunk chunk, int numColumns, boolean[] forceText,
+                                   Screening screening) throws IOException {
+        ColumnChunk[] columns = newColumns(numColumns, forceText, screening);
+        int capacity = 1024;
+        int rows = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            byte[] carry = new byte[0];
+            long position = chunk.start;
+
+            while (position < chunk.end || carry.length > 0) {
+                byte[] block;
+                int blockLength;
+                boolean last;
+                if (position < chunk.end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(READ_BUFFER_BYTES, chunk.end - position));
+                    int read = channel.read(buffer, position);
+                    if (read <= 0) {
+                        throw new IOException("Unexpected end of file while reading " + file);
+                    }
+                    position += read;
+                    block = new byte[carry.length + read];
+                    System.arraycopy(carry, 0, block, 0, carry.length);
+                    buffer.flip();
+                    buffer.get(block, carry.length, read);
+                    blockLength = block.length;
+                    last = position >= chunk.end;
+                } else {
+                    block = carry;
+                    blockLength = carry.length;
+                    last = true;
+                }
+
+                int lineStart = 0;
+                for (int i = 0; i < blockLength; i++) {
+                    if (block[i] == '\n') {
+                        if (rows == capacity) {
+                            capacity = capacity + (capacity >> 1);
+                            grow(columns, capacity);
+                        }
+                        if (parseLine(block, lineStart, i, columns, rows, capacity)) {
+                            rows++;
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (last && lineStart < blockLength) {
+                    // final line without '\n'
+                    if (rows == capacity) {
+                        capacity = capacity + (capacity >> 1);
+                        grow(columns, capacity);
+                    }
+                    if (parseLine(block, lineStart, blockLength, columns, rows, capacity)) {
+                        rows++;
+                    }
+                    carry = new byte[0];
+                } else {
+                    carry = Arrays.copyOfRange(block, lineStart, blockLength);
+                }
+                if (last) {
+                    break;
+                }
+            }
+        }
+
+        chunk.rows = rows;
+        chunk.columns = columns;
+    }
+
+    // --- Parse lines held in memory into one chunk ---
+    private static void parseLines(Chunk chunk, List<byte[]> lines, int numColumns, boolean[] forceText,
+                                   Screening screening) throws IOException {
+        int capacity = Math.max(1, lines.size());
+        ColumnChunk[] columns = newColumns(numColumns, forceText, screening);
+        int rows = 0;
+        for (byte[] line : lines) {
+            if (parseLine(line, 0, line.length, columns, rows, capacity)) {
+                rows++;
+            }
+        }
+        chunk.rows = rows;
+        chunk.columns = columns;
+    }
+
+    private static ColumnChunk[] newColumns(int numColumns, boolean[] forceText, Screening screening) {
+        ColumnChunk[] columns = new ColumnChunk[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            columns[c] = new ColumnChunk();
+            columns[c].forceText = (forceText != null && forceText[c]);
+            if (screening != null) {
+                columns[c].distinct = new HyperLogLog();
+                columns[c].dictionaryCap = columns[c].forceText ? 0 : screening.dictionaryCap;
+                columns[c].buckets = screening.buckets;
+            }
+        }
+        return columns;
+    }
+
+    // --- Parse one line into row "row" of the columns; returns false for blank lines ---
+    private static boolean parseLine(byte[] bytes, int from, int to, ColumnChunk[] columns, int row,
+                                     int capacity) throws IOException {
+        // skip blank lines (CSVLoader ignores them as well)
+        boolean blank = true;
+        for (int i = from; i < to; i++) {
+            if ((bytes[i] & 0xFF) > ' ') {
+                blank = false;
+                break;
+            }
+        }
+        if (blank) {
+            return false;
+        }
+
+        FieldCursor cursor = new FieldCursor(bytes, from, to);
+        int c = 0;
+        while (cursor.next()) {
+            if (c >= columns.length) {
+                throw new IOException("wrong number of values. Read " + (c + 1) + ", expected " + columns.length);
+            }
+            store(columns[c], cursor, row, capacity);
+            c++;
+        }
+        if (c != columns.length) {
+            throw new IOException("wrong number of values. Read " + c + ", expected " + columns.length);
+        }
+        return true;
+    }
+
+    // --- Store one field according to the column state ---
+    private static void store(ColumnChunk column, FieldCursor cursor, int row, int capacity) {
+        boolean missing = cursor.isMissing();
+
+        if (column.forceText) {
+            ensureCodes(column, row, capacity);
+            column.codes[row] = missing ? -1 : code(column, cursor.text(), row);
+            return;
+        }
+
+        switch (column.state) {
+            case EMPTY:
+                if (missing) {
+                    return;     // arrays are filled lazily when the first value shows up
+                }
+                double number = cursor.number();
+                if (!Double.isNaN(number) || cursor.isNaNLiteral()) {
+                    column.state = NUMERIC;
+                    ensureNumbers(column, row, capacity);
+                    column.numbers[row] = number;
+                } else {
+                    column.state = TEXT;
+                    ensureCodes(column, row, capacity);
+                    column.codes[row] = code(column, cursor.text(), row);
+                }
+                return;
+
+            case NUMERIC:
+                if (missing) {
+                    column.numbers[row] = Utils.missingValue();
+                    return;
+                }
+                double value = cursor.number();
+                if (!Double.isNaN(value) || cursor.isNaNLiteral()) {
+                    column.numbers[row] = value;
+                } else {
+                    column.state = MIXED;   // CSVLoader would switch to string; re-parsed later
+                    column.numbers = null;
+                }
+                return;
+
+            case TEXT:
+                column.codes[row] = missing ? -1 : code(column, cursor.text(), row);
+                return;
+
+            default:
+                // MIXED: values are collected in the re-parse pass
+        }
+    }
+
+    private static int code(ColumnChunk column, String value, int row) {
+        if (column.distinct != null) {
+            column.distinct.add(value);
+        }
+        if (column.hashed) {
+            return Preprocessor.hashBucket(value, column.buckets);
+        }
+        Integer existing = column.lookup.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (column.dictionaryCap > 0 && column.values.size() >= column.dictionaryCap) {
+            // too many values for a dictionary: switch rows [0, row) and the rest to hash buckets
+            for (int r = 0; r < row; r++) {
+                if (column.codes[r] >= 0) {
+                    column.codes[r] = Preprocessor.hashBucket(column.values.get(column.codes[r]), column.buckets);
+                }
+            }
+            column.values = new ArrayList<>();
+            column.lookup = new HashMap<>();
+            column.hashed = true;
+            return Preprocessor.hashBucket(value, column.buckets);
+        }
+        int code = column.values.size();
+        column.values.add(value);
+        column.lookup.put(value, code);
+        return code;
+    }
+
+    private static void ensureNumbers(ColumnChunk column, int row, int capacity) {
+        if (column.numbers == null) {
+            column.numbers = new double[capacity];
+            Arrays.fill(column.numbers, 0, row, Utils.missingValue());
+        }
+    }
+
+    private static void ensureCodes(ColumnChunk column, int row, int capacity) {
+        if (column.codes == null) {
+            column.codes = new int[capacity];
+            Arrays.fill(column.codes, 0, row, -1);
+        }
+    }
+
+    private static void grow(ColumnChunk[] columns, int capacity) {
+        for (ColumnChunk column : columns) {
+            if (column.numbers != null && column.numbers.length < capacity) {
+                column.numbers = Arrays.copyOf(column.numbers, capacity);
+            }
+            if (column.codes != null && column.codes.length < capacity) {
+                column.codes = Arrays.copyOf(column.codes, capacity);
+            }
+        }
+    }
+
+    // --- Global column type, walking chunks in file order like CSVLoader's state machine ---
+    private static int resolveType(List<Chunk> chunks, int c) {
+        int type = -1;
+        for (Chunk chunk : chunks) {
+            byte state = chunk.columns[c].state;
+            if (state == EMPTY) {
+                continue;
+            }
+            if (type == -1) {
+                if (state == TEXT) {
+                    return TYPE_NOMINAL;   // first value was text: nominal for good
+                }
+                type = TYPE_NUMERIC;
+                if (state == MIXED) {
+                    return TYPE_STRING;
+                }
+            } else if (state != NUMERIC) {
+                return TYPE_STRING;         // text after numbers
+            }
+        }
+        return (type == -1) ? TYPE_STRING : type;
+    }
+
+    // --- Header with empty nominal/string attributes (filled by mergeDictionaries) ---
+    private static Instances buildHeader(File file, List<String> names, int[] types, List<Chunk> chunks) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int c = 0; c < names.size(); c++) {
+            if (types[c] == TYPE_NUMERIC) {
+                attributes.add(new Attribute(names.get(c)));
+            } else if (types[c] == TYPE_HASHED) {
+                ArrayList<String> values = new ArrayList<>();
+                for (int b = 0; b < buckets(chunks, c); b++) {
+                    values.add("h" + b);
+                }
+                attributes.add(new Attribute(names.get(c), values));
+            } else if (types[c] == TYPE_NOMINAL) {
+                // first-appearance order across chunks in file order
+                ArrayList<String> values = new ArrayList<>();
+                Map<String, Integer> seen = new HashMap<>();
+                for (Chunk chunk : chunks) {
+                    for (String value : chunk.columns[c].values) {
+                        if (seen.putIfAbsent(value, values.size()) == null) {
+                            values.add(value);
+                        }
+                    }
+                }
+                if (values.isEmpty()) {
+                    values.add("*unknown*");
+                }
+                attributes.add(new Attribute(names.get(c), values));
+            } else {
+                attributes.add(new Attribute(names.get(c), (List<String>) null));
+            }
+        }
+        String relationName = file.getName().replaceAll("\\.[cC][sS][vV]$", "");
+        return new Instances(relationName, attributes, 0);
+    }
+
+    private static int buckets(List<Chunk> chunks, int c) {
+        return chunks.isEmpty() ? 1 : chunks.get(0).columns[c].buckets;
+    }
+
+    // --- Per chunk and column: local dictionary code -> global value index ---
+    private static int[][] mergeDictionaries(Instances data, int[] types, List<Chunk> chunks) {
+        int numColumns = types.length;
+        int[][] remap = new int[chunks.size() * numColumns][];
+        for (int c = 0; c < numColumns; c++) {
+            if (types[c] == TYPE_NUMERIC) {
+                continue;
+            }
+            Attribute attr = data.attribute(c);
+            for (int k = 0; k < chunks.size(); k++) {
+                ColumnChunk column = chunks.get(k).columns[c];
+                List<String> local = column.values;
+                int[] map;
+                if (types[c] == TYPE_HASHED && column.hashed) {
+                    // codes already are bucket numbers
+                    map = new int[column.buckets];
+                    for (int b = 0; b < map.length; b++) {
+                        map[b] = b;
+                    }
+                } else {
+                    map = new int[local.size()];
+                    for (int v = 0; v < local.size(); v++) {
+                        if (types[c] == TYPE_HASHED) {
+                            map[v] = Preprocessor.hashBucket(local.get(v), column.buckets);
+                        } else if (types[c] == TYPE_NOMINAL) {
+                            map[v] = attr.indexOfValue(local.get(v));
+                        } else {
+                            map[v] = attr.addStringValue(local.get(v));
+                        }
+                    }
+                }
+                remap[k * numColumns + c] = map;
+            }
+        }
+        return remap;
+    }
+
+    private static void addRows(Instances data, int[] types, Chunk chunk, int[][] remap, int chunkIndex) {
+        int numColumns = types.length;
+        for (int r = 0; r < chunk.rows; r++) {
+            double[] values = new double[numColumns];
+            for (int c = 0; c < numColumns; c++) {
+                ColumnChunk column = chunk.columns[c];
+                if (types[c] == TYPE_NUMERIC) {
+                    values[c] = (column.numbers != null) ? column.numbers[r] : Utils.missingValue();
+                } else {
+                    int code = (column.codes != null) ? column.codes[r] : -1;
+                    values[c] = (code < 0) ? Utils.missingValue() : remap[chunkIndex * numColumns + c][code];
+                }
+            }
+            Instance instance = new DenseInstance(1.0, values);
+            data.add(instance);
+        }
+    }
+
+    /** Lines of a byte stream (without the '\n'), reusing one buffer; for one-pass scans. */
+    static class LineReader {
+        private final InputStream in;
+        byte[] bytes = new byte[4096];
+        int length;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            length = 0;
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            while (b >= 0 && b != '\n') {
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, 2 * length);
+                }
+                bytes[length++] = (byte) b;
+                b = in.read();
+            }
+            return true;
+        }
+
+        boolean isBlank() {
+            for (int i = 0; i < length; i++) {
+                if ((bytes[i] & 0xFF) > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Walks the fields of one line. Mirrors CSVLoader's tokenizer: control characters
+     * around a field are ignored, spaces are kept, " and ' enclose a field.
+     */
+    static class FieldCursor {
+        private final byte[] bytes;
+        private int position;
+        private final int end;
+        private boolean done;
+
+        int start;          // current field [start, stop)
+        int stop;
+        boolean quoted;
+
+        FieldCursor(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.position = from;
+            this.end = to;
+        }
+
+        boolean next() {
+            if (done) {
+                return false;
+            }
+            // skip leading control characters (incl. '\r' and '\t')
+            while (position < end && (bytes[position] & 0xFF) < ' ') {
+                position++;
+            }
+            quoted = false;
+            if (position < end && (bytes[position] == '"' || bytes[position] == '\'')) {
+                byte quote = bytes[position];
+                quoted = true;
+                start = position + 1;
+                int i = start;
+                while (i < end && bytes[i] != quote) {
+                    if (bytes[i] == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+                stop = Math.min(i, end);
+                position = Math.min(i + 1, end);
+                while (position < end && bytes[position] != ',') {
+                    position++;
+                }
+            } else {
+                start = position;
+                while (position < end && bytes[position] != ',') {
+                    position++;
+                }
+                stop = position;
+                while (stop > start && (bytes[stop - 1] & 0xFF) < ' ') {
+                    stop--;
+                }
+            }
+            if (position < end) {
+                position++;     // skip ','
+            } else {
+                done = true;
+            }
+            return true;
+        }
+
+        boolean isMissing() {
+            if (stop - start == 1 && bytes[start] == '?') {
+                return true;
+            }
+            for (int i = start; i < stop; i++) {
+                if (bytes[i] != ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String text() {
+            String raw = new String(bytes, start, stop - start, StandardCharsets.UTF_8);
+            return quoted ? raw.replace("\\", "") : raw;
+        }
+
+        boolean isNaNLiteral() {
+            return text().trim().equals("NaN");
+        }
+
+        /** Parsed number, or NaN if the field is not a number (Double.parseDouble semantics). */
+        double number() {
+            double fast = fastNumber();
+            if (!Double.isNaN(fast)) {
+                return fast;
+            }
+            try {
+                return Double.parseDouble(text());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        // Exact fast path for plain decimals with at most 15 significant digits:
+        // both mantissa and power of ten are exact doubles, so one division is correctly rounded.
+        private double fastNumber() {
+            int i = start;
+            boolean negative = false;
+            if (i < stop && (bytes[i] == '-' || bytes[i] == '+')) {
+                negative = bytes[i] == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = 0;
+            boolean dot = false;
+            boolean any = false;
+            for (; i < stop; i++) {
+                byte b = bytes[i];
+                if (b >= '0' && b <= '9') {
+                    any = true;
+                    if (mantissa == 0 && b == '0') {
+                        if (dot) fractionDigits++;
+                        continue;
+                    }
+                    if (++digits > 15) {
+                        return Double.NaN;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (dot) fractionDigits++;
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else {
+                    return Double.NaN;
+                }
+            }
+            if (!any || fractionDigits >= POWERS_OF_TEN.length) {
+                return Double.NaN;
+            }
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+    }
+}
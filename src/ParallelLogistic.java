@@ -0,0 +1,502 @@
+import weka.classifiers.AbstractClassifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.NominalToBinary;
+import weka.filters.unsupervised.attribute.RemoveUseless;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Multinomial logistic regression with a ridge penalty, fitting the same model as
+ * Weka's Logistic (same filters, standardization, K-1 parameter vectors with the last
+ * class as reference, ridge on all coefficients except the intercepts), so the
+ * coefficients agree within the optimizer tolerance.
+ *
+ * Rows are kept in one contiguous double array; the loss and gradient are computed in
+ * parallel over row blocks and summed in block order (results do not depend on the
+ * thread count). The optimizer is L-BFGS. With warm start, a rebuild starts from the
+ * previous coefficients instead of the null model.
+ */
+public class ParallelLogistic extends AbstractClassifier implements WeightedInstancesHandler {
+
+    private static final long serialVersionUID = 2917763958184270410L;
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int HISTORY = 10;
+
+    // Options
+    private double ridge = 1e-8;
+    private int maxIterations = -1;        // -1 = until convergence
+    private boolean warmStart = false;
+    private int numThreads = 0;            // 0 = all cores
+
+    // Model
+    private ReplaceMissingValues replaceMissing;
+    private RemoveUseless removeUseless;
+    private NominalToBinary nominalToBinary;
+    private int classIndex;
+    private int numClasses;
+    private int numPredictors;
+    private double[][] par;                // [predictor + 1][class], as Logistic.coefficients()
+    private int iterationsUsed;
+
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result = super.getCapabilities();
+        result.disableAll();
+        result.enable(Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capability.DATE_ATTRIBUTES);
+        result.enable(Capability.MISSING_VALUES);
+        result.enable(Capability.NOMINAL_CLASS);
+        result.enable(Capability.MISSING_CLASS_VALUES);
+        return result;
+    }
+
+    @Override
+    public void buildClassifier(Instances train) throws Exception {
+        getCapabilities().testWithFail(train);
+        train = new Instances(train);
+        train.deleteWithMissingClass();
+
+        replaceMissing = new ReplaceMissingValues();
+        replaceMissing.setInputFormat(train);
+        train = Filter.useFilter(train, replaceMissing);
+        removeUseless = new RemoveUseless();
+        removeUseless.setInputFormat(train);
+        train = Filter.useFilter(train, removeUseless);
+        nominalToBinary = new NominalToBinary();
+        nominalToBinary.setInputFormat(train);
+        train = Filter.useFilter(train, nominalToBinary);
+
+        double[][] previous = (warmStart && par != null
+                && par.length == train.numAttributes() && par[0].length == train.numClasses() - 1) ? par : null;
+
+        classIndex = train.classIndex();
+        numClasses = train.numClasses();
+        int nK = numClasses - 1;
+        int nR = numPredictors = train.numAttributes() - 1;
+        int n = train.numInstances();
+        int dim = nR + 1;
+
+        // 1. Rows (intercept column first), weighted means and standard deviations
+        Problem problem = new Problem();
+        problem.x = new double[n * dim];
+        problem.label = new int[n];
+        problem.weight = new double[n];
+        problem.n = n;
+        problem.dim = dim;
+        problem.nK = nK;
+        problem.ridge = ridge;
+
+        double[] mean = new double[dim];
+        double[] sd = new double[dim];
+        double[] classCount = new double[numClasses];
+        double totalWeight = 0;
+        for (int i = 0; i < n; i++) {
+            Instance current = train.instance(i);
+            problem.label[i] = (int) current.classValue();
+            problem.weight[i] = current.weight();
+            totalWeight += current.weight();
+            classCount[problem.label[i]]++;
+
+            int offset = i * dim;
+            problem.x[offset] = 1;
+            int j = 1;
+            for (int k = 0; k <= nR; k++) {
+                if (k != classIndex) {
+                    double value = current.value(k);
+                    problem.x[offset + j] = value;
+                    mean[j] += current.weight() * value;
+                    sd[j] += current.weight() * value * value;
+                    j++;
+                }
+            }
+        }
+        if (totalWeight <= 1 && n > 1) {
+            throw new Exception("Sum of weights of instances less than 1, please reweight!");
+        }
+        mean[0] = 0;
+        sd[0] = 1;
+        for (int j = 1; j < dim; j++) {
+            mean[j] = mean[j] / totalWeight;
+            sd[j] = (totalWeight > 1)
+                    ? Math.sqrt(Math.abs(sd[j] - totalWeight * mean[j] * mean[j]) / (totalWeight - 1)) : 0;
+        }
+        for (int i = 0; i < n; i++) {
+            int offset = i * dim;
+            for (int j = 1; j < dim; j++) {
+                if (sd[j] != 0) {
+                    problem.x[offset + j] = (problem.x[offset + j] - mean[j]) / sd[j];
+                }
+            }
+        }
+
+        // 2. Start: previous coefficients (warm start) or the null model
+        double[] start = new double[dim * nK];
+        for (int p = 0; p < nK; p++) {
+            int offset = p * dim;
+            if (previous != null) {
+                start[offset] = previous[0][p];
+                for (int j = 1; j < dim; j++) {
+                    double scale = (sd[j] != 0) ? sd[j] : 1;
+                    start[offset + j] = previous[j][p] * scale;
+                    if (sd[j] != 0) {
+                        start[offset] += previous[j][p] * mean[j];
+                    }
+                }
+            } else {
+                start[offset] = Math.log(classCount[p] + 1.0) - Math.log(classCount[nK] + 1.0);
+            }
+        }
+
+        // 3. L-BFGS
+        ForkJoinPool pool = (numThreads > 0) ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        double[] solution;
+        try {
+            problem.pool = pool;
+            solution = minimize(problem, start);
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+
+        // 4. Coefficients in original attribute units
+        par = new double[dim][nK];
+        for (int p = 0; p < nK; p++) {
+            par[0][p] = solution[p * dim];
+            for (int j = 1; j < dim; j++) {
+                par[j][p] = solution[p * dim + j];
+                if (sd[j] != 0) {
+                    par[j][p] /= sd[j];
+                    par[0][p] -= par[j][p] * mean[j];
+                }
+            }
+        }
+    }
+
+    // --- Data and penalty of one optimization ---
+    private static class Problem {
+        double[] x;
+        int[] label;
+        double[] weight;
+        int n;
+        int dim;
+        int nK;
+        double ridge;
+        ForkJoinPool pool;
+
+        // Negative log-likelihood + ridge; gradient written to grad
+        double evaluate(double[] par, double[] grad) throws Exception {
+            int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            double[] blockLoss = new double[blocks];
+            double[][] blockGrad = new double[blocks][];
+            pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(b -> {
+                double[] g = new double[par.length];
+                blockLoss[b] = evaluateRows(par, g, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE));
+                blockGrad[b] = g;
+            })).get();
+
+            double loss = 0;
+            Arrays.fill(grad, 0);
+            for (int b = 0; b < blocks; b++) {
+                loss += blockLoss[b];
+                for (int k = 0; k < grad.length; k++) {
+                    grad[k] += blockGrad[b][k];
+                }
+            }
+            // Ridge: intercepts not included
+            for (int p = 0; p < nK; p++) {
+                for (int r = 1; r < dim; r++) {
+                    double v = par[p * dim + r];
+                    loss += ridge * v * v;
+                    grad[p * dim + r] += 2 * ridge * v;
+                }
+            }
+            return loss;
+        }
+
+        private double evaluateRows(double[] par, double[] grad, int from, int to) {
+            double loss = 0;
+            double[] score = new double[nK];
+            for (int i = from; i < to; i++) {
+                int offset = i * dim;
+                double max = 0;   // reference class has score 0
+                for (int p = 0; p < nK; p++) {
+                    double s = 0;
+                    int base = p * dim;
+                    for (int j = 0; j < dim; j++) {
+                        s += x[offset + j] * par[base + j];
+                    }
+                    score[p] = s;
+                    max = Math.max(max, s);
+                }
+                double denom = Math.exp(-max);
+                for (int p = 0; p < nK; p++) {
+                    denom += Math.exp(score[p] - max);
+                }
+                double logDenom = max + Math.log(denom);
+                double own = (label[i] < nK) ? score[label[i]] : 0;
+                loss -= weight[i] * (own - logDenom);
+
+                for (int p = 0; p < nK; p++) {
+                    double factor = weight[i] * (Math.exp(score[p] - logDenom) - (label[i] == p ? 1 : 0));
+                    int base = p * dim;
+                    for (int j = 0; j < dim; j++) {
+                        grad[base + j] += factor * x[offset + j];
+                    }
+                }
+            }
+            return loss;
+        }
+    }
+
+    // --- Limited-memory BFGS with a backtracking (Armijo) line search ---
+    private double[] minimize(Problem problem, double[] start) throws Exception {
+        int size = start.length;
+        double[] x = start.clone();
+        double[] grad = new double[size];
+        double loss = problem.evaluate(x, grad);
+
+        double[][] s = new double[HISTORY][];
+        double[][] y = new double[HISTORY][];
+        double[] rho = new double[HISTORY];
+        int stored = 0;
+        int newest = -1;
+
+        double[] direction = new double[size];
+        double[] alpha = new double[HISTORY];
+        double[] nextX = new double[size];
+        double[] nextGrad = new double[size];
+
+        int limit = (maxIterations < 0) ? 10000 : maxIterations;
+        iterationsUsed = 0;
+        while (iterationsUsed < limit) {
+            if (norm(grad) <= 1e-6 * Math.max(1.0, norm(x))) {
+                break;
+            }
+            iterationsUsed++;
+
+            // Two-loop recursion: direction = -H * grad
+            for (int k = 0; k < size; k++) {
+                direction[k] = -grad[k];
+            }
+            for (int m = 0; m < stored; m++) {
+                int idx = Math.floorMod(newest - m, HISTORY);
+                alpha[idx] = rho[idx] * dot(s[idx], direction);
+                axpy(-alpha[idx], y[idx], direction);
+            }
+            if (stored > 0) {
+                double gamma = dot(s[newest], y[newest]) / dot(y[newest], y[newest]);
+                for (int k = 0; k < size; k++) {
+                    direction[k] *= gamma;
+                }
+            } else {
+                double scale = 1.0 / Math.max(1.0, norm(grad));
+                for (int k = 0; k < size; k++) {
+                    direction[k] *= scale;
+                }
+            }
+            for (int m = stored - 1; m >= 0; m--) {
+                int idx = Math.floorMod(newest - m, HISTORY);
+                double beta = rho[idx] * dot(y[idx], direction);
+                axpy(alpha[idx] - beta, s[idx], direction);
+            }
+
+            double slope = dot(grad, direction);
+            if (slope >= 0) {   // not a descent direction: restart from steepest descent
+                stored = 0;
+                for (int k = 0; k < size; k++) {
+                    direction[k] = -grad[k] / Math.max(1.0, norm(grad));
+                }
+                slope = dot(grad, direction);
+            }
+
+            double step = 1.0;
+            double nextLoss;
+            int tries = 0;
+            while (true) {
+                for (int k = 0; k < size; k++) {
+                    nextX[k] = x[k] + step * direction[k];
+                }
+                nextLoss = problem.evaluate(nextX, nextGrad);
+                if (nextLoss <= loss + 1e-4 * step * slope || ++tries > 50) {
+                    break;
+                }
+                step *= 0.5;
+            }
+            if (tries > 50) {
+                break;
+            }
+
+            newest = (newest + 1) % HISTORY;
+            s[newest] = new double[size];
+            y[newest] = new double[size];
+            for (int k = 0; k < size; k++) {
+                s[newest][k] = nextX[k] - x[k];
+                y[newest][k] = nextGrad[k] - grad[k];
+            }
+            double sy = dot(s[newest], y[newest]);
+            if (sy > 1e-12) {
+                rho[newest] = 1.0 / sy;
+                stored = Math.min(stored + 1, HISTORY);
+            } else {
+                newest = Math.floorMod(newest - 1, HISTORY);   // skip the update
+            }
+
+            double change = loss - nextLoss;
+            System.arraycopy(nextX, 0, x, 0, size);
+            System.arraycopy(nextGrad, 0, grad, 0, size);
+            loss = nextLoss;
+            if (change <= 1e-12 * Math.max(1.0, Math.abs(loss))) {
+                break;
+            }
+        }
+        return x;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int k = 0; k < a.length; k++) {
+            sum += a[k] * b[k];
+        }
+        return sum;
+    }
+
+    private static void axpy(double factor, double[] from, double[] to) {
+        for (int k = 0; k < to.length; k++) {
+            to[k] += factor * from[k];
+        }
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        replaceMissing.input(instance);
+        instance = replaceMissing.output();
+        removeUseless.input(instance);
+        instance = removeUseless.output();
+        nominalToBinary.input(instance);
+        instance = nominalToBinary.output();
+
+        double[] row = new double[numPredictors + 1];
+        row[0] = 1;
+        int j = 1;
+        for (int k = 0; k <= numPredictors; k++) {
+            if (k != classIndex) {
+                row[j++] = instance.value(k);
+            }
+        }
+
+        double[] v = new double[numClasses];
+        for (int p = 0; p < numClasses - 1; p++) {
+            for (int k = 0; k <= numPredictors; k++) {
+                v[p] += par[k][p] * row[k];
+            }
+        }
+        double max = v[Utils.maxIndex(v)];
+        double[] distribution = new double[numClasses];
+        for (int p = 0; p < numClasses; p++) {
+            distribution[p] = Math.exp(v[p] - max);
+        }
+        Utils.normalize(distribution);
+        return distribution;
+    }
+
+    // --- Coefficients in the layout of Logistic.coefficients(): [attribute + 1][class] ---
+    public double[][] coefficients() {
+        return par;
+    }
+
+    // ===================== OPTIONS =====================
+
+    public double getRidge() { return ridge; }
+    public void setRidge(double value) { ridge = value; }
+
+    public int getMaxIterations() { return maxIterations; }
+    public void setMaxIterations(int value) { maxIterations = value; }
+
+    public boolean getWarmStart() { return warmStart; }
+    public void setWarmStart(boolean value) { warmStart = value; }
+
+    public int getNumThreads() { return numThreads; }
+    public void setNumThreads(int value) { numThreads = value; }
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        Vector<Option> options = new Vector<>();
+        options.add(new Option("\tRidge in the log-likelihood (default 1.0e-8).", "R", 1, "-R <ridge>"));
+        options.add(new Option("\tMaximum number of iterations, -1 = until convergence (default -1).", "M", 1,
+                "-M <number>"));
+        options.add(new Option("\tStart a rebuild from the previous coefficients.", "warm-start", 0, "-warm-start"));
+        options.add(new Option("\tNumber of threads, 0 = all cores (default 0).", "num-threads", 1,
+                "-num-threads <num>"));
+        options.addAll(Collections.list(super.listOptions()));
+        return options.elements();
+    }
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String value = Utils.getOption('R', options);
+        ridge = value.isEmpty() ? 1e-8 : Double.parseDouble(value);
+        value = Utils.getOption('M', options);
+        maxIterations = value.isEmpty() ? -1 : Integer.parseInt(value);
+        warmStart = Utils.getFlag("warm-start", options);
+        value = Utils.getOption("num-threads", options);
+        numThreads = value.isEmpty() ? 0 : Integer.parseInt(value);
+        super.setOptions(options);
+        Utils.checkForRemainingOptions(options);
+    }
+
+    @Override
+    public String[] getOptions() {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-R", "" + ridge,
+                "-M", "" + maxIterations,
+                "-num-threads", "" + numThreads));
+        if (warmStart) {
+            options.add("-warm-start");
+        }
+        Collections.addAll(options, super.getOptions());
+        return options.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        if (par == null) {
+            return "ParallelLogistic: no model built yet.";
+        }
+        StringBuilder sb = new StringBuilder("Logistic Regression (parallel L-BFGS) with ridge parameter of " + ridge + "\n");
+        sb.append("Iterations: ").append(iterationsUsed).append("\nCoefficients...\n");
+        for (int j = 0; j < par.length; j++) {
+            sb.append(j == 0 ? "Intercept" : "x" + j);
+            for (int p = 0; p < par[j].length; p++) {
+                sb.append('\t').append(Utils.doubleToString(par[j][p], 4));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        runClassifier(new ParallelLogistic(), args);
+    }
+}
@@ -0,0 +1,275 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Performance history: every model run of Classifier / Evaluator / Improver (and every
+ * Pipeline stage) appends one tab-separated record to results/perf_history.tsv.
+ *
+ * Running this class prints a report that flags every (tool, model, options, dataset)
+ * whose latest run is more than a given percentage slower than the mean of its
+ * previous runs.
+ *
+ * Usage: PerfHistory [history.tsv] [--threshold=20] [--window=5]
+ */
+public class PerfHistory {
+
+    static final String DEFAULT_HISTORY = "results/perf_history.tsv";
+
+    static final String[] COLUMNS = {
+            "timestamp", "tool", "stage", "dataset", "model", "options",
+            "rows", "trainMs", "evalMs", "rowsPerSec", "peakHeapMB"
+    };
+
+    // History file used by record(); can be changed before a run
+    static File historyFile = new File(DEFAULT_HISTORY);
+
+    // Set by BatchRunner while several datasets run at once: heap pools are shared by the
+    // whole JVM, so peaks are not measured and records get the stage "<stage> (concurrent)"
+    static volatile boolean concurrent = false;
+
+    // Dataset fingerprints are computed once per Instances object
+    private static final Map<Instances, String> FINGERPRINTS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    // --- One history record ---
+    static class Record {
+        String timestamp;
+        String tool;
+        String stage;
+        String dataset;
+        String model;
+        String options;
+        long rows;
+        long trainMs;      // -1 = not measured separately
+        long evalMs;
+        double rowsPerSec;
+        double peakHeapMB;  // -1 = not measured (concurrent run)
+
+        long totalMs() {
+            return Math.max(trainMs, 0) + Math.max(evalMs, 0);
+        }
+    }
+
+    // --- Reset heap peaks so the next peakHeapBytes() covers only the following work ---
+    public static void resetPeakHeap() {
+        if (concurrent) {
+            return;     // would cut the peaks other datasets are measuring
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // --- Sum of the peak usage of all heap pools since the last reset (-1 in a concurrent run) ---
+    public static long peakHeapBytes() {
+        if (concurrent) {
+            return -1;
+        }
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+
+    // --- Short content fingerprint of a dataset (header + all values) ---
+    public static String datasetFingerprint(Instances data) {
+        String cached = FINGERPRINTS.get(data);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(new Instances(data, 0).toString().getBytes(StandardCharsets.UTF_8));
+            byte[] buffer = new byte[8];
+            for (int i = 0; i < data.numInstances(); i++) {
+                Instance row = data.instance(i);
+                for (int j = 0; j < data.numAttributes(); j++) {
+                    long bits = Double.doubleToLongBits(row.value(j));
+                    for (int b = 0; b < 8; b++) {
+                        buffer[b] = (byte) (bits >>> (8 * b));
+                    }
+                    digest.update(buffer);
+                }
+                long weight = Double.doubleToLongBits(row.weight());
+                for (int b = 0; b < 8; b++) {
+                    buffer[b] = (byte) (weight >>> (8 * b));
+                }
+                digest.update(buffer);
+            }
+            String fingerprint = Pipeline.toHex(digest.digest()).substring(0, 16);
+            FINGERPRINTS.put(data, fingerprint);
+            return fingerprint;
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    // --- Append a record for one model run (trainMs = -1 if training is part of evalMs) ---
+    public static void record(String tool, String stage, String modelName, Object model,
+                              Instances data, long trainMs, long evalMs) {
+        record(tool, stage, modelName, model, data, trainMs, evalMs, peakHeapBytes());
+    }
+
+    // --- Same, with a peak heap measured by the caller ---
+    public static void record(String tool, String stage, String modelName, Object model,
+                              Instances data, long trainMs, long evalMs, long peakHeapBytes) {
+        Record r = new Record();
+        r.timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        r.tool = tool;
+        r.stage = concurrent ? stage + " (concurrent)" : stage;
+        r.dataset = (data != null) ? datasetFingerprint(data) : "-";
+        r.model = modelName;
+        r.options = (model instanceof OptionHandler)
+                ? (model.getClass().getSimpleName() + " " + Utils.joinOptions(((OptionHandler) model).getOptions())).trim()
+                : (model != null ? model.getClass().getSimpleName() : "-");
+        r.rows = (data != null) ? data.numInstances() : 0;
+        r.trainMs = trainMs;
+        r.evalMs = evalMs;
+        r.rowsPerSec = (r.totalMs() > 0) ? r.rows * 1000.0 / r.totalMs() : 0;
+        r.peakHeapMB = (concurrent || peakHeapBytes < 0) ? -1 : peakHeapBytes / (1024.0 * 1024.0);
+        append(r);
+    }
+
+    private static synchronized void append(Record r) {
+        try {
+            File parent = historyFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            boolean newFile = !historyFile.exists() || historyFile.length() == 0;
+            try (PrintWriter out = new PrintWriter(new FileWriter(historyFile, true))) {
+                if (newFile) {
+                    out.println(String.join("\t", COLUMNS));
+                }
+                out.println(String.join("\t",
+                        r.timestamp, clean(r.tool), clean(r.stage), r.dataset, clean(r.model), clean(r.options),
+                        Long.toString(r.rows), Long.toString(r.trainMs), Long.toString(r.evalMs),
+                        String.format(Locale.ROOT, "%.1f", r.rowsPerSec), String.format(Locale.ROOT, "%.1f", r.peakHeapMB)));
+            }
+        } catch (IOException e) {
+            // History is best effort; never fail a run because of it
+            System.err.println("[PerfHistory] Could not write " + historyFile + ": " + e.getMessage());
+        }
+    }
+
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // --- Read all records of a history file ---
+    static List<Record> read(File file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line = in.readLine();   // header
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                if (f.length < COLUMNS.length) {
+                    continue;
+                }
+                Record r = new Record();
+                r.timestamp = f[0];
+                r.tool = f[1];
+                r.stage = f[2];
+                r.dataset = f[3];
+                r.model = f[4];
+                r.options = f[5];
+                r.rows = Long.parseLong(f[6]);
+                r.trainMs = Long.parseLong(f[7]);
+                r.evalMs = Long.parseLong(f[8]);
+                r.rowsPerSec = Double.parseDouble(f[9]);
+                r.peakHeapMB = Double.parseDouble(f[10]);
+                records.add(r);
+            }
+        }
+        return records;
+    }
+
+    // --- Regression report: latest run vs. mean of up to "window" previous runs ---
+    public static int report(File file, double thresholdPercent, int window) throws IOException {
+        List<Record> records = read(file);
+
+        Map<String, List<Record>> groups = new LinkedHashMap<>();
+        for (Record r : records) {
+            String key = r.tool + " | " + r.stage + " | " + r.model + " | " + r.options + " | " + r.dataset;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(r);
+        }
+
+        System.out.println("=".repeat(110));
+        System.out.printf("=== PERFORMANCE HISTORY REPORT (%d records, threshold %.1f%%, window %d) ===%n",
+                records.size(), thresholdPercent, window);
+        System.out.println("=".repeat(110));
+        System.out.printf("%-12s | %-8s | %-35s | %-16s | %-4s | %10s | %10s | %8s | %s%n",
+                "Tool", "Stage", "Model", "Dataset", "Runs", "Latest ms", "Base ms", "Change", "Status");
+        System.out.println("-".repeat(110));
+
+        int regressions = 0;
+        for (List<Record> runs : groups.values()) {
+            Record latest = runs.get(runs.size() - 1);
+            int from = Math.max(0, runs.size() - 1 - window);
+            List<Record> previous = runs.subList(from, runs.size() - 1);
+
+            String baseText = "-";
+            String changeText = "-";
+            String status = "baseline only";
+            if (!previous.isEmpty()) {
+                double baseline = previous.stream().mapToLong(Record::totalMs).average().orElse(0);
+                double change = (baseline > 0) ? (latest.totalMs() - baseline) / baseline * 100.0 : 0;
+                baseText = String.format("%.0f", baseline);
+                changeText = String.format("%+.1f%%", change);
+                if (change > thresholdPercent) {
+                    status = "REGRESSION";
+                    regressions++;
+                } else {
+                    status = "ok";
+                }
+            }
+            System.out.printf("%-12s | %-8s | %-35s | %-16s | %-4d | %10d | %10s | %8s | %s%n",
+                    latest.tool, latest.stage, latest.model, latest.dataset, runs.size(),
+                    latest.totalMs(), baseText, changeText, status);
+        }
+        System.out.println("-".repeat(110));
+        System.out.printf("Regressions (> %.1f%% slower than rolling baseline): %d%n", thresholdPercent, regressions);
+        return regressions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String path = CommandLine.positional(args, 0, DEFAULT_HISTORY);
+        double threshold = CommandLine.doubleOption(args, "threshold", 20.0);
+        int window = CommandLine.intOption(args, "window", 5);
+
+        File file = new File(path);
+        if (!file.exists()) {
+            System.out.println("No performance history found at " + path);
+            return;
+        }
+        report(file, threshold, window);
+    }
+}
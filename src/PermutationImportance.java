@@ -0,0 +1,243 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Permutation feature importance of a trained classifier on held-out data: the drop
+ * in accuracy when one attribute's values are shuffled across the rows.
+ *
+ * The test rows are copied once into columns, and the baseline predictions are made
+ * once and cached. A task (attribute, repeat) rebuilds each row in a reusable buffer
+ * with the shuffled column swapped in; rows whose shuffled value equals the original
+ * reuse the cached prediction. Tasks run on a thread pool, each thread scoring with
+ * its own copy of the model (Weka classifiers are not thread-safe in general).
+ */
+public class PermutationImportance {
+
+    /** Importance of one attribute: mean and standard deviation of the accuracy drop. */
+    public static class Score {
+        public final String attribute;
+        public final double mean;
+        public final double std;
+
+        Score(String attribute, double mean, double std) {
+            this.attribute = attribute;
+            this.mean = mean;
+            this.std = std;
+        }
+    }
+
+    private final int repeats;
+    private final int numThreads;
+    private final long seed;
+
+    // Timing and counters of the last compute()
+    private double baselineAccuracy;
+    private long baselineMillis;
+    private long permutedMillis;
+    private long predictions;
+    private long reused;
+
+    public PermutationImportance(int repeats, int numThreads, long seed) {
+        this.repeats = Math.max(1, repeats);
+        this.numThreads = Math.max(1, numThreads);
+        this.seed = seed;
+    }
+
+    // --- Importance of every non-class attribute, most important first ---
+    public List<Score> compute(Classifier model, Instances test) throws Exception {
+        int n = test.numInstances();
+        int m = test.numAttributes();
+        int classIndex = test.classIndex();
+        Instances header = new Instances(test, 0);
+
+        // STEP 1: columnar copy, shared read-only by all tasks
+        double[][] columns = new double[m][n];
+        double[] actual = new double[n];
+        for (int i = 0; i < n; i++) {
+            Instance row = test.instance(i);
+            for (int j = 0; j < m; j++) {
+                columns[j][i] = row.value(j);
+            }
+            actual[i] = row.classValue();
+        }
+
+        // STEP 2: baseline predictions, made once
+        long start = System.nanoTime();
+        double[] baseline = new double[n];
+        int correct = 0;
+        for (int i = 0; i < n; i++) {
+            baseline[i] = model.classifyInstance(test.instance(i));
+            correct += (baseline[i] == actual[i]) ? 1 : 0;
+        }
+        baselineAccuracy = (double) correct / n;
+        baselineMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // STEP 3: one task per (attribute, repeat)
+        List<Integer> attributes = new ArrayList<>();
+        for (int j = 0; j < m; j++) {
+            if (j != classIndex) {
+                attributes.add(j);
+            }
+        }
+        AtomicBoolean originalTaken = new AtomicBoolean();
+        ThreadLocal<Classifier> models = ThreadLocal.withInitial(() -> {
+            if (model instanceof CompactForest || originalTaken.compareAndSet(false, true)) {
+                return model;   // thread-safe, or the first thread (the caller does not use it while we run)
+            }
+            try {
+                return AbstractClassifier.makeCopy(model);
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot copy the classifier: " + e.getMessage(), e);
+            }
+        });
+        AtomicLong predicted = new AtomicLong();
+        AtomicLong skipped = new AtomicLong();
+
+        start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        double[][] accuracy = new double[attributes.size()][repeats];
+        try {
+            List<Future<Double>> futures = new ArrayList<>();
+            for (int a = 0; a < attributes.size(); a++) {
+                for (int r = 0; r < repeats; r++) {
+                    int attribute = attributes.get(a);
+                    long taskSeed = seed + (long) attribute * repeats + r;
+                    futures.add(pool.submit(() -> permutedAccuracy(models.get(), header, columns, actual,
+                            baseline, attribute, new Random(taskSeed), predicted, skipped)));
+                }
+            }
+            for (int a = 0; a < attributes.size(); a++) {
+                for (int r = 0; r < repeats; r++) {
+                    accuracy[a][r] = futures.get(a * repeats + r).get();
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new Exception("Permutation task failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        permutedMillis = (System.nanoTime() - start) / 1_000_000;
+        predictions = predicted.get();
+        reused = skipped.get();
+
+        // STEP 4: mean and standard deviation of the accuracy drop
+        List<Score> scores = new ArrayList<>();
+        for (int a = 0; a < attributes.size(); a++) {
+            double sum = 0, sumSq = 0;
+            for (int r = 0; r < repeats; r++) {
+                double drop = baselineAccuracy - accuracy[a][r];
+                sum += drop;
+                sumSq += drop * drop;
+            }
+            double mean = sum / repeats;
+            double variance = (repeats > 1) ? Math.max(0, (sumSq - repeats * mean * mean) / (repeats - 1)) : 0;
+            scores.add(new Score(test.attribute(attributes.get(a)).name(), mean, Math.sqrt(variance)));
+        }
+        scores.sort(Comparator.comparingDouble((Score s) -> -s.mean));
+        return scores;
+    }
+
+    // --- Accuracy with one column shuffled (rows built in a reusable buffer) ---
+    private static double permutedAccuracy(Classifier model, Instances header, double[][] columns,
+                                           double[] actual, double[] baseline, int attribute,
+                                           Random random, AtomicLong predicted, AtomicLong skipped)
+            throws Exception {
+        int n = actual.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int k = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[k];
+            order[k] = t;
+        }
+
+        double[] values = new double[columns.length];
+        Instance row = new DenseInstance(1.0, values);   // wraps "values", no copy
+        row.setDataset(header);
+        double[] column = columns[attribute];
+        int correct = 0;
+        long made = 0;
+        for (int i = 0; i < n; i++) {
+            double prediction;
+            if (Double.compare(column[order[i]], column[i]) == 0) {
+                prediction = baseline[i];   // same value (or both missing): same prediction
+            } else {
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = columns[j][i];
+                }
+                values[attribute] = column[order[i]];
+                prediction = model.classifyInstance(row);
+                made++;
+            }
+            correct += (prediction == actual[i]) ? 1 : 0;
+        }
+        predicted.addAndGet(made);
+        skipped.addAndGet(n - made);
+        return (double) correct / n;
+    }
+
+    // --- Ranked table plus timing of the last compute() ---
+    public void printReport(List<Score> scores, String modelName, int maxRows) {
+        System.out.println("\n=== Permutation Feature Importance: " + modelName + " ===");
+        System.out.printf("Baseline accuracy: %.4f%% (scored once in %d ms)%n", 100 * baselineAccuracy, baselineMillis);
+        System.out.printf("%-32s %12s %10s%n", "Attribute", "Drop (pts)", "Std");
+        for (int k = 0; k < Math.min(maxRows, scores.size()); k++) {
+            Score s = scores.get(k);
+            System.out.printf("%-32s %12.4f %10.4f%n", s.attribute, 100 * s.mean, 100 * s.std);
+        }
+        if (scores.size() > maxRows) {
+            System.out.printf("... %d more attribute(s)%n", scores.size() - maxRows);
+        }
+        System.out.printf("Permutations: %d attributes x %d repeats on %d thread(s) in %d ms%n",
+                scores.size(), repeats, numThreads, permutedMillis);
+        System.out.printf("Predictions: %,d made, %,d reused from the baseline%n", predictions, reused);
+    }
+
+    // --- MAIN: importance of a saved model on an ARFF file ---
+    //     Usage: PermutationImportance <test.arff> <model file (.model or .cforest)> [--repeats=5] [--threads=N] [--top=N]
+    public static void main(String[] args) throws Exception {
+        if (CommandLine.positional(args).size() < 2) {
+            System.err.println("Usage: PermutationImportance <test.arff> <model file (.model or .cforest)>"
+                    + " [--repeats=5] [--threads=N] [--top=N]");
+            System.exit(2);
+        }
+        String dataPath = CommandLine.positional(args, 0, null);
+        String modelPath = CommandLine.positional(args, 1, null);
+        int repeats = CommandLine.intOption(args, "repeats", 5);
+        int threads = CommandLine.intOption(args, "threads", Runtime.getRuntime().availableProcessors());
+        int top = CommandLine.intOption(args, "top", Integer.MAX_VALUE);
+
+        Instances data = DataSource.read(dataPath);
+        if (data.classIndex() == -1) {
+            data.setClassIndex(data.numAttributes() - 1);
+        }
+        Classifier model = modelPath.endsWith(".cforest")
+                ? CompactForest.open(new File(modelPath))
+                : (Classifier) SerializationHelper.read(modelPath);
+
+        System.out.println("=== PERMUTATION IMPORTANCE ===");
+        System.out.printf("Data: %s (%d rows), model: %s%n", dataPath, data.numInstances(), modelPath);
+        PermutationImportance importance = new PermutationImportance(repeats, threads, 1);
+        importance.printReport(importance.compute(model, data), model.getClass().getSimpleName(), top);
+    }
+}
@@ -0,0 +1,273 @@
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the selected stages (preprocess, classify, evaluate, improve) in one JVM.
+ * The preprocessed Instances are handed from stage to stage in memory instead of being
+ * written and re-parsed by every tool. Downstream stages always get the values as
+ * written to the ARFF (rounded to 6 decimals), whether preprocessing ran or was skipped,
+ * because their fingerprint is the hash of that file.
+ *
+ * Each stage is fingerprinted (SHA-256 of its input file and options). When the
+ * fingerprint matches the last successful run, the stage is skipped and its saved
+ * report is replayed. State lives in results/pipeline/.
+ *
+ * Usage: Pipeline [input.csv] [output.arff] [--stages=preprocess,classify,evaluate,improve]
+ *                 [--force] [Preprocessor options]
+ */
+public class Pipeline {
+
+    static final List<String> ALL_STAGES = Arrays.asList("preprocess", "classify", "evaluate", "improve");
+
+    // Bump when a stage changes in a way that invalidates old results
+    private static final String PIPELINE_VERSION = "1";
+
+    private static final File STATE_DIR = new File("results", "pipeline");
+    private static final File STATE_FILE = new File(STATE_DIR, "state.properties");
+
+    public static void main(String[] args) throws Exception {
+        String inputCsv = CommandLine.positional(args, 0, "datasets/heart_disease.csv");
+        String outputArff = CommandLine.positional(args, 1, Preprocessor.defaultOutputPath(inputCsv));
+        List<String> stages = Arrays.asList(
+                CommandLine.option(args, "stages", String.join(",", ALL_STAGES)).split(","));
+        boolean force = CommandLine.flag(args, "force");
+        Preprocessor.Options options = Preprocessor.parseOptions(args);
+
+        for (String stage : stages) {
+            if (!ALL_STAGES.contains(stage)) {
+                throw new IllegalArgumentException("Unknown stage '" + stage + "', expected one of " + ALL_STAGES);
+            }
+        }
+
+        printLine();
+        System.out.println("=== PIPELINE RUNNER ===");
+        printLine();
+        System.out.println("Input CSV  : " + inputCsv);
+        System.out.println("Output ARFF: " + outputArff);
+        System.out.println("Stages     : " + String.join(" -> ", stages));
+
+        run(inputCsv, outputArff, stages, options, force);
+    }
+
+    public static void run(String inputCsv, String outputArff, List<String> stages,
+                           Preprocessor.Options options, boolean force) throws Exception {
+        Properties state = loadState();
+        Instances data = null;
+        long start = System.currentTimeMillis();
+
+        // STAGE: preprocess (input = CSV content + options)
+        if (stages.contains("preprocess")) {
+            String fingerprint = fingerprint("preprocess",
+                    sha256(new File(inputCsv)), Preprocessor.describeOptions(options), outputArff);
+            if (!force && isUpToDate(state, "preprocess", fingerprint) && new File(outputArff).exists()) {
+                replay("preprocess", fingerprint);
+            } else {
+                final Instances[] result = new Instances[1];
+                runStage("preprocess", null, () -> result[0] = Preprocessor.preprocessData(inputCsv, outputArff, options));
+                // Same values as a skipped run reads back from the ARFF (at most 6 decimals)
+                data = result[0];
+                FastArffWriter.roundAsWritten(data);
+                data.setClassIndex(data.numAttributes() - 1);
+                state.setProperty("preprocess", fingerprint);
+                saveState(state);
+            }
+        }
+
+        // Downstream stages depend only on the preprocessed ARFF, so they run with the tool defaults
+        Classifier.resetOptions();
+        Evaluator.resetOptions();
+        Improver.resetOptions();
+        String arffFingerprint = null;
+        for (String stage : Arrays.asList("classify", "evaluate", "improve")) {
+            if (!stages.contains(stage)) {
+                continue;
+            }
+            if (arffFingerprint == null) {
+                arffFingerprint = sha256(new File(outputArff));
+            }
+            String fingerprint = fingerprint(stage, arffFingerprint);
+            if (!force && isUpToDate(state, stage, fingerprint)) {
+                replay(stage, fingerprint);
+                continue;
+            }
+
+            // Load the ARFF at most once, and only if preprocessing was skipped
+            if (data == null) {
+                System.out.println("\n[Pipeline] Loading " + outputArff);
+                data = DatasetCache.read(outputArff);
+                data.setClassIndex(data.numAttributes() - 1);
+            }
+
+            final Instances stageData = data;
+            switch (stage) {
+                case "classify":
+                    runStage(stage, stageData, () -> Classifier.run(stageData));
+                    break;
+                case "evaluate":
+                    runStage(stage, stageData, () -> Evaluator.run(stageData));
+                    break;
+                default:
+                    runStage(stage, stageData, () -> Improver.run(stageData));
+                    break;
+            }
+            state.setProperty(stage, fingerprint);
+            saveState(state);
+        }
+
+        System.out.println();
+        printLine();
+        System.out.printf("[Pipeline] Completed in %d ms%n", System.currentTimeMillis() - start);
+        printLine();
+    }
+
+    private static void printLine() {
+        System.out.println("======================================================================");
+    }
+
+    // --- A stage body that may throw ---
+    interface Stage {
+        void run() throws Exception;
+    }
+
+    // --- Run a stage while copying its console output to results/pipeline/<stage>.txt ---
+    private static void runStage(String stage, Instances data, Stage body) throws Exception {
+        System.out.println();
+        System.out.println("[Pipeline] Running stage: " + stage);
+
+        if (!STATE_DIR.exists() && !STATE_DIR.mkdirs()) {
+            throw new IOException("Cannot create " + STATE_DIR);
+        }
+        File report = new File(STATE_DIR, stage + ".txt");
+        File partial = new File(STATE_DIR, stage + ".txt.tmp");
+
+        PrintStream original = System.out;
+        PerfHistory.resetPeakHeap();
+        long start = System.currentTimeMillis();
+        try (OutputStream file = new FileOutputStream(partial)) {
+            PrintStream tee = new PrintStream(new TeeOutputStream(original, file), true, "UTF-8");
+            System.setOut(tee);
+            try {
+                body.run();
+            } finally {
+                tee.flush();
+                System.setOut(original);
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Files.move(partial.toPath(), report.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        PerfHistory.record("Pipeline", stage, stage, null, data, -1, elapsed);
+        System.out.printf("[Pipeline] Stage %s finished in %d ms%n", stage, elapsed);
+    }
+
+    // --- Print the saved report of a skipped stage ---
+    private static void replay(String stage, String fingerprint) throws IOException {
+        System.out.println();
+        System.out.printf("[Pipeline] Stage %s unchanged (fingerprint %s), skipping.%n",
+                stage, fingerprint.substring(0, 12));
+        File report = new File(STATE_DIR, stage + ".txt");
+        if (report.exists()) {
+            System.out.println("[Pipeline] Saved report of the last run:");
+            System.out.print(new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean isUpToDate(Properties state, String stage, String fingerprint) {
+        return fingerprint.equals(state.getProperty(stage));
+    }
+
+    private static Properties loadState() throws IOException {
+        Properties state = new Properties();
+        if (STATE_FILE.exists()) {
+            try (FileReader reader = new FileReader(STATE_FILE)) {
+                state.load(reader);
+            }
+        }
+        return state;
+    }
+
+    private static void saveState(Properties state) throws IOException {
+        if (!STATE_DIR.exists() && !STATE_DIR.mkdirs()) {
+            throw new IOException("Cannot create " + STATE_DIR);
+        }
+        try (FileWriter writer = new FileWriter(STATE_FILE)) {
+            state.store(writer, "Pipeline stage fingerprints");
+        }
+    }
+
+    // --- Fingerprint of a stage from its name and inputs ---
+    static String fingerprint(String stage, String... inputs) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(("v" + PIPELINE_VERSION + "|" + stage).getBytes(StandardCharsets.UTF_8));
+        for (String input : inputs) {
+            digest.update((byte) '|');
+            digest.update(input.getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(digest.digest());
+    }
+
+    // --- SHA-256 of a file's content ---
+    static String sha256(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    // --- Writes everything to two streams (console + report file) ---
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream first;
+        private final OutputStream second;
+
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.NominalToBinary;
+import weka.filters.unsupervised.attribute.Remove;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Training statistics of one Preprocessor run, saved next to the ARFF as
+ * "<output>.model", so that new batches get exactly the same transformation:
+ * zero-as-missing attributes, fill values, scaling parameters and the fitted
+ * encoding filters. Duplicate removal is not replayed (every new row is kept).
+ * It also holds a profile of the raw training values, the reference for DriftMonitor.
+ *
+ * New batches are matched to the training header by attribute name; unknown nominal
+ * values and unparseable numbers become missing (and are then filled), a missing
+ * class column is left missing.
+ */
+public class PreprocessingModel implements Serializable {
+
+    private static final long serialVersionUID = 4183355460147902861L;
+
+    String options;                     // Preprocessor.describeOptions of the training run
+    Instances header;                   // loaded data (class converted), before any step
+    boolean[] zeroAsMissing;
+    double[] fillValues;                // NaN = not filled (class attribute)
+    double[] offset;                    // numeric x -> (x - offset) / scale
+    double[] scale;                     // 0 = constant column, set to 0
+    Remove removeHighCardinality;       // fitted, null when nothing was removed
+    NominalToBinary nominalToBinary;    // fitted, null when there was nothing to convert
+    int sparseHashBuckets;              // > 0: sparse hashing encoding instead of the filters
+    int[] loaderHashBuckets;            // > 0: column hashed by the loader (--high-card=hash)
+    DriftMonitor.Profile trainingProfile;   // raw value distributions, null in models saved before it existed
+
+    PreprocessingModel(Instances data, Preprocessor.Options options) {
+        this.options = Preprocessor.describeOptions(options);
+        this.header = new Instances(data, 0);
+        int n = data.numAttributes();
+        loaderHashBuckets = new int[n];
+        if (options.highCardinality.equals("hash")) {
+            for (int j = 0; j < n; j++) {
+                if (isHashedByLoader(data.attribute(j), options.hashBuckets)) {
+                    loaderHashBuckets[j] = options.hashBuckets;
+                }
+            }
+        }
+        zeroAsMissing = new boolean[n];
+        fillValues = new double[n];
+        Arrays.fill(fillValues, Double.NaN);
+        offset = new double[n];
+        scale = new double[n];
+        Arrays.fill(scale, 1.0);
+    }
+
+    // --- ParallelCsvLoader's hashed columns are nominal with exactly the values h0..hN-1 ---
+    private static boolean isHashedByLoader(Attribute attr, int buckets) {
+        if (!attr.isNominal() || attr.numValues() != buckets) {
+            return false;
+        }
+        for (int b = 0; b < buckets; b++) {
+            if (!attr.value(b).equals("h" + b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static PreprocessingModel load(File file) throws Exception {
+        return (PreprocessingModel) SerializationHelper.read(file.getPath());
+    }
+
+    public void save(File file) throws Exception {
+        SerializationHelper.write(file.getPath(), this);
+    }
+
+    public Instances header() {
+        return header;
+    }
+
+    // --- Transform a raw batch (as loaded from CSV) like the training data ---
+    public Instances apply(Instances raw) throws Exception {
+        return transform(conform(raw));
+    }
+
+    // --- Replay the training steps on rows already in the training header (modified in place) ---
+    public Instances transform(Instances data) throws Exception {
+        int classIndex = data.classIndex();
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance row = data.instance(i);
+            for (int j = 0; j < data.numAttributes(); j++) {
+                if (j == classIndex) {
+                    continue;
+                }
+                if (zeroAsMissing[j] && !row.isMissing(j) && row.value(j) == 0.0) {
+                    row.setMissing(j);
+                }
+                if (row.isMissing(j) && !Double.isNaN(fillValues[j])) {
+                    row.setValue(j, fillValues[j]);
+                }
+                if (data.attribute(j).isNumeric() && !row.isMissing(j)) {
+                    row.setValue(j, scale[j] == 0 ? 0.0 : (row.value(j) - offset[j]) / scale[j]);
+                }
+            }
+        }
+
+        if (sparseHashBuckets > 0) {
+            return Preprocessor.convertCategoricalToSparseHashed(data, sparseHashBuckets);
+        }
+        if (removeHighCardinality != null) {
+            data = Filter.useFilter(data, removeHighCardinality);
+        }
+        if (nominalToBinary != null) {
+            data = Filter.useFilter(data, nominalToBinary);
+        }
+        return data;
+    }
+
+    // --- Empty data set in the training header (fresh string attributes) ---
+    public Instances newBatch() {
+        return header.stringFreeStructure();
+    }
+
+    // --- Map a raw batch onto the training header by attribute name ---
+    public Instances conform(Instances raw) {
+        Instances data = newBatch();
+        conform(raw, data);
+        return data;
+    }
+
+    // --- Same, appending the rows to "data" (from newBatch) ---
+    public void conform(Instances raw, Instances data) {
+        int[] source = new int[header.numAttributes()];
+        int matched = 0;
+        for (int j = 0; j < header.numAttributes(); j++) {
+            Attribute attr = raw.attribute(header.attribute(j).name());
+            source[j] = (attr == null) ? -1 : attr.index();
+            matched += (attr == null) ? 0 : 1;
+        }
+        if (matched == 0) {
+            throw new IllegalArgumentException("no column matches the training header");
+        }
+
+        for (int i = 0; i < raw.numInstances(); i++) {
+            Instance in = raw.instance(i);
+            double[] values = new double[header.numAttributes()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = (source[j] < 0 || in.isMissing(source[j]))
+                        ? Utils.missingValue()
+                        : convert(in, raw.attribute(source[j]), data.attribute(j), loaderHashBuckets[j]);
+            }
+            data.add(new DenseInstance(in.weight(), values));
+        }
+    }
+
+    private static double convert(Instance in, Attribute from, Attribute to, int hashBuckets) {
+        double value = in.value(from);
+        if (to.isNumeric()) {
+            if (from.isNumeric()) {
+                return value;
+            }
+            try {
+                return Double.parseDouble(in.stringValue(from));
+            } catch (NumberFormatException e) {
+                return Utils.missingValue();
+            }
+        }
+        String text = from.isNumeric() ? Utils.doubleToString(value, 6) : in.stringValue(from);
+        if (hashBuckets > 0) {
+            return Preprocessor.hashBucket(text, hashBuckets);
+        }
+        if (to.isString()) {
+            return to.addStringValue(text);
+        }
+        return nominalIndex(to, text, from.isNumeric() ? value : Double.NaN);
+    }
+
+    // --- Index of a value of nominal attribute "to", missing if unknown; "number" (NaN = none)
+    //     is also compared as a number, for a class converted with NumericToNominal ("1.0" vs "1") ---
+    static double nominalIndex(Attribute to, String text, double number) {
+        int index = to.indexOfValue(text);
+        if (index < 0 && !Double.isNaN(number)) {
+            for (int v = 0; v < to.numValues(); v++) {
+                try {
+                    if (Double.parseDouble(to.value(v)) == number) {
+                        return v;
+                    }
+                } catch (NumberFormatException e) {
+                    // not a number, keep looking
+                }
+            }
+        }
+        return (index < 0) ? Utils.missingValue() : index;
+    }
+}
@@ -1,7 +1,9 @@
 import weka.core.Instances;
 import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.SparseInstance;
+import weka.core.Utils;
 import weka.core.converters.CSVLoader;
-import weka.core.converters.ArffSaver;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.NominalToBinary;
 import weka.filters.unsupervised.attribute.NumericToNominal;
@@ -10,17 +12,93 @@ import weka.filters.unsupervised.attribute.Remove;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 public class Preprocessor {
 
+    // Nominal attributes with more values than this are not binary-expanded
+    static final int MAX_VALUES_FOR_BINARY = 50;
+
+    // Rows per chunk when quantile sketches are built in parallel
+    static final int SKETCH_CHUNK_ROWS = 65536;
+
+    // Optional preprocessing modes (defaults reproduce the original pipeline)
+    static class Options {
+        // Keep high-cardinality nominals through feature hashing and write a sparse ARFF
+        boolean sparseHashing = false;
+        // Number of hash buckets per high-cardinality attribute
+        int hashBuckets = 32;
+        // Load with Weka's single-threaded CSVLoader instead of ParallelCsvLoader
+        boolean useCsvLoader = false;
+        // Numeric imputation: "mean" or "median" (quantile sketch)
+        String imputation = "mean";
+        // Numeric scaling: "minmax" to [0, 1] or "robust" ((x - median) / IQR, quantile sketch)
+        String scaling = "minmax";
+        // High-cardinality screening while loading (HyperLogLog, ParallelCsvLoader only):
+        // "off", "string" (keep as raw strings) or "hash" (hashBuckets nominal buckets)
+        String highCardinality = "off";
+        // Keep duplicate rows as one row weighted by their count instead of removing them
+        boolean collapseDuplicates = false;
+        // Load only a class-stratified reservoir sample of this many rows (0 = whole file)
+        int sampleSize = 0;
+        // Sample: classes below this share are raised to it (0 = proportional)
+        double minorityRatio = 0;
+    }
+
     public static String preprocess(String inputCsvPath, String outputArffPath) throws Exception {
+        return preprocess(inputCsvPath, outputArffPath, new Options());
+    }
 
-        // load CSV
-        CSVLoader loader = new CSVLoader();
-        loader.setSource(new File(inputCsvPath));
-        Instances data = loader.getDataSet();
+    public static String preprocess(String inputCsvPath, String outputArffPath, Options options) throws Exception {
+        preprocessData(inputCsvPath, outputArffPath, options);
+        return outputArffPath;
+    }
+
+    // Runs all steps, writes the ARFF and returns the preprocessed data (class index set)
+    public static Instances preprocessData(String inputCsvPath, String outputArffPath, Options options) throws Exception {
+        MemoryProfiler profiler = new MemoryProfiler("Preprocessor");
+
+        // load CSV (parallel chunked parser; same Instances header as CSVLoader)
+        profiler.start("Load CSV");
+        Instances data;
+        if (options.useCsvLoader) {
+            data = DatasetCache.load(new File(inputCsvPath), "csvloader", file -> {
+                CSVLoader loader = new CSVLoader();
+                loader.setSource(file);
+                return loader.getDataSet();
+            });
+        } else {
+            ParallelCsvLoader loader = new ParallelCsvLoader();
+            if (!options.highCardinality.equals("off")) {
+                loader.setHighCardinality(MAX_VALUES_FOR_BINARY, options.highCardinality.equals("hash"), options.hashBuckets);
+            }
+            String kind = options.highCardinality.equals("off")
+                    ? "parallel" : "parallel|" + options.highCardinality + "|" + options.hashBuckets;
+            if (options.sampleSize > 0) {
+                // single pass over the file, only the sample is ever held in memory
+                ReservoirSampler sampler = new ReservoirSampler(options.sampleSize, options.minorityRatio, 1);
+                kind += "|sample|" + options.sampleSize + "|" + options.minorityRatio;
+                boolean[] sampled = new boolean[1];
+                data = DatasetCache.load(new File(inputCsvPath), kind, file -> {
+                    sampled[0] = true;
+                    return sampler.load(file, loader);
+                });
+                if (sampled[0]) {
+                    sampler.printReport();
+                } else {
+                    System.out.println("Sample of " + data.numInstances() + " rows reused from the dataset cache");
+                }
+            } else {
+                data = DatasetCache.load(new File(inputCsvPath), kind, loader::load);
+            }
+            printScreeningReport(loader, options);
+        }
+        profiler.stop();
 
         // set class attribute to last column
         if (data.classIndex() == -1) {
@@ -32,6 +110,7 @@ public class Preprocessor {
             System.out.println("=== CLASS ATTRIBUTE IS NUMERIC: CONVERTING TO NOMINAL ===");
             System.out.println("Class attribute name: " + data.classAttribute().name());
 
+            profiler.start("Class numeric to nominal");
             NumericToNominal num2nom = new NumericToNominal();
             // Weka uses 1-based indices for filters; "last" = class
             num2nom.setAttributeIndices("" + (data.classIndex() + 1));
@@ -40,6 +119,7 @@ public class Preprocessor {
 
             // Re-set class index (since data reference changed)
             data.setClassIndex(data.numAttributes() - 1);
+            profiler.stop();
 
             System.out.println("Class attribute converted to nominal.");
         }
@@ -52,45 +132,106 @@ public class Preprocessor {
         System.out.println("=== BEFORE CLEANING ===");
         printMissingAndZeroReport(data);
 
+        // Training statistics of every step, replayed on new batches (WatchFolderIngest)
+        PreprocessingModel model = new PreprocessingModel(data, options);
+
+        // Raw value distributions, the reference for drift checks of new batches (DriftMonitor)
+        profiler.start("Training profile");
+        model.trainingProfile = DriftMonitor.Profile.of(data, model.loaderHashBuckets);
+        profiler.stop();
+
         // STEP 1: handle suspicious zeros by marking them as missing
-        handleZeroAsMissing(data);
+        profiler.start("STEP 1: Zero as missing");
+        handleZeroAsMissing(data, model);
+        profiler.stop();
 
         // print Missing and Zero values report (AFTER zero->missing)
         System.out.println();
         System.out.println("=== AFTER ZERO TO MISSING HANDLING ===");
         printMissingAndZeroReport(data);
 
-        // STEP 2: Remove duplicates
-        data = removeDuplicates(data);
+        // STEP 2: Remove duplicates (or collapse them into weighted rows)
+        if (options.collapseDuplicates) {
+            profiler.start("STEP 2: Collapse duplicates");
+            data = collapseDuplicates(data, "raw rows");
+        } else {
+            profiler.start("STEP 2: Remove duplicates");
+            data = removeDuplicates(data);
+        }
+        profiler.stop();
 
         // STEP 3: Fill missing values
-        fillMissingValues(data);
+        profiler.start("STEP 3: Fill missing values");
+        fillMissingValues(data, options, model);
+        profiler.stop();
 
         // Print report again after filling
         printMissingAndZeroReport(data);
 
         // STEP 4: Normalize numeric attributes
         System.out.println();
-        normalizeNumericAttributes(data);
+        profiler.start("STEP 4: Normalize");
+        if (options.scaling.equals("robust")) {
+            robustScaleNumericAttributes(data, model);
+        } else {
+            normalizeNumericAttributes(data, model);
+        }
+        profiler.stop();
         System.out.println("=== NORMALIZATION COMPLETED ===");
 
-        // STEP 5: Convert categorical to numerical (safe version)
-        data = convertCategoricalToNumerical(data);
+        // STEP 5: Convert categorical to numerical (safe version, or sparse hashing)
+        profiler.start("STEP 5: Categorical to numerical");
+        if (options.sparseHashing) {
+            data = convertCategoricalToSparseHashed(data, options.hashBuckets);
+            model.sparseHashBuckets = options.hashBuckets;
+        } else {
+            data = convertCategoricalToNumerical(data, model);
+        }
+        profiler.stop();
+
+        // STEP 6: rows that only became identical through imputation or encoding
+        if (options.collapseDuplicates) {
+            profiler.start("STEP 6: Collapse duplicates");
+            data = collapseDuplicates(data, "after preprocessing");
+            profiler.stop();
+        }
 
         // Final status report
-        printFinalStatusReport(data);
+        printFinalStatusReport(data, options);
 
-        // save to ARFF
-        ArffSaver saver = new ArffSaver();
-        saver.setInstances(data);
-        saver.setFile(new File(outputArffPath));
-        saver.writeBatch();
+        // save to ARFF (parallel row formatting, same bytes as ArffSaver; gzip for *.gz)
+        profiler.start("Save ARFF");
+        new FastArffWriter().write(data, new File(outputArffPath));
+        profiler.stop();
 
         System.out.println();
         System.out.println("=== ARFF file saved ===");
         System.out.println("Output ARFF: " + outputArffPath);
 
-        return outputArffPath;
+        // save the training statistics next to the ARFF
+        model.save(new File(outputArffPath + ".model"));
+        System.out.println("Preprocessing model: " + outputArffPath + ".model");
+
+        // Memory used by every step (console + results/memory_profile.tsv)
+        profiler.printReport();
+        profiler.writeTsv(new File(inputCsvPath).getName());
+
+        return data;
+    }
+
+    // --- High-cardinality screening done by the loader (nothing printed when it is off) ---
+    private static void printScreeningReport(ParallelCsvLoader loader, Options options) {
+        if (options.highCardinality.equals("off")) {
+            return;
+        }
+        System.out.println();
+        System.out.println("=== HIGH-CARDINALITY SCREENING (HyperLogLog, threshold " + MAX_VALUES_FOR_BINARY + ") ===");
+        if (loader.screeningReport().isEmpty()) {
+            System.out.println("No text column above the threshold (or the data set came from the cache).");
+        }
+        for (String line : loader.screeningReport()) {
+            System.out.println("  - " + line);
+        }
     }
 
     // --- Dataset summary ---
@@ -142,7 +283,7 @@ public class Preprocessor {
     // Works in two modes:
     // 1) If this looks like the heart_disease dataset -> use specific medical attributes.
     // 2) Otherwise -> generic heuristic for any dataset.
-    private static void handleZeroAsMissing(Instances data) {
+    private static void handleZeroAsMissing(Instances data, PreprocessingModel model) {
         System.out.println();
         System.out.println("=== HANDLING ZERO VALUES AS MISSING FOR SELECTED ATTRIBUTES ===");
 
@@ -204,6 +345,7 @@ public class Preprocessor {
         for (int j : selectedAttrIndices) {
             Attribute attr = data.attribute(j);
             int replacedForThisAttr = 0;
+            model.zeroAsMissing[j] = true;
 
             for (int i = 0; i < data.numInstances(); i++) {
                 if (!data.instance(i).isMissing(j)) {
@@ -241,9 +383,75 @@ public class Preprocessor {
         return uniqueData;
     }
 
+    // --- STEP: Collapse identical rows into one row whose weight is their total weight ---
+    //     (class distribution and row counts are kept, as weights, and first-seen order too)
+    static Instances collapseDuplicates(Instances data, String stage) {
+        System.out.println();
+        System.out.println("=== COLLAPSING DUPLICATE ROWS (" + stage + ") ===");
+        int originalSize = data.numInstances();
+
+        Map<RowKey, Instance> firstSeen = new HashMap<>();
+        Instances collapsed = new Instances(data, originalSize);
+        double maxWeight = 0;
+        for (Instance row : data) {
+            RowKey key = new RowKey(row.toDoubleArray());
+            Instance first = firstSeen.get(key);
+            if (first == null) {
+                collapsed.add(row);
+                firstSeen.put(key, collapsed.lastInstance());
+                maxWeight = Math.max(maxWeight, row.weight());
+            } else {
+                first.setWeight(first.weight() + row.weight());
+                maxWeight = Math.max(maxWeight, first.weight());
+            }
+        }
+        collapsed.compactify();
+
+        System.out.printf("Original instances: %d%n", originalSize);
+        System.out.printf("Distinct instances: %d%n", collapsed.numInstances());
+        System.out.printf("Duplicates collapsed: %d (total weight %.0f, largest weight %.0f)%n",
+                originalSize - collapsed.numInstances(), collapsed.sumOfWeights(), maxWeight);
+        return collapsed;
+    }
+
+    // --- Helper: all values of a row as a hash key (missing values are equal to each other) ---
+    private static final class RowKey {
+        private final double[] values;
+        private final int hash;
+
+        RowKey(double[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RowKey && hash == ((RowKey) other).hash
+                    && Arrays.equals(values, ((RowKey) other).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // --- Rows and the number of original rows they stand for (null when no row is weighted) ---
+    static String describeWeights(Instances data) {
+        for (Instance row : data) {
+            if (row.weight() != 1.0) {
+                return String.format("%d weighted rows standing for %.0f", data.numInstances(), data.sumOfWeights());
+            }
+        }
+        return null;
+    }
+
     // --- STEP: Fill missing values ---
-    private static void fillMissingValues(Instances data) {
-        System.out.println("=== FILLING MISSING VALUES (Mean for numeric, Mode for nominal) ===");
+    private static void fillMissingValues(Instances data, Options options, PreprocessingModel model) {
+        boolean median = options.imputation.equals("median");
+        System.out.println(median
+                ? "=== FILLING MISSING VALUES (Median for numeric, Mode for nominal) ==="
+                : "=== FILLING MISSING VALUES (Mean for numeric, Mode for nominal) ===");
 
         int totalFilled = 0;
 
@@ -254,7 +462,25 @@ public class Preprocessor {
             if (j == data.classIndex())
                 continue;
 
-            if (attr.isNumeric()) {
+            if (attr.isNumeric() && median) {
+                // Median from a quantile sketch (one pass, bounded memory)
+                KllSketch sketch = columnSketch(data, j);
+                double medianValue = (sketch.count() > 0) ? sketch.quantile(0.5) : 0;
+                model.fillValues[j] = medianValue;
+
+                int filledForAttr = 0;
+                for (int i = 0; i < data.numInstances(); i++) {
+                    if (data.instance(i).isMissing(j)) {
+                        data.instance(i).setValue(j, medianValue);
+                        filledForAttr++;
+                    }
+                }
+
+                System.out.printf("Numeric attribute %-20s | Filled: %4d | Median used: %.4f%n",
+                        attr.name(), filledForAttr, medianValue);
+                totalFilled += filledForAttr;
+
+            } else if (attr.isNumeric()) {
                 // Compute mean
                 double sum = 0;
                 int count = 0;
@@ -267,6 +493,7 @@ public class Preprocessor {
                 }
 
                 double mean = (count > 0) ? sum / count : 0;
+                model.fillValues[j] = mean;
 
                 int filledForAttr = 0;
                 for (int i = 0; i < data.numInstances(); i++) {
@@ -298,6 +525,7 @@ public class Preprocessor {
                         modeIndex = k;
                     }
                 }
+                model.fillValues[j] = modeIndex;
 
                 int filledForAttr = 0;
                 for (int i = 0; i < data.numInstances(); i++) {
@@ -317,7 +545,7 @@ public class Preprocessor {
     }
 
     // --- STEP: normalize numeric attributes to [0, 1] ---
-    private static void normalizeNumericAttributes(Instances data) {
+    private static void normalizeNumericAttributes(Instances data, PreprocessingModel model) {
         System.out.println("=== NORMALIZING NUMERIC ATTRIBUTES TO [0, 1] ===");
 
         for (int j = 0; j < data.numAttributes(); j++) {
@@ -342,6 +570,7 @@ public class Preprocessor {
 
             // Avoid divide by zero: if all values are same, set them to 0
             if (min == max) {
+                model.scale[j] = 0;
                 System.out.printf("Attribute %-20s has constant value %.4f; setting all to 0.0%n",
                         attr.name(), min);
                 for (int i = 0; i < data.numInstances(); i++) {
@@ -351,6 +580,8 @@ public class Preprocessor {
             }
 
             // 2. Apply min-max normalization
+            model.offset[j] = min;
+            model.scale[j] = max - min;
             for (int i = 0; i < data.numInstances(); i++) {
                 double oldVal = data.instance(i).value(j);
                 double newVal = (oldVal - min) / (max - min); // in [0, 1]
@@ -362,16 +593,67 @@ public class Preprocessor {
         }
     }
 
+    // --- STEP: robust scaling of numeric attributes: (x - median) / IQR ---
+    private static void robustScaleNumericAttributes(Instances data, PreprocessingModel model) {
+        System.out.println("=== ROBUST SCALING OF NUMERIC ATTRIBUTES ((x - median) / IQR) ===");
+
+        for (int j = 0; j < data.numAttributes(); j++) {
+            Attribute attr = data.attribute(j);
+
+            // Skip non-numeric attributes and class attribute
+            if (!attr.isNumeric() || j == data.classIndex()) {
+                continue;
+            }
+
+            KllSketch sketch = columnSketch(data, j);
+            double median = sketch.quantile(0.5);
+            double iqr = sketch.quantile(0.75) - sketch.quantile(0.25);
+
+            // Constant middle half (e.g. mostly zeros): only center the values
+            double scale = (iqr > 0) ? iqr : 1.0;
+            model.offset[j] = median;
+            model.scale[j] = scale;
+            for (int i = 0; i < data.numInstances(); i++) {
+                double oldVal = data.instance(i).value(j);
+                data.instance(i).setValue(j, (oldVal - median) / scale);
+            }
+
+            System.out.printf("Attribute %-20s scaled using median=%.4f, IQR=%.4f%s%n",
+                    attr.name(), median, iqr, (iqr > 0) ? "" : " (IQR is 0: centered only)");
+        }
+    }
+
+    // --- Helper: quantile sketch of a numeric column, built on row chunks in parallel and merged ---
+    static KllSketch columnSketch(Instances data, int attIndex) {
+        int n = data.numInstances();
+        int chunks = Math.max(1, (n + SKETCH_CHUNK_ROWS - 1) / SKETCH_CHUNK_ROWS);
+        KllSketch[] partial = new KllSketch[chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            KllSketch sketch = new KllSketch(KllSketch.DEFAULT_K, c + 1);
+            int end = Math.min(n, (c + 1) * SKETCH_CHUNK_ROWS);
+            for (int i = c * SKETCH_CHUNK_ROWS; i < end; i++) {
+                sketch.update(data.instance(i).value(attIndex));   // missing (NaN) is skipped
+            }
+            partial[c] = sketch;
+        });
+
+        // merge in chunk order so the result does not depend on thread scheduling
+        KllSketch merged = partial[0];
+        for (int c = 1; c < chunks; c++) {
+            merged.merge(partial[c]);
+        }
+        return merged;
+    }
+
     // --- STEP: Convert categorical (nominal) attributes to numerical ---
     //          Safe version that avoids OutOfMemory by removing huge-cardinality attributes
-    private static Instances convertCategoricalToNumerical(Instances data) throws Exception {
+    private static Instances convertCategoricalToNumerical(Instances data, PreprocessingModel model) throws Exception {
         System.out.println();
         System.out.println("=== CONVERTING CATEGORICAL TO NUMERICAL (Binary Encoding) ===");
 
         // 1. Log nominal attributes and detect high-cardinality ones
         System.out.println("=== NOMINAL ATTRIBUTES (excluding class) ===");
         int classIndex = data.classIndex();
-        int MAX_VALUES_FOR_BINARY = 50;   // threshold; tune if needed
 
         ArrayList<Integer> highCardinalityIndices = new ArrayList<>();
 
@@ -384,6 +666,10 @@ public class Preprocessor {
                 if (numValues > MAX_VALUES_FOR_BINARY) {
                     highCardinalityIndices.add(j);
                 }
+            } else if (attr.isString() && j != classIndex) {
+                // raw-string columns from high-cardinality screening cannot be binarized either
+                System.out.printf("  - %s | index=%d | string%n", attr.name(), j);
+                highCardinalityIndices.add(j);
             }
         }
 
@@ -419,6 +705,7 @@ public class Preprocessor {
             removeFilter.setInvertSelection(false);
             removeFilter.setInputFormat(workingData);
             workingData = Filter.useFilter(workingData, removeFilter);
+            model.removeHighCardinality = removeFilter;
 
             // Re-set class index (last attribute)
             if (workingData.classIndex() == -1) {
@@ -446,6 +733,7 @@ public class Preprocessor {
         NominalToBinary nominalToBinary = new NominalToBinary();
         nominalToBinary.setInputFormat(workingData);
         Instances transformedData = Filter.useFilter(workingData, nominalToBinary);
+        model.nominalToBinary = nominalToBinary;
 
         System.out.printf("Attributes before conversion: %d%n", workingData.numAttributes());
         System.out.printf("Attributes after conversion: %d%n", transformedData.numAttributes());
@@ -454,8 +742,121 @@ public class Preprocessor {
         return transformedData;
     }
 
+    // --- STEP: Convert categorical attributes to a sparse binary encoding ---
+    //          Low-cardinality nominals are one-hot encoded like NominalToBinary,
+    //          high-cardinality nominals (and strings) are hashed into a fixed number of buckets.
+    //          Rows are stored as SparseInstance, so memory and ARFF size follow the non-zero count.
+    static Instances convertCategoricalToSparseHashed(Instances data, int numBuckets) throws Exception {
+        System.out.println();
+        System.out.printf("=== CONVERTING CATEGORICAL TO NUMERICAL (Sparse Binary + Hashing, %d buckets) ===%n",
+                numBuckets);
+
+        int classIndex = data.classIndex();
+
+        // 1. Build the output header and remember where each input attribute starts
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        int[] firstOutputIndex = new int[data.numAttributes()];
+        boolean[] hashed = new boolean[data.numAttributes()];
+        int newClassIndex = -1;
+        int hashedCount = 0;
+
+        for (int j = 0; j < data.numAttributes(); j++) {
+            Attribute attr = data.attribute(j);
+            firstOutputIndex[j] = attributes.size();
+
+            if (j == classIndex) {
+                newClassIndex = attributes.size();
+                attributes.add(attr.copy(attr.name()));
+            } else if (attr.isNumeric()) {
+                attributes.add(new Attribute(attr.name()));
+            } else if (attr.isNominal() && attr.numValues() <= MAX_VALUES_FOR_BINARY) {
+                if (attr.numValues() <= 2) {
+                    // Same naming as NominalToBinary: one column for the second value
+                    String value = (attr.numValues() == 2) ? attr.value(1) : attr.value(0);
+                    attributes.add(new Attribute(attr.name() + "=" + value));
+                } else {
+                    for (int v = 0; v < attr.numValues(); v++) {
+                        attributes.add(new Attribute(attr.name() + "=" + attr.value(v)));
+                    }
+                }
+            } else if (attr.isNominal() || attr.isString()) {
+                hashed[j] = true;
+                hashedCount++;
+                for (int b = 0; b < numBuckets; b++) {
+                    attributes.add(new Attribute(attr.name() + "#h" + b));
+                }
+                System.out.printf("  - %s | numValues=%d -> hashed into %d buckets%n",
+                        attr.name(), attr.numValues(), numBuckets);
+            } else {
+                System.out.printf("  - %s | unsupported type, skipped%n", attr.name());
+                firstOutputIndex[j] = -1;
+            }
+        }
+
+        Instances transformed = new Instances(
+                data.relationName() + "-sparse-hashing-B" + numBuckets, attributes, data.numInstances());
+        transformed.setClassIndex(newClassIndex);
+
+        // 2. Convert every row into a SparseInstance holding only non-zero values
+        int[] indices = new int[data.numAttributes()];
+        double[] values = new double[data.numAttributes()];
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance row = data.instance(i);
+            int nonZero = 0;
+
+            for (int j = 0; j < data.numAttributes(); j++) {
+                int target = firstOutputIndex[j];
+                if (target < 0) continue;
+
+                Attribute attr = data.attribute(j);
+                double value = row.value(j);
+
+                if (row.isMissing(j)) {
+                    // Missing values are kept; for expanded attributes mark the first column
+                    indices[nonZero] = target;
+                    values[nonZero++] = Utils.missingValue();
+                } else if (j == classIndex || attr.isNumeric()) {
+                    if (value != 0.0) {
+                        indices[nonZero] = target;
+                        values[nonZero++] = value;
+                    }
+                } else if (hashed[j]) {
+                    indices[nonZero] = target + hashBucket(row.stringValue(j), numBuckets);
+                    values[nonZero++] = 1.0;
+                } else if (attr.numValues() <= 2) {
+                    if ((int) value == 1) {
+                        indices[nonZero] = target;
+                        values[nonZero++] = 1.0;
+                    }
+                } else {
+                    indices[nonZero] = target + (int) value;
+                    values[nonZero++] = 1.0;
+                }
+            }
+
+            SparseInstance sparse = new SparseInstance(row.weight(),
+                    Arrays.copyOf(values, nonZero), Arrays.copyOf(indices, nonZero),
+                    transformed.numAttributes());
+            sparse.setDataset(transformed);
+            transformed.add(sparse);
+        }
+
+        System.out.printf("Hashed attributes: %d%n", hashedCount);
+        System.out.printf("Attributes before conversion: %d%n", data.numAttributes());
+        System.out.printf("Attributes after conversion: %d%n", transformed.numAttributes());
+        System.out.println("Categorical attributes have been converted to sparse binary (0/1) format.");
+
+        return transformed;
+    }
+
+    // --- Helper: stable bucket for a categorical value (String.hashCode is fixed by the JLS) ---
+    static int hashBucket(String value, int numBuckets) {
+        return Math.floorMod(value.hashCode(), numBuckets);
+    }
+
     // --- Final comprehensive status report ---
-    private static void printFinalStatusReport(Instances data) {
+    private static void printFinalStatusReport(Instances data, Options options) {
         System.out.println();
         System.out.println("======================================================================");
         System.out.println("=== FINAL PREPROCESSING STATUS REPORT ===");
@@ -478,7 +879,14 @@ public class Preprocessor {
         System.out.printf("   - Total missing values: %d %n", totalMissing);
 
         System.out.println("\n3. DUPLICATES:");
-        System.out.println("   - All duplicate rows have been removed.");
+        if (options.collapseDuplicates) {
+            String weights = describeWeights(data);
+            System.out.println((weights != null)
+                    ? "   - Duplicate rows collapsed into weighted rows: " + weights + "."
+                    : "   - No duplicate rows found: every row has weight 1.");
+        } else {
+            System.out.println("   - All duplicate rows have been removed.");
+        }
 
         System.out.println("\n4. ATTRIBUTE TYPES:");
         int numericCount = 0;
@@ -494,24 +902,100 @@ public class Preprocessor {
         System.out.printf("   - Nominal attributes: %d (including class)%n", nominalCount);
 
         System.out.println("\n5. NORMALIZATION:");
-        System.out.println("   - All numeric attributes normalized to [0, 1].");
+        if (options.scaling.equals("robust")) {
+            System.out.println("   - All numeric attributes robust-scaled: (x - median) / IQR.");
+        } else {
+            System.out.println("   - All numeric attributes normalized to [0, 1].");
+        }
 
         System.out.println("\n6. CATEGORICAL CONVERSION:");
-        System.out.println("   - Categorical attributes converted to numerical (binary) where applicable.");
+        if (options.sparseHashing) {
+            System.out.println("   - Categorical attributes converted to sparse binary, high-cardinality ones hashed into "
+                    + options.hashBuckets + " buckets.");
+        } else {
+            System.out.println("   - Categorical attributes converted to numerical (binary) where applicable.");
+        }
 
         System.out.println("\n======================================================================");
         System.out.println(" ALL PREPROCESSING STEPS COMPLETED SUCCESSFULLY");
         System.out.println("======================================================================");
     }
 
+    // --- Optional modes from "--flag" / "--name=value" arguments ---
+    static Options parseOptions(String[] args) {
+        Options options = new Options();
+        options.sparseHashing = CommandLine.flag(args, "sparse-hashing");
+        options.hashBuckets = CommandLine.intOption(args, "hash-buckets", options.hashBuckets);
+        options.useCsvLoader = CommandLine.flag(args, "csvloader");
+        options.imputation = CommandLine.option(args, "impute", options.imputation);
+        options.scaling = CommandLine.option(args, "scale", options.scaling);
+        options.highCardinality = CommandLine.option(args, "high-card", options.highCardinality);
+        options.collapseDuplicates = CommandLine.flag(args, "collapse-duplicates");
+        options.sampleSize = CommandLine.intOption(args, "sample", 0);
+        options.minorityRatio = CommandLine.doubleOption(args, "minority-ratio", 0);
+        if (options.hashBuckets < 1) {
+            throw new IllegalArgumentException("--hash-buckets must be at least 1: " + options.hashBuckets);
+        }
+        if (!options.imputation.equals("mean") && !options.imputation.equals("median")) {
+            throw new IllegalArgumentException("--impute must be mean or median: " + options.imputation);
+        }
+        if (!options.scaling.equals("minmax") && !options.scaling.equals("robust")) {
+            throw new IllegalArgumentException("--scale must be minmax or robust: " + options.scaling);
+        }
+        if (!options.highCardinality.equals("off") && !options.highCardinality.equals("string")
+                && !options.highCardinality.equals("hash")) {
+            throw new IllegalArgumentException("--high-card must be off, string or hash: " + options.highCardinality);
+        }
+        if (!options.highCardinality.equals("off") && options.useCsvLoader) {
+            throw new IllegalArgumentException("--high-card needs the parallel loader (drop --csvloader)");
+        }
+        if (options.sampleSize < 0 || options.minorityRatio < 0 || options.minorityRatio >= 1) {
+            throw new IllegalArgumentException("--sample must be positive and --minority-ratio in [0, 1)");
+        }
+        if (options.minorityRatio > 0 && options.sampleSize == 0) {
+            throw new IllegalArgumentException("--minority-ratio needs --sample=N");
+        }
+        if (options.sampleSize > 0 && options.useCsvLoader) {
+            throw new IllegalArgumentException("--sample needs the parallel loader (drop --csvloader)");
+        }
+        return options;
+    }
+
+    // --- Options as a stable string (used to fingerprint pipeline runs) ---
+    static String describeOptions(Options options) {
+        return "sparseHashing=" + options.sparseHashing
+                + ";hashBuckets=" + options.hashBuckets
+                + ";useCsvLoader=" + options.useCsvLoader
+                + ";imputation=" + options.imputation
+                + ";scaling=" + options.scaling
+                + ";highCardinality=" + options.highCardinality
+                + (options.collapseDuplicates ? ";collapseDuplicates=true" : "")    // older fingerprints stay valid
+                + (options.sampleSize > 0 ? ";sample=" + options.sampleSize + ";minorityRatio=" + options.minorityRatio : "");
+    }
+
+    // --- Default ARFF path next to the CSV ---
+    static String defaultOutputPath(String inputCsv) {
+        File inputFile = new File(inputCsv);
+        String parent = inputFile.getParent(); // may be null for relative
+        String baseName = inputFile.getName().replaceAll("\\.csv$", ""); // remove .csv
+
+        if (parent != null) {
+            return parent + File.separator + baseName + ".arff";
+        }
+        return baseName + ".arff";
+    }
+
     // --- MAIN: handles absolute + relative paths, and auto ARFF naming ---
+    //     Usage: Preprocessor [input.csv] [output.arff] [--sparse-hashing] [--hash-buckets=N] [--csvloader]
+    //                         [--impute=mean|median] [--scale=minmax|robust] [--high-card=string|hash]
+    //                         [--collapse-duplicates] [--sample=N [--minority-ratio=r]]
     public static void main(String[] args) throws Exception {
 
         // 1. Input CSV: from args or default
         String inputCsv;
-        if (args.length > 0) {
+        if (CommandLine.positional(args).size() > 0) {
             // User gave an absolute or relative CSV path
-            inputCsv = args[0];
+            inputCsv = CommandLine.positional(args, 0, null);
         } else {
             // Default dataset in project
             inputCsv = "datasets/heart_disease.csv";
@@ -519,27 +1003,39 @@ public class Preprocessor {
 
         // 2. Output ARFF: from args or auto-generate next to CSV
         String outputArff;
-        if (args.length > 1) {
+        if (CommandLine.positional(args).size() > 1) {
             // User specified ARFF path
-            outputArff = args[1];
+            outputArff = CommandLine.positional(args, 1, null);
         } else {
             // Auto-generate ARFF in same folder as CSV
-            File inputFile = new File(inputCsv);
-            String parent = inputFile.getParent(); // may be null for relative
-            String baseName = inputFile.getName().replaceAll("\\.csv$", ""); // remove .csv
-
-            if (parent != null) {
-                outputArff = parent + File.separator + baseName + ".arff";
-            } else {
-                outputArff = baseName + ".arff";
-            }
+            outputArff = defaultOutputPath(inputCsv);
         }
 
-        // 3. Print for clarity
+        // 3. Optional modes
+        Options options = parseOptions(args);
+
+        // 4. Print for clarity
         System.out.println("Input CSV:  " + inputCsv);
         System.out.println("Output ARFF: " + outputArff);
+        if (options.sparseHashing) {
+            System.out.println("Encoding:    sparse binary + hashing (" + options.hashBuckets + " buckets)");
+        }
+        if (!options.imputation.equals("mean") || !options.scaling.equals("minmax")) {
+            System.out.println("Numeric:     " + options.imputation + " imputation, " + options.scaling + " scaling");
+        }
+
+        if (!options.highCardinality.equals("off")) {
+            System.out.println("Screening:   high-cardinality text columns -> " + options.highCardinality);
+        }
+        if (options.collapseDuplicates) {
+            System.out.println("Duplicates:  collapsed into weighted rows");
+        }
+        if (options.sampleSize > 0) {
+            System.out.println("Sample:      " + options.sampleSize + " rows, stratified by class"
+                    + (options.minorityRatio > 0 ? ", minority classes raised to " + options.minorityRatio : ""));
+        }
 
-        // 4. Run preprocessing
-        preprocess(inputCsv, outputArff);
+        // 5. Run preprocessing
+        preprocess(inputCsv, outputArff, options);
     }
 }
@@ -0,0 +1,304 @@
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fixed-size, class-stratified sample of a CSV file of any size, in one pass.
+ *
+ * Every class (last column, like Preprocessor) gets its own reservoir (Algorithm R) of
+ * at most sampleSize raw lines, so memory is bounded by sampleSize lines per class no
+ * matter how large the file is. After the pass the sample is split between the classes
+ * in proportion to their counts; with a minority ratio r, every class below that share
+ * is raised to r of the sample (e.g. r = 0.5 turns an 80/20 file into a 50/50 sample)
+ * and the other classes share the rest. A class with fewer rows than its share is taken
+ * completely (rows are not duplicated) and its spare slots go to the other classes.
+ *
+ * The chosen lines keep their file order and are parsed with ParallelCsvLoader.loadLines,
+ * so attribute types and values are those of loading a file with just these lines.
+ */
+public class ReservoirSampler {
+
+    static final String MISSING_CLASS = "?";
+
+    private final int sampleSize;
+    private final double minorityRatio;     // 0 = proportional
+    private final long seed;
+
+    // Filled by sample(): class -> rows in the file / rows in the sample
+    private final Map<String, Long> classCounts = new LinkedHashMap<>();
+    private final Map<String, Integer> sampledCounts = new LinkedHashMap<>();
+    private long rowsRead = 0;
+    private long millis = 0;
+
+    public ReservoirSampler(int sampleSize, double minorityRatio, long seed) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("sample size must be positive: " + sampleSize);
+        }
+        if (minorityRatio < 0 || minorityRatio >= 1) {
+            throw new IllegalArgumentException("minority ratio must be in [0, 1): " + minorityRatio);
+        }
+        this.sampleSize = sampleSize;
+        this.minorityRatio = minorityRatio;
+        this.seed = seed;
+    }
+
+    // --- One class: line numbers and raw lines kept so far ---
+    private static class Reservoir {
+        long seen;
+        int size;
+        long[] lineNumbers = new long[16];
+        byte[][] lines = new byte[16][];
+
+        void put(int slot, long lineNumber, byte[] line) {
+            if (slot == lines.length) {
+                lines = Arrays.copyOf(lines, 2 * slot);
+                lineNumbers = Arrays.copyOf(lineNumbers, 2 * slot);
+            }
+            lines[slot] = line;
+            lineNumbers[slot] = lineNumber;
+        }
+    }
+
+    /** Header names and the sampled lines (file order). */
+    public static class Sample {
+        public final List<String> names;
+        public final List<byte[]> lines;
+
+        Sample(List<String> names, List<byte[]> lines) {
+            this.names = names;
+            this.lines = lines;
+        }
+    }
+
+    // --- Sample the file and parse it like ParallelCsvLoader.load would ---
+    public Instances load(File csv, ParallelCsvLoader loader) throws IOException {
+        Sample sample = sample(csv);
+        return loader.loadLines(csv, sample.names, sample.lines);
+    }
+
+    // --- One pass over the file: per-class reservoirs, then the class shares ---
+    public Sample sample(File csv) throws IOException {
+        long start = System.currentTimeMillis();
+        classCounts.clear();
+        sampledCounts.clear();
+        rowsRead = 0;
+        Random random = new Random(seed);
+        Map<String, Reservoir> reservoirs = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(csv), 1 << 16)) {
+            ParallelCsvLoader.LineReader lines = new ParallelCsvLoader.LineReader(in);
+            if (!lines.next()) {
+                throw new IOException("premature end of file: " + csv);
+            }
+            ParallelCsvLoader.FieldCursor cursor = new ParallelCsvLoader.FieldCursor(lines.bytes, 0, lines.length);
+            while (cursor.next()) {
+                names.add(cursor.text());
+            }
+            int classColumn = names.size() - 1;
+
+            while (lines.next()) {
+                if (lines.isBlank()) {
+                    continue;
+                }
+                String label = classOf(lines.bytes, lines.length, classColumn);
+                Reservoir reservoir = reservoirs.computeIfAbsent(label, k -> new Reservoir());
+                long seen = reservoir.seen++;
+                if (reservoir.size < sampleSize) {
+                    reservoir.put(reservoir.size++, rowsRead, Arrays.copyOf(lines.bytes, lines.length));
+                } else {
+                    long slot = (long) (random.nextDouble() * (seen + 1));
+                    if (slot < sampleSize) {
+                        reservoir.put((int) slot, rowsRead, Arrays.copyOf(lines.bytes, lines.length));
+                    }
+                }
+                rowsRead++;
+            }
+        }
+
+        // Shares per class, then a random subset of each reservoir (still uniform within the class)
+        List<String> labels = new ArrayList<>(reservoirs.keySet());
+        long[] counts = new long[labels.size()];
+        for (int k = 0; k < counts.length; k++) {
+            counts[k] = reservoirs.get(labels.get(k)).seen;
+            classCounts.put(labels.get(k), counts[k]);
+        }
+        int[] quotas = quotas(counts, (int) Math.min(sampleSize, rowsRead), minorityRatio);
+
+        List<long[]> chosen = new ArrayList<>();     // {line number, class, slot}
+        for (int k = 0; k < labels.size(); k++) {
+            Reservoir reservoir = reservoirs.get(labels.get(k));
+            int[] slots = new int[reservoir.size];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = i;
+            }
+            for (int i = 0; i < quotas[k]; i++) {   // partial Fisher-Yates shuffle
+                int j = i + random.nextInt(slots.length - i);
+                int swap = slots[i];
+                slots[i] = slots[j];
+                slots[j] = swap;
+                chosen.add(new long[]{reservoir.lineNumbers[slots[i]], k, slots[i]});
+            }
+            sampledCounts.put(labels.get(k), quotas[k]);
+        }
+        chosen.sort((a, b) -> Long.compare(a[0], b[0]));
+        List<byte[]> sampled = new ArrayList<>(chosen.size());
+        for (long[] row : chosen) {
+            sampled.add(reservoirs.get(labels.get((int) row[1])).lines[(int) row[2]]);
+        }
+        millis = System.currentTimeMillis() - start;
+        return new Sample(names, sampled);
+    }
+
+    // --- Helper: text of the class field, MISSING_CLASS when empty, "?" or absent ---
+    private static String classOf(byte[] line, int length, int classColumn) {
+        ParallelCsvLoader.FieldCursor cursor = new ParallelCsvLoader.FieldCursor(line, 0, length);
+        for (int c = 0; c <= classColumn; c++) {
+            if (!cursor.next()) {
+                return MISSING_CLASS;
+            }
+        }
+        return cursor.isMissing() ? MISSING_CLASS : cursor.text();
+    }
+
+    // --- Rows per class: proportional, classes below minorityRatio raised to it, capped by the counts ---
+    static int[] quotas(long[] counts, int size, double minorityRatio) {
+        int[] quotas = new int[counts.length];
+        long total = Arrays.stream(counts).sum();
+        if (total == 0) {
+            return quotas;
+        }
+        double ratio = Math.min(minorityRatio, 1.0 / counts.length);
+        boolean[] raised = new boolean[counts.length];
+        int left = size;
+        for (int k = 0; k < counts.length && counts.length > 1; k++) {
+            if ((double) counts[k] / total < ratio) {
+                raised[k] = true;
+                quotas[k] = (int) Math.min(counts[k], Math.round(ratio * size));
+                left -= quotas[k];
+            }
+        }
+        boolean[] open = new boolean[counts.length];
+        for (int k = 0; k < counts.length; k++) {
+            open[k] = !raised[k];
+        }
+        left -= allocate(counts, open, quotas, left);
+        // slots the other classes could not fill (too few rows) go back to all classes
+        Arrays.fill(open, true);
+        allocate(counts, open, quotas, left);
+        return quotas;
+    }
+
+    // --- Helper: give "amount" rows to the open classes in proportion to their counts
+    //     (largest remainder), never more than a class has; returns the rows given ---
+    private static int allocate(long[] counts, boolean[] open, int[] quotas, int amount) {
+        int given = 0;
+        while (given < amount) {
+            double weight = 0;
+            for (int k = 0; k < counts.length; k++) {
+                if (open[k] && quotas[k] < counts[k]) {
+                    weight += counts[k];
+                }
+            }
+            if (weight == 0) {
+                break;
+            }
+            int left = amount - given;
+            boolean capped = false;
+            for (int k = 0; k < counts.length; k++) {       // classes that cannot take their share: fill them up
+                if (open[k] && quotas[k] < counts[k] && left * counts[k] / weight >= counts[k] - quotas[k]) {
+                    given += (int) (counts[k] - quotas[k]);
+                    quotas[k] = (int) counts[k];
+                    capped = true;
+                }
+            }
+            if (capped) {
+                continue;
+            }
+            double[] remainders = new double[counts.length];
+            int floors = 0;
+            for (int k = 0; k < counts.length; k++) {
+                if (open[k] && quotas[k] < counts[k]) {
+                    double share = left * counts[k] / weight;
+                    quotas[k] += (int) share;
+                    floors += (int) share;
+                    remainders[k] = share - (int) share;
+                }
+            }
+            for (int extra = left - floors; extra > 0; extra--) {
+                int best = -1;
+                for (int k = 0; k < counts.length; k++) {
+                    if (open[k] && quotas[k] < counts[k] && (best < 0 || remainders[k] > remainders[best])) {
+                        best = k;
+                    }
+                }
+                quotas[best]++;
+                remainders[best] = -1;
+            }
+            given = amount;
+        }
+        return given;
+    }
+
+    public void printReport() {
+        System.out.println();
+        System.out.println("=== STRATIFIED RESERVOIR SAMPLE ===");
+        System.out.printf("Rows read: %d, sampled: %d (target %d%s) in %d ms%n", rowsRead,
+                sampledCounts.values().stream().mapToInt(Integer::intValue).sum(), sampleSize,
+                (minorityRatio > 0) ? String.format(", minority ratio %.2f", minorityRatio) : "", millis);
+        System.out.printf("%-24s | %12s | %8s | %10s | %8s%n", "Class", "Rows", "Share", "Sampled", "Share");
+        long sampled = Math.max(1, sampledCounts.values().stream().mapToInt(Integer::intValue).sum());
+        for (Map.Entry<String, Long> e : classCounts.entrySet()) {
+            int taken = sampledCounts.get(e.getKey());
+            System.out.printf("%-24s | %12d | %7.2f%% | %10d | %7.2f%%%n", e.getKey(), e.getValue(),
+                    100.0 * e.getValue() / Math.max(1, rowsRead), taken, 100.0 * taken / sampled);
+        }
+    }
+
+    // --- MAIN: write the sample as a CSV (Preprocessor --sample=N loads it directly instead) ---
+    //     Usage: ReservoirSampler <input.csv> <output.csv> --sample=N [--minority-ratio=r] [--seed=1]
+    public static void main(String[] args) throws Exception {
+        List<String> paths = CommandLine.positional(args);
+        int size = CommandLine.intOption(args, "sample", 0);
+        if (paths.size() < 2 || size <= 0) {
+            System.err.println("Usage: ReservoirSampler <input.csv> <output.csv> --sample=N [--minority-ratio=r] [--seed=1]");
+            System.exit(2);
+        }
+        ReservoirSampler sampler = new ReservoirSampler(size,
+                CommandLine.doubleOption(args, "minority-ratio", 0), CommandLine.intOption(args, "seed", 1));
+        Sample sample = sampler.sample(new File(paths.get(0)));
+        try (OutputStream out = new FileOutputStream(paths.get(1))) {
+            byte[] newline = "\n".getBytes(StandardCharsets.UTF_8);
+            out.write(String.join(",", quoted(sample.names)).getBytes(StandardCharsets.UTF_8));
+            out.write(newline);
+            for (byte[] line : sample.lines) {
+                out.write(line);
+                out.write(newline);
+            }
+        }
+        sampler.printReport();
+        System.out.println("Sample written: " + paths.get(1));
+    }
+
+    // --- Helper: header names, quoted when they contain a separator or quote ---
+    private static List<String> quoted(List<String> names) {
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            result.add(name.matches(".*[,\"'].*") ? "\"" + name.replace("\"", "\\\"") + "\"" : name);
+        }
+        return result;
+    }
+}
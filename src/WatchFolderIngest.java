@@ -0,0 +1,385 @@
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running ingestion of CSV files dropped into a directory.
+ *
+ * The directory is watched with an NIO WatchService. Arriving files are collected for
+ * a short window and processed together as one micro-batch: every file is mapped onto
+ * the training header, the stored training statistics (PreprocessingModel, written by
+ * Preprocessor as "<output>.model") are replayed, and the rows are optionally scored
+ * with a serialized Weka classifier. Results are written next to each input through a
+ * temporary file and an atomic rename:
+ *   <name>.preprocessed.arff   preprocessed rows
+ *   <name>.scores.csv          row, predicted class, confidence (only with --classifier;
+ *                              a ".cforest" file is opened as a CompactForest)
+ *
+ * Everything is loaded once, so there is no JVM or model start-up per file. Every
+ * batch reports its size, processing time, arrival-to-output latency, the backlog
+ * (files still waiting) and failed files; the same numbers are appended to
+ * results/ingest_metrics.tsv. A failing batch or file is logged and watching goes on.
+ * With --drift every batch is also compared with the training profile (DriftMonitor);
+ * unknown nominal values count as missing there, as they were already conformed.
+ */
+public class WatchFolderIngest {
+
+    static final String DEFAULT_METRICS = "results/ingest_metrics.tsv";
+    private static final String PREPROCESSED_SUFFIX = ".preprocessed.arff";
+    private static final String SCORES_SUFFIX = ".scores.csv";
+
+    private final Path directory;
+    private final PreprocessingModel model;
+    private final Classifier classifier;        // null = preprocess only
+    private final long batchWindowMs;
+    private final int maxFilesPerBatch;
+    private final long settleMs;
+    private final ParallelCsvLoader loader = new ParallelCsvLoader();
+    private final FastArffWriter writer = new FastArffWriter();
+
+    // file -> arrival time (System.nanoTime), in arrival order
+    private final Map<Path, Long> pending = new LinkedHashMap<>();
+    private int batchNumber = 0;
+    private long filesDone = 0;
+    private long rowsDone = 0;
+    private double driftPsi = Double.NaN;       // NaN = no drift check
+    private double driftKs = Double.NaN;
+
+    public WatchFolderIngest(Path directory, PreprocessingModel model, Classifier classifier,
+                             long batchWindowMs, int maxFilesPerBatch, long settleMs) {
+        this.directory = directory;
+        this.model = model;
+        this.classifier = classifier;
+        this.batchWindowMs = batchWindowMs;
+        this.maxFilesPerBatch = Math.max(1, maxFilesPerBatch);
+        this.settleMs = settleMs;
+    }
+
+    // --- Compare every batch with the training profile, alerting above these thresholds ---
+    public void checkDrift(double psiThreshold, double ksThreshold) {
+        this.driftPsi = psiThreshold;
+        this.driftKs = ksThreshold;
+    }
+
+    // --- Watch until interrupted (or until nothing is left when once = true) ---
+    public void run(boolean once) throws Exception {
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            scanDirectory();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                // collect arrivals for one batch window
+                WatchKey key = watcher.poll(batchWindowMs, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scanDirectory();
+                        } else {
+                            Path file = directory.resolve((Path) event.context());
+                            if (isInput(file)) {
+                                pending.putIfAbsent(file, System.nanoTime());
+                            }
+                        }
+                    }
+                    key.reset();
+                    key = watcher.poll();
+                }
+
+                List<Path> batch = takeReadyFiles();
+                if (!batch.isEmpty()) {
+                    processBatch(batch);
+                } else if (once && pending.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        System.out.printf("%nIngested %d file(s), %d row(s) in %d batch(es).%n", filesDone, rowsDone, batchNumber);
+    }
+
+    // --- Helper: inputs already in the directory that have no up-to-date output yet ---
+    private void scanDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.csv")) {
+            for (Path file : files) {
+                if (isInput(file) && !isUpToDate(file)) {
+                    pending.putIfAbsent(file, System.nanoTime());
+                }
+            }
+        }
+    }
+
+    private static boolean isInput(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".csv") && !name.endsWith(SCORES_SUFFIX) && !name.startsWith(".");
+    }
+
+    private static boolean isUpToDate(Path input) throws IOException {
+        Path output = outputPath(input, PREPROCESSED_SUFFIX);
+        return Files.exists(output)
+                && Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(input)) >= 0;
+    }
+
+    private static Path outputPath(Path input, String suffix) {
+        String name = input.getFileName().toString().replaceAll("\\.csv$", "");
+        return input.resolveSibling(name + suffix);
+    }
+
+    // --- Files that stopped changing (writer finished) for settleMs, oldest first ---
+    private List<Path> takeReadyFiles() throws IOException {
+        List<Path> ready = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        Iterator<Path> it = pending.keySet().iterator();
+        while (it.hasNext() && ready.size() < maxFilesPerBatch) {
+            Path file = it.next();
+            if (!Files.exists(file)) {
+                it.remove();
+            } else if (now - Files.getLastModifiedTime(file).toMillis() >= settleMs) {
+                ready.add(file);
+            }
+        }
+        return ready;
+    }
+
+    // --- One micro-batch: load, transform and score all files together, then write per file ---
+    //     A failing transform/score fails the batch, a failing write only its file; both are
+    //     logged and counted in the metrics, and watching goes on
+    private void processBatch(List<Path> files) {
+        long start = System.nanoTime();
+        batchNumber++;
+
+        List<Path> loaded = new ArrayList<>();
+        List<Integer> rowCounts = new ArrayList<>();
+        Instances rows = model.newBatch();
+        for (Path file : files) {
+            try {
+                Instances raw = loader.load(file.toFile());
+                model.conform(raw, rows);
+                loaded.add(file);
+                rowCounts.add(raw.numInstances());
+            } catch (Exception e) {
+                System.out.println("Skipping " + file.getFileName() + ": " + e.getMessage());
+                pending.remove(file);
+            }
+        }
+        if (loaded.isEmpty()) {
+            return;
+        }
+
+        Instances transformed;
+        String[] scores;
+        try {
+            if (!Double.isNaN(driftPsi)) {
+                reportDrift(rows);
+            }
+            transformed = model.transform(rows);
+            scores = (classifier != null) ? score(transformed) : null;
+        } catch (Exception e) {
+            // the whole batch fails; its files are picked up again when they change
+            String error = "transform/score failed: " + e;
+            for (Path file : loaded) {
+                pending.remove(file);
+            }
+            long processMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("[batch %d] FAILED files=%d rows=%d: %s%n", batchNumber, loaded.size(), rows.numInstances(), error);
+            appendMetrics(0, 0, processMs, 0, pending.size(), loaded.size(), error);
+            return;
+        }
+
+        // split the batch again and write every file's results atomically
+        int offset = 0;
+        long maxLatencyNanos = 0;
+        int written = 0;
+        int writtenRows = 0;
+        String error = "-";
+        for (int f = 0; f < loaded.size(); f++) {
+            Path file = loaded.get(f);
+            int count = rowCounts.get(f);
+            Instances part = new Instances(transformed, offset, count);
+            int from = offset;
+            offset += count;
+            long latencyNanos = System.nanoTime() - pending.remove(file);
+            try {
+                writeAtomically(outputPath(file, PREPROCESSED_SUFFIX), tmp -> writer.write(part, tmp));
+                if (scores != null) {
+                    writeAtomically(outputPath(file, SCORES_SUFFIX), tmp -> {
+                        try (PrintWriter out = new PrintWriter(tmp, StandardCharsets.UTF_8.name())) {
+                            out.println("row,predicted,confidence");
+                            for (int i = 0; i < count; i++) {
+                                out.println((i + 1) + "," + scores[from + i]);
+                            }
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                System.out.println("[batch " + batchNumber + "] Could not write results of " + file.getFileName() + ": " + e);
+                if (error.equals("-")) {
+                    error = file.getFileName() + ": " + e;
+                }
+                continue;
+            }
+            written++;
+            writtenRows += count;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+        }
+        filesDone += written;
+        rowsDone += writtenRows;
+
+        long processMs = (System.nanoTime() - start) / 1_000_000;
+        long latencyMs = maxLatencyNanos / 1_000_000;
+        int failed = loaded.size() - written;
+        System.out.printf("[batch %d] files=%d rows=%d process=%d ms max latency=%d ms backlog=%d%s%n",
+                batchNumber, written, writtenRows, processMs, latencyMs, pending.size(),
+                (failed > 0) ? " failed=" + failed : "");
+        appendMetrics(written, writtenRows, processMs, latencyMs, pending.size(), failed, error);
+    }
+
+    // --- Helper: drift of the conformed rows (before transform changes them); alerts only ---
+    private void reportDrift(Instances rows) {
+        DriftMonitor.Profile profile = model.trainingProfile.emptyCopy();
+        for (int i = 0; i < rows.numInstances(); i++) {
+            profile.add(rows.instance(i));
+        }
+        List<DriftMonitor.Score> scores = DriftMonitor.compare(model.trainingProfile, profile, driftPsi, driftKs);
+        for (DriftMonitor.Score s : scores) {
+            if (s.alert) {
+                System.out.printf("[batch %d] DRIFT %s: PSI=%.4f KS=%.4f missing %.1f%% -> %.1f%%%n", batchNumber,
+                        s.attribute, s.psi, s.ks, 100 * s.trainMissing, 100 * s.batchMissing);
+            }
+        }
+        DriftMonitor.appendLog(directory.getFileName() + " batch " + batchNumber, profile, scores);
+    }
+
+    // --- Helper: "predicted,confidence" per row ---
+    private String[] score(Instances data) throws Exception {
+        String[] result = new String[data.numInstances()];
+        for (int i = 0; i < data.numInstances(); i++) {
+            double[] distribution = classifier.distributionForInstance(data.instance(i));
+            int best = 0;
+            for (int k = 1; k < distribution.length; k++) {
+                if (distribution[k] > distribution[best]) {
+                    best = k;
+                }
+            }
+            result[i] = data.classAttribute().value(best) + "," + String.format("%.4f", distribution[best]);
+        }
+        return result;
+    }
+
+    interface FileWriting {
+        void write(File tmp) throws Exception;
+    }
+
+    // --- Helper: write to a hidden temporary file in the same directory, then rename ---
+    private static void writeAtomically(Path target, FileWriting writing) throws Exception {
+        Path tmp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        try {
+            writing.write(tmp.toFile());
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);      // left over only when writing or renaming failed
+        }
+    }
+
+    private void appendMetrics(int files, int rows, long processMs, long latencyMs, int backlog,
+                               int failed, String error) {
+        File file = new File(DEFAULT_METRICS);
+        boolean header = !file.exists();
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (header) {
+                out.println("timestamp\tdirectory\tbatch\tfiles\trows\tprocess_ms\tmax_latency_ms\tbacklog\tfailed\terror");
+            }
+            out.printf("%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%s%n",
+                    LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), directory,
+                    batchNumber, files, rows, processMs, latencyMs, backlog, failed,
+                    error.replace('\t', ' ').replace('\n', ' '));
+        } catch (IOException e) {
+            System.out.println("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    // --- MAIN ---
+    //     Usage: WatchFolderIngest <watch-dir> <preprocessed.arff.model> [--classifier=file.model]
+    //                              [--batch-ms=2000] [--max-files=32] [--settle-ms=500] [--once]
+    //                              [--drift [--psi=0.2] [--ks=0.1]]
+    public static void main(String[] args) throws Exception {
+        if (CommandLine.positional(args).size() < 2) {
+            System.err.println("Usage: WatchFolderIngest <watch-dir> <preprocessed.arff.model> [--classifier=file.model]"
+                    + " [--batch-ms=2000] [--max-files=32] [--settle-ms=500] [--once] [--drift [--psi=0.2] [--ks=0.1]]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(CommandLine.positional(args, 0, null));
+        File modelFile = new File(CommandLine.positional(args, 1, null));
+        String classifierPath = CommandLine.option(args, "classifier", null);
+
+        System.out.println("=== WATCH FOLDER INGEST ===");
+        PreprocessingModel model = PreprocessingModel.load(modelFile);
+        System.out.println("Preprocessing model: " + modelFile + " (" + model.options + ")");
+
+        Classifier classifier = null;
+        if (classifierPath != null && classifierPath.endsWith(".cforest")) {
+            // compact forest: memory-mapped, trees are loaded on first use
+            CompactForest forest = CompactForest.open(new File(classifierPath));
+            classifier = forest;
+            System.out.println("Classifier: " + classifierPath + " (" + forest + ")");
+        } else if (classifierPath != null) {
+            Object[] objects = SerializationHelper.readAll(classifierPath);
+            classifier = (Classifier) objects[0];
+            System.out.println("Classifier: " + classifierPath + " (" + classifier.getClass().getSimpleName() + ")");
+
+            // models saved together with their training header can be checked up front
+            if (objects.length > 1 && objects[1] instanceof Instances) {
+                String mismatch = ((Instances) objects[1]).equalHeadersMsg(model.transform(model.newBatch()));
+                if (mismatch != null) {
+                    System.err.println("Classifier was trained on a different header: " + mismatch);
+                    System.exit(1);
+                }
+            }
+        }
+
+        WatchFolderIngest ingest = new WatchFolderIngest(directory, model, classifier,
+                CommandLine.intOption(args, "batch-ms", 2000),
+                CommandLine.intOption(args, "max-files", 32),
+                CommandLine.intOption(args, "settle-ms", 500));
+        if (CommandLine.flag(args, "drift")) {
+            if (model.trainingProfile == null) {
+                System.err.println("The preprocessing model has no training profile; run Preprocessor again to use --drift.");
+                System.exit(2);
+            }
+            ingest.checkDrift(CommandLine.doubleOption(args, "psi", DriftMonitor.DEFAULT_PSI),
+                    CommandLine.doubleOption(args, "ks", DriftMonitor.DEFAULT_KS));
+            System.out.println("Drift check: on (alerts to console, scores to " + DriftMonitor.DEFAULT_LOG + ")");
+        }
+        System.out.println("Watching: " + directory.toAbsolutePath());
+        ingest.run(CommandLine.flag(args, "once"));
+    }
+}
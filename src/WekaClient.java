@@ -0,0 +1,73 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for WekaDaemon: sends one job and prints its output as it arrives.
+ * Does not load any Weka classes itself. The exit code is the job's exit code.
+ *
+ * Usage: WekaClient [--port=5917] <Preprocessor|Classifier|Evaluator|Improver|Pipeline|PerfHistory> [args...]
+ *        WekaClient [--port=5917] ping | stop | clear-cache
+ */
+public class WekaClient {
+
+    public static void main(String[] args) throws Exception {
+        int port = WekaDaemon.DEFAULT_PORT;
+        List<String> request = new ArrayList<>();
+        for (String arg : args) {
+            if (request.isEmpty() && arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else {
+                request.add(arg);
+            }
+        }
+        if (request.isEmpty()) {
+            System.err.println("Usage: WekaClient [--port=N] <tool> [args...] | ping | stop | clear-cache");
+            System.exit(2);
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(request.size());
+            for (String arg : request) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int type = in.readByte();
+                if (type == WekaDaemon.FRAME_EXIT) {
+                    System.out.flush();
+                    System.exit(in.readInt());
+                }
+                int length = in.readInt();
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                in.readFully(buffer, 0, length);
+                System.out.write(buffer, 0, length);
+            }
+        } catch (ConnectException e) {
+            System.err.println("No WekaDaemon listening on port " + port + " (start it with: java WekaDaemon)");
+            System.exit(3);
+        } catch (EOFException e) {
+            System.err.println("WekaDaemon closed the connection before the job finished");
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("WekaDaemon connection failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Long-lived process that keeps Weka loaded and JIT-warm and runs tool jobs sent by
+ * WekaClient over a loopback socket. Recently loaded datasets are kept in DatasetCache.
+ *
+ * Jobs run one at a time (the tools keep state in static fields); while a job runs,
+ * System.out / System.err are sent to the client. Relative paths in the job's
+ * positional arguments are resolved against the client's working directory, and so is
+ * a tool's default dataset when the job names none; result files (results/...) are
+ * written relative to the daemon's directory. A client that does not send its request
+ * within HEADER_TIMEOUT_MS is dropped, so it cannot block the jobs queued behind it.
+ *
+ * Usage: WekaDaemon [--port=5917] [--cache=4]
+ */
+public class WekaDaemon {
+
+    static final int DEFAULT_PORT = 5917;
+    static final int HEADER_TIMEOUT_MS = 10_000;
+    static final int MAX_REQUEST_ARGS = 1024;
+
+    // Frame types of the reply stream: output chunks, then the exit code
+    static final int FRAME_OUTPUT = 1;
+    static final int FRAME_EXIT = 2;
+
+    private static final List<String> TOOLS = Arrays.asList(
+            "Preprocessor", "Classifier", "Evaluator", "Improver", "Pipeline", "PerfHistory");
+
+    // Dataset each tool's main falls back to without a positional argument (relative to the project folder)
+    private static final Map<String, String> DEFAULT_DATASETS = new HashMap<>();
+    static {
+        DEFAULT_DATASETS.put("Preprocessor", "datasets/heart_disease.csv");
+        DEFAULT_DATASETS.put("Pipeline", "datasets/heart_disease.csv");
+        DEFAULT_DATASETS.put("Classifier", "datasets/heart_disease_preprocessed.arff");
+        DEFAULT_DATASETS.put("Evaluator", "datasets/heart_disease_preprocessed.arff");
+        DEFAULT_DATASETS.put("Improver", "datasets/heart_disease_preprocessed.arff");
+    }
+
+    private static volatile boolean running = true;
+    private static long jobs;
+
+    public static void main(String[] args) throws Exception {
+        int port = CommandLine.intOption(args, "port", DEFAULT_PORT);
+        int cache = CommandLine.intOption(args, "cache", 4);
+        DatasetCache.setCapacity(cache);
+
+        System.out.println("======================================================================");
+        System.out.println("=== WEKA DAEMON ===");
+        System.out.println("======================================================================");
+        long start = System.currentTimeMillis();
+        warmUp();
+        System.out.printf("Weka classes loaded in %d ms%n", System.currentTimeMillis() - start);
+
+        try (ServerSocket server = new ServerSocket(port, 16, InetAddress.getLoopbackAddress())) {
+            System.out.println("Listening on " + server.getInetAddress().getHostAddress() + ":" + port
+                    + " (dataset cache: " + cache + ")");
+            while (running) {
+                try (Socket socket = server.accept()) {
+                    handle(socket);
+                } catch (IOException e) {
+                    System.err.println("[WekaDaemon] Connection failed: " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("[WekaDaemon] Stopped after " + jobs + " jobs");
+    }
+
+    // --- Load the classes every job needs, so the first job does not pay for it ---
+    private static void warmUp() {
+        String[] classes = {
+                "weka.core.Instances", "weka.core.converters.ArffLoader", "weka.core.converters.ArffSaver",
+                "weka.core.converters.CSVLoader", "weka.classifiers.Evaluation",
+                "weka.classifiers.trees.J48", "weka.classifiers.trees.RandomForest",
+                "weka.classifiers.bayes.NaiveBayes", "weka.classifiers.functions.SMO",
+                "weka.classifiers.functions.Logistic", "weka.classifiers.lazy.IBk",
+                "weka.classifiers.meta.CostSensitiveClassifier",
+                "weka.filters.unsupervised.attribute.NominalToBinary",
+                "weka.filters.unsupervised.instance.RemoveDuplicates",
+                "Preprocessor", "Classifier", "Evaluator", "Improver", "Pipeline", "HistGradientBoosting"
+        };
+        for (String name : classes) {
+            try {
+                Class.forName(name);
+            } catch (ClassNotFoundException | LinkageError e) {
+                System.err.println("[WekaDaemon] Could not preload " + name);
+            }
+        }
+    }
+
+    // --- One request: working directory, tool name and arguments ---
+    private static void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        // The header must arrive promptly; the job's own run time is not limited
+        socket.setSoTimeout(HEADER_TIMEOUT_MS);
+        String cwd = in.readUTF();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_REQUEST_ARGS) {
+            throw new IOException("Malformed request: " + count + " arguments");
+        }
+        List<String> request = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            request.add(in.readUTF());
+        }
+        socket.setSoTimeout(0);
+        String tool = request.isEmpty() ? "" : request.get(0);
+        List<String> toolArgs = new ArrayList<>(request.subList(Math.min(1, request.size()), request.size()));
+        if (DEFAULT_DATASETS.containsKey(tool) && CommandLine.positional(toolArgs.toArray(new String[0])).isEmpty()) {
+            toolArgs.add(0, DEFAULT_DATASETS.get(tool));     // the client's default, not the daemon's
+        }
+        String[] args = resolvePaths(cwd, toolArgs);
+
+        PrintStream client = new PrintStream(new FrameOutputStream(out), true, "UTF-8");
+        int exitCode = 0;
+        switch (tool) {
+            case "ping":
+                client.println("pong (" + DatasetCache.stats() + ", " + jobs + " jobs)");
+                break;
+            case "stop":
+                client.println("stopping daemon");
+                running = false;
+                break;
+            case "clear-cache":
+                DatasetCache.clear();
+                client.println("cache cleared");
+                break;
+            default:
+                exitCode = runJob(tool, args, client);
+                break;
+        }
+        client.flush();
+        out.writeByte(FRAME_EXIT);
+        out.writeInt(exitCode);
+        out.flush();
+    }
+
+    // --- Run a tool's main with System.out / System.err sent to the client ---
+    private static int runJob(String tool, String[] args, PrintStream client) {
+        if (!TOOLS.contains(tool)) {
+            client.println("Unknown tool '" + tool + "', expected one of " + TOOLS + " or ping / stop / clear-cache");
+            return 2;
+        }
+
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        long start = System.currentTimeMillis();
+        int exitCode = 0;
+        System.setOut(client);
+        System.setErr(client);
+        try {
+            switch (tool) {
+                case "Preprocessor":
+                    Preprocessor.main(args);
+                    break;
+                case "Classifier":
+                    Classifier.main(args);
+                    break;
+                case "Evaluator":
+                    Evaluator.main(args);
+                    break;
+                case "Improver":
+                    Improver.main(args);
+                    break;
+                case "Pipeline":
+                    Pipeline.main(args);
+                    break;
+                default:
+                    PerfHistory.main(args);
+                    break;
+            }
+        } catch (Throwable e) {
+            e.printStackTrace(client);
+            exitCode = 1;
+        } finally {
+            System.out.flush();
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
+        jobs++;
+        System.out.printf("[WekaDaemon] %s %s -> exit %d in %d ms (%s)%n",
+                tool, String.join(" ", args), exitCode, System.currentTimeMillis() - start, DatasetCache.stats());
+        return exitCode;
+    }
+
+    // --- Relative paths are meant relative to the client, not the daemon ---
+    private static String[] resolvePaths(String cwd, List<String> args) {
+        String[] resolved = new String[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            resolved[i] = (arg.startsWith("--") || new File(arg).isAbsolute()) ? arg : new File(cwd, arg).getPath();
+        }
+        return resolved;
+    }
+
+    // --- Sends everything written as output frames: type, length, bytes ---
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(FRAME_OUTPUT);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
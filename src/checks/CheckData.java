@@ -0,0 +1,126 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shared helpers of the checks in src/checks: a generated heart-disease-like dataset
+ * and the PASS / FAIL report. Every check is a main class that compares one of our
+ * fast paths with the Weka class it replaces and exits with 1 when they differ.
+ *
+ * Compile and run a check like any tool (the checks are in the default package):
+ *   javac -cp "lib\weka.jar;src;src\checks" -d bin src\checks\CheckFastArffWriter.java
+ *   java -cp "bin;lib\weka.jar" CheckFastArffWriter
+ */
+public class CheckData {
+
+    private static int failures = 0;
+
+    // --- Generated rows: numeric (with decimals, negatives, missing), nominal, string, binary class ---
+    //     The class depends on age, cholesterol and chest pain plus noise, so models have something to learn.
+    static Instances generate(int rows, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("age"));
+        attributes.add(new Attribute("chol"));
+        attributes.add(new Attribute("oldpeak"));
+        attributes.add(new Attribute("trestbps"));
+        attributes.add(new Attribute("sex", Arrays.asList("M", "F")));
+        attributes.add(new Attribute("cp", Arrays.asList("typical", "atypical", "non anginal", "asymptomatic")));
+        attributes.add(new Attribute("thal", Arrays.asList("normal", "fixed defect", "reversable defect")));
+        attributes.add(new Attribute("note", (List<String>) null));
+        attributes.add(new Attribute("target", Arrays.asList("No", "Yes")));
+
+        Instances data = new Instances("generated", attributes, rows);
+        data.setClassIndex(data.numAttributes() - 1);
+        Random random = new Random(seed);
+        for (int i = 0; i < rows; i++) {
+            double age = 29 + random.nextInt(49);
+            double chol = Math.round((150 + 120 * random.nextDouble()) * 1000) / 1000.0;
+            double oldpeak = random.nextGaussian() * 1.3;
+            double bps = 95 + random.nextInt(90);
+            int cp = random.nextInt(4);
+            double risk = 0.04 * (age - 53) + 0.01 * (chol - 210) + 0.5 * oldpeak + (cp == 3 ? 1.2 : -0.4)
+                    + random.nextGaussian();
+
+            double[] values = new double[data.numAttributes()];
+            values[0] = age;
+            values[1] = chol;
+            values[2] = oldpeak;
+            values[3] = (random.nextInt(20) == 0) ? Double.NaN : bps;
+            values[4] = random.nextInt(2);
+            values[5] = cp;
+            values[6] = (random.nextInt(25) == 0) ? Double.NaN : random.nextInt(3);
+            values[7] = data.attribute(7).addStringValue("visit " + random.nextInt(50));
+            values[8] = (risk > 0) ? 1 : 0;
+            Instance row = new DenseInstance(1.0, values);
+            data.add(row);
+        }
+        return data;
+    }
+
+    // --- Same data without the string attribute (for learners that do not take strings) ---
+    static Instances withoutStrings(Instances data) {
+        Instances copy = new Instances(data);
+        for (int j = copy.numAttributes() - 1; j >= 0; j--) {
+            if (copy.attribute(j).isString()) {
+                copy.deleteAttributeAt(j);
+            }
+        }
+        return copy;
+    }
+
+    // --- One comparison: printed as [PASS] / [FAIL], failures make the check exit with 1 ---
+    static boolean check(String what, boolean ok) {
+        System.out.println((ok ? "  [PASS] " : "  [FAIL] ") + what);
+        if (!ok) {
+            failures++;
+        }
+        return ok;
+    }
+
+    static void header(String name) {
+        System.out.println("=".repeat(70));
+        System.out.println("=== CHECK: " + name + " ===");
+        System.out.println("=".repeat(70));
+    }
+
+    // --- Final line and exit code ---
+    static void finish() {
+        System.out.println();
+        System.out.println(failures == 0 ? "=== ALL CHECKS PASSED ===" : "=== " + failures + " CHECK(S) FAILED ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // --- Same values, bit for bit (NaN = missing compares equal), and same text for string/nominal values ---
+    static boolean sameValues(Instances expected, Instances actual) {
+        if (expected.numInstances() != actual.numInstances()) {
+            return false;
+        }
+        for (int i = 0; i < expected.numInstances(); i++) {
+            Instance a = expected.instance(i);
+            Instance b = actual.instance(i);
+            if (a.weight() != b.weight()) {
+                return false;
+            }
+            for (int j = 0; j < expected.numAttributes(); j++) {
+                if (a.isMissing(j) || b.isMissing(j)) {
+                    if (a.isMissing(j) != b.isMissing(j)) {
+                        return false;
+                    }
+                } else if (expected.attribute(j).isNumeric()) {
+                    if (Double.doubleToLongBits(a.value(j)) != Double.doubleToLongBits(b.value(j))) {
+                        return false;
+                    }
+                } else if (!a.stringValue(j).equals(b.stringValue(j))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffSaver;
+import weka.filters.Filter;
+import weka.filters.unsupervised.instance.NonSparseToSparse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * FastArffWriter must write exactly the bytes of ArffSaver.writeBatch(). Checked on the
+ * generated data (several row blocks, 1 and 4 threads), on numbers that are hard to
+ * round like DecimalFormat (ties at the 6th decimal, large and tiny magnitudes, -0,
+ * values that round to -0), on weighted rows, on sparse rows, and for gzip output after
+ * decompression.
+ *
+ * Usage: CheckFastArffWriter [--rows=20000]
+ */
+public class CheckFastArffWriter {
+
+    public static void main(String[] args) throws Exception {
+        int rows = CommandLine.intOption(args, "rows", 20000);
+        CheckData.header("FastArffWriter vs ArffSaver");
+
+        Instances data = CheckData.generate(rows, 1);
+        System.out.printf("Generated %d rows, %d attributes%n", data.numInstances(), data.numAttributes());
+        compare("generated data, 4 threads", data, 4);
+        compare("generated data, 1 thread", data, 1);
+        compare("hard-to-round numbers and weights", hardNumbers(data, 5000), 4);
+
+        NonSparseToSparse toSparse = new NonSparseToSparse();
+        Instances numeric = CheckData.withoutStrings(data);
+        toSparse.setInputFormat(numeric);
+        compare("sparse rows", Filter.useFilter(numeric, toSparse), 4);
+
+        File expected = File.createTempFile("check_arff_", ".arff");
+        File actual = File.createTempFile("check_arff_", ".arff.gz");
+        expected.deleteOnExit();
+        actual.deleteOnExit();
+        writeReference(data, expected);
+        new FastArffWriter(4).write(data, actual);
+        CheckData.check("gzip output decompresses to the same bytes",
+                Arrays.equals(Files.readAllBytes(expected.toPath()), gunzip(actual)));
+
+        CheckData.finish();
+    }
+
+    private static void compare(String name, Instances data, int threads) throws Exception {
+        File expected = File.createTempFile("check_arff_", ".arff");
+        File actual = File.createTempFile("check_arff_", ".arff");
+        expected.deleteOnExit();
+        actual.deleteOnExit();
+        writeReference(data, expected);
+        new FastArffWriter(threads).write(data, actual);
+        byte[] a = Files.readAllBytes(expected.toPath());
+        byte[] b = Files.readAllBytes(actual.toPath());
+        CheckData.check(name + ": byte-identical (" + a.length + " bytes)", Arrays.equals(a, b));
+    }
+
+    private static void writeReference(Instances data, File file) throws IOException {
+        ArffSaver saver = new ArffSaver();
+        saver.setInstances(data);
+        saver.setFile(file);
+        saver.writeBatch();
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            return in.readAllBytes();
+        }
+    }
+
+    // --- Numeric columns filled with values near rounding edges; every 7th row weighted ---
+    private static Instances hardNumbers(Instances data, int rows) {
+        double[] edges = {
+                0.0000005, 1.0000005, 2.5e-7, -2.5e-7, 0.1 + 0.2, 1.23456749999, 1.2345675,
+                -0.0, -1e-8, 1e-9, 123456.7890125, 999999.9999995, 1e6 + 0.1234565, 1e7 + 0.123456789,
+                -3.14159265358979, 1e15, 1e21, 4.9e-324, Double.MAX_VALUE
+        };
+        Instances result = new Instances(data, rows);
+        Random random = new Random(2);
+        for (int i = 0; i < rows; i++) {
+            Instance row = (Instance) data.instance(i % data.numInstances()).copy();
+            for (int j = 0; j < result.numAttributes(); j++) {
+                if (!result.attribute(j).isNumeric()) {
+                    continue;
+                }
+                double value = (random.nextBoolean())
+                        ? edges[random.nextInt(edges.length)]
+                        : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(16) - 8);
+                row.setValue(j, value);
+            }
+            if (i % 7 == 0) {
+                row.setWeight(0.5 + random.nextInt(1000) / 1e4 + 1e-7);
+            }
+            result.add(row);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * GrowableRandomForest must be the same model as Weka's RandomForest: identical
+ * distributions for every test row when built from scratch (1 and 4 execution slots),
+ * when grown from 50 to 100 trees with growTo, and when warm-started from a 50-tree
+ * forest; the out-of-bag error (-O) must match as well. Checked with a nominal and with
+ * a numeric class.
+ *
+ * Usage: CheckGrowableRandomForest [--rows=3000] [--trees=100]
+ */
+public class CheckGrowableRandomForest {
+
+    public static void main(String[] args) throws Exception {
+        int rows = CommandLine.intOption(args, "rows", 3000);
+        int trees = CommandLine.intOption(args, "trees", 100);
+        CheckData.header("GrowableRandomForest vs RandomForest");
+
+        Instances data = CheckData.withoutStrings(CheckData.generate(rows, 1));
+        System.out.printf("Generated %d rows, %d attributes, %d trees%n", data.numInstances(), data.numAttributes(), trees);
+        compare("nominal class (target)", data, trees);
+
+        Instances numeric = new Instances(data);
+        numeric.setClass(numeric.attribute("chol"));
+        compare("numeric class (chol)", numeric, trees);
+
+        CheckData.finish();
+    }
+
+    private static void compare(String name, Instances data, int trees) throws Exception {
+        System.out.println();
+        System.out.println("--- " + name + " ---");
+        int split = data.numInstances() * 2 / 3;
+        Instances train = new Instances(data, 0, split);
+        Instances test = new Instances(data, split, data.numInstances() - split);
+
+        RandomForest reference = new RandomForest();
+        reference.setNumIterations(trees);
+        reference.setCalcOutOfBag(true);
+        reference.buildClassifier(train);
+
+        GrowableRandomForest scratch = new GrowableRandomForest();
+        scratch.setNumIterations(trees);
+        scratch.setCalcOutOfBag(true);
+        scratch.buildClassifier(train);
+        CheckData.check("built from scratch: identical predictions", samePredictions(reference, scratch, test));
+        CheckData.check(String.format("same out-of-bag error (%.6f)", reference.measureOutOfBagError()),
+                reference.measureOutOfBagError() == scratch.measureOutOfBagError());
+
+        GrowableRandomForest parallel = new GrowableRandomForest();
+        parallel.setNumIterations(trees);
+        parallel.setNumExecutionSlots(4);
+        parallel.setCalcOutOfBag(true);     // out-of-bag rows scored on the tree threads
+        parallel.buildClassifier(train);
+        CheckData.check("4 execution slots: identical predictions and out-of-bag error",
+                samePredictions(reference, parallel, test)
+                        && reference.measureOutOfBagError() == parallel.measureOutOfBagError());
+
+        GrowableRandomForest grown = new GrowableRandomForest();
+        grown.setNumIterations(trees / 2);
+        grown.setKeepGrowthState(true);
+        grown.buildClassifier(train);
+        grown.growTo(trees);
+        CheckData.check("grown from " + trees / 2 + " to " + trees + " trees: identical predictions",
+                samePredictions(reference, grown, test));
+
+        GrowableRandomForest half = new GrowableRandomForest();
+        half.setNumIterations(trees / 2);
+        half.setKeepGrowthState(true);
+        half.buildClassifier(train);
+        GrowableRandomForest warm = new GrowableRandomForest();
+        warm.setNumIterations(trees);
+        boolean continued = warm.warmStart(half, train);
+        CheckData.check("warm start from " + trees / 2 + " trees: " + warm.getReusedTrees() + " trees reused, identical predictions",
+                continued && samePredictions(reference, warm, test));
+    }
+
+    // --- Same distribution, bit for bit, for every row ---
+    private static boolean samePredictions(Classifier expected, Classifier actual, Instances test) throws Exception {
+        for (int i = 0; i < test.numInstances(); i++) {
+            if (!Arrays.equals(expected.distributionForInstance(test.instance(i)),
+                    actual.distributionForInstance(test.instance(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
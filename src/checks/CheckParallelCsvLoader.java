@@ -0,0 +1,79 @@
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * ParallelCsvLoader must produce the same Instances as Weka's CSVLoader: same header
+ * (attribute types, nominal value order, relation name) and the same values bit for bit.
+ * The generated CSV is large enough to be split into several chunks and covers quoted
+ * text, "?" and empty fields, negative and exponent numbers, a numeric column that turns
+ * into text late in the file and a column with only missing values.
+ *
+ * Usage: CheckParallelCsvLoader [--rows=60000] [--threads=4]
+ */
+public class CheckParallelCsvLoader {
+
+    public static void main(String[] args) throws Exception {
+        int rows = CommandLine.intOption(args, "rows", 60000);
+        int threads = CommandLine.intOption(args, "threads", 4);
+        CheckData.header("ParallelCsvLoader vs CSVLoader");
+
+        File csv = File.createTempFile("check_csv_", ".csv");
+        csv.deleteOnExit();
+        writeCsv(csv, rows, 1);
+        System.out.printf("Generated %d rows (%d bytes), %d threads%n", rows, csv.length(), threads);
+
+        CSVLoader reference = new CSVLoader();
+        reference.setSource(csv);
+        Instances expected = reference.getDataSet();
+        Instances actual = new ParallelCsvLoader(threads).load(csv);
+
+        CheckData.check("same header", new Instances(expected, 0).toString().equals(new Instances(actual, 0).toString()));
+        CheckData.check("same number of rows (" + expected.numInstances() + ")",
+                expected.numInstances() == actual.numInstances());
+        CheckData.check("same values", CheckData.sameValues(expected, actual));
+
+        // A small file is a single chunk: same result on one thread
+        File small = File.createTempFile("check_csv_small_", ".csv");
+        small.deleteOnExit();
+        writeCsv(small, 500, 2);
+        reference = new CSVLoader();
+        reference.setSource(small);
+        expected = reference.getDataSet();
+        actual = new ParallelCsvLoader(1).load(small);
+        CheckData.check("small file, 1 thread: same header and values",
+                new Instances(expected, 0).toString().equals(new Instances(actual, 0).toString())
+                        && CheckData.sameValues(expected, actual));
+
+        CheckData.finish();
+    }
+
+    // --- Heart-disease-like CSV with the quirks CSVLoader handles ---
+    private static void writeCsv(File file, int rows, long seed) throws Exception {
+        String[] chestPain = {"typical", "atypical", "\"non anginal\"", "'asymptomatic'"};
+        Random random = new Random(seed);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.println("age,chol,oldpeak,scale,cp,thal,code,empty,target");
+            for (int i = 0; i < rows; i++) {
+                StringBuilder line = new StringBuilder();
+                line.append(29 + random.nextInt(49)).append(',');
+                line.append(String.format(Locale.ROOT, "%.3f", 150 + 120 * random.nextDouble())).append(',');
+                line.append(random.nextInt(30) == 0 ? "" : String.valueOf(random.nextGaussian() * 1.3)).append(',');
+                line.append(String.format(Locale.ROOT, "%.2e", random.nextDouble() * 1e5)).append(',');
+                line.append(chestPain[random.nextInt(chestPain.length)]).append(',');
+                line.append(random.nextInt(25) == 0 ? "?" : "thal" + random.nextInt(3)).append(',');
+                // numeric until the last rows, then text: CSVLoader makes it a string attribute
+                line.append(i > rows - 10 ? "A" + i : String.valueOf(random.nextInt(1000))).append(',');
+                line.append("?").append(',');
+                line.append(random.nextBoolean() ? "Yes" : "No");
+                out.println(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import weka.classifiers.functions.Logistic;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * ParallelLogistic must fit the same model as Weka's Logistic: coefficients within the
+ * optimizer tolerance (both stop at their own convergence test), the same predicted
+ * class for (almost) every row, and exactly the same coefficients on 1 and 4 threads.
+ * Checked with a binary class and with a 4-class nominal class (multinomial model).
+ *
+ * Usage: CheckParallelLogistic [--rows=5000] [--tolerance=1e-3]
+ */
+public class CheckParallelLogistic {
+
+    public static void main(String[] args) throws Exception {
+        int rows = CommandLine.intOption(args, "rows", 5000);
+        double tolerance = CommandLine.doubleOption(args, "tolerance", 1e-3);
+        CheckData.header("ParallelLogistic vs Logistic");
+
+        Instances data = CheckData.withoutStrings(CheckData.generate(rows, 1));
+        System.out.printf("Generated %d rows, %d attributes, coefficient tolerance %.0e%n",
+                data.numInstances(), data.numAttributes(), tolerance);
+        compare("binary class (target)", data, tolerance);
+
+        Instances multi = new Instances(data);
+        multi.setClass(multi.attribute("cp"));
+        compare("4-class class (cp)", multi, tolerance);
+
+        CheckData.finish();
+    }
+
+    private static void compare(String name, Instances data, double tolerance) throws Exception {
+        System.out.println();
+        System.out.println("--- " + name + " ---");
+        Logistic reference = new Logistic();
+        reference.buildClassifier(data);
+        ParallelLogistic parallel = new ParallelLogistic();
+        parallel.setNumThreads(4);
+        parallel.buildClassifier(data);
+        ParallelLogistic single = new ParallelLogistic();
+        single.setNumThreads(1);
+        single.buildClassifier(data);
+
+        // Relative difference, with coefficients near zero compared in absolute terms
+        double[][] expected = reference.coefficients();
+        double[][] actual = parallel.coefficients();
+        boolean sameShape = expected.length == actual.length && expected[0].length == actual[0].length;
+        double maxDiff = 0;
+        if (sameShape) {
+            for (int i = 0; i < expected.length; i++) {
+                for (int k = 0; k < expected[i].length; k++) {
+                    double diff = Math.abs(expected[i][k] - actual[i][k]) / Math.max(1, Math.abs(expected[i][k]));
+                    maxDiff = Math.max(maxDiff, diff);
+                }
+            }
+        }
+        CheckData.check("same coefficient layout (" + expected.length + " x " + expected[0].length + ")", sameShape);
+        CheckData.check(String.format("coefficients agree (max relative difference %.2e)", maxDiff),
+                sameShape && maxDiff <= tolerance);
+
+        int agree = 0;
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (reference.classifyInstance(data.instance(i)) == parallel.classifyInstance(data.instance(i))) {
+                agree++;
+            }
+        }
+        CheckData.check(String.format("same predicted class for %d of %d rows", agree, data.numInstances()),
+                agree >= data.numInstances() * 0.999);
+
+        boolean sameThreads = true;
+        double[][] one = single.coefficients();
+        for (int i = 0; i < one.length; i++) {
+            sameThreads &= Arrays.equals(one[i], actual[i]);
+        }
+        CheckData.check("identical coefficients on 1 and 4 threads", sameThreads);
+    }
+}